@@ -6,9 +6,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.RectF;
-import android.support.annotation.NonNull;
 import android.view.LayoutInflater;
-import android.view.MotionEvent;
 import android.view.ViewGroup;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
@@ -37,6 +35,7 @@ public class BasicButton extends ButtonControl {
 
     private Paint paint;
     private RectF drawBounds;
+    private int pointerCount;
 
     private TextView joyNumTV;
     private TextView buttonNumTV;
@@ -147,20 +146,24 @@ public class BasicButton extends ButtonControl {
         updateSize();
     }
 
+    /**
+     * The button stays pressed while any finger that went down on it is still
+     * down.
+     */
     @Override
-    public boolean onTouchEvent(@NonNull MotionEvent event) {
-        if (!isEditing()) {
-            switch (event.getAction()) {
-                case MotionEvent.ACTION_DOWN:
-                    setButtonPressed(true);
-                    break;
-                case MotionEvent.ACTION_UP:
-                    setButtonPressed(false);
-                    break;
-            }
+    protected boolean onPointerDown(int pointerId, float x, float y) {
+        if (pointerCount++ == 0) {
+            setButtonPressed(true);
             invalidate();
         }
+        return true;
+    }
 
-        return super.onTouchEvent(event);
+    @Override
+    protected void onPointerUp(int pointerId, boolean canceled) {
+        if (--pointerCount == 0) {
+            setButtonPressed(false);
+            invalidate();
+        }
     }
 }
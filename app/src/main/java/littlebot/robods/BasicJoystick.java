@@ -5,9 +5,7 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.support.annotation.NonNull;
 import android.view.LayoutInflater;
-import android.view.MotionEvent;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.TextView;
@@ -30,10 +28,12 @@ public class BasicJoystick extends JoystickControl {
     private final IntegerProperty radius = new IntegerProperty("Radius", 300);
 
     public static final float MAX_VALUE = 1.0f;
+    private static final int NO_POINTER = -1;
     private Paint paint;
 
     private float pixelToValueRatio;
     private int innerRadius, outerRadius;
+    private int pointerId = NO_POINTER;
 
     private TextView xJoyNumTV;
     private TextView yJoyNumTV;
@@ -41,6 +41,12 @@ public class BasicJoystick extends JoystickControl {
     private CheckBox xInvertedRB;
     private TextView yAxisNumTV;
     private CheckBox yInvertedRB;
+    private TextView xDeadbandTV;
+    private TextView xExpoTV;
+    private TextView xSlewRateTV;
+    private TextView yDeadbandTV;
+    private TextView yExpoTV;
+    private TextView ySlewRateTV;
     private TextView radiusText;
 
     public BasicJoystick(Context context, ControlDatabase controlDatabase) {
@@ -60,6 +66,12 @@ public class BasicJoystick extends JoystickControl {
         xInvertedRB = (CheckBox) editDialogLayout.findViewById(R.id.x_inverted_radio);
         yAxisNumTV = (TextView) editDialogLayout.findViewById(R.id.y_axis_text);
         yInvertedRB = (CheckBox) editDialogLayout.findViewById(R.id.y_inverted_radio);
+        xDeadbandTV = (TextView) editDialogLayout.findViewById(R.id.x_deadband_text);
+        xExpoTV = (TextView) editDialogLayout.findViewById(R.id.x_expo_text);
+        xSlewRateTV = (TextView) editDialogLayout.findViewById(R.id.x_slew_rate_text);
+        yDeadbandTV = (TextView) editDialogLayout.findViewById(R.id.y_deadband_text);
+        yExpoTV = (TextView) editDialogLayout.findViewById(R.id.y_expo_text);
+        ySlewRateTV = (TextView) editDialogLayout.findViewById(R.id.y_slew_rate_text);
         radiusText = (TextView) editDialogLayout.findViewById(R.id.radius_text);
 
         setEditDialogLayout(editDialogLayout);
@@ -72,6 +84,12 @@ public class BasicJoystick extends JoystickControl {
         xInvertedRB.setChecked(isXInverted());
         yAxisNumTV.setText(Integer.toString(getYAxisNumber()));
         yInvertedRB.setChecked(isYInverted());
+        xDeadbandTV.setText(Float.toString(getXDeadband()));
+        xExpoTV.setText(Float.toString(getXExpo()));
+        xSlewRateTV.setText(Float.toString(getXSlewRate()));
+        yDeadbandTV.setText(Float.toString(getYDeadband()));
+        yExpoTV.setText(Float.toString(getYExpo()));
+        ySlewRateTV.setText(Float.toString(getYSlewRate()));
         radiusText.setText(Integer.toString(getRadius()));
     }
 
@@ -140,6 +158,12 @@ public class BasicJoystick extends JoystickControl {
             setXInverted(xInvertedRB.isChecked());
             setYAxisIndex(Integer.parseInt(yAxisNumTV.getText().toString()));
             setYInverted(yInvertedRB.isChecked());
+            setXDeadband(Float.parseFloat(xDeadbandTV.getText().toString()));
+            setXExpo(Float.parseFloat(xExpoTV.getText().toString()));
+            setXSlewRate(Float.parseFloat(xSlewRateTV.getText().toString()));
+            setYDeadband(Float.parseFloat(yDeadbandTV.getText().toString()));
+            setYExpo(Float.parseFloat(yExpoTV.getText().toString()));
+            setYSlewRate(Float.parseFloat(ySlewRateTV.getText().toString()));
 
             setRadius(Integer.parseInt(radiusText.getText().toString()));
         } catch (NumberFormatException e) {
@@ -151,34 +175,53 @@ public class BasicJoystick extends JoystickControl {
         }
     }
 
-    public boolean onTouchEvent(@NonNull MotionEvent event) {
-        if (!isEditing()) {
-            switch (event.getAction()) {
-                case MotionEvent.ACTION_MOVE:
-                    int centerRadius = radius.getValue();
-                    float offsetX = event.getX() - centerRadius;
-                    float offsetY = event.getY() - centerRadius;
-
-                    //If the touch event occurs outside of the joystick's radius
-                    // then keep the cursor inside but adjust the angle
-                    if (!(Math.sqrt(offsetX * offsetX + offsetY * offsetY) <= outerRadius)) {
-                        float angle = (float) Math.atan2(offsetY, offsetX);
-                        offsetX = outerRadius * (float) Math.cos(angle);
-                        offsetY = outerRadius * (float) Math.sin(angle);
-                    }
-
-                    setXAxisValue(offsetX * pixelToValueRatio);
-                    setYAxisValue(-offsetY * pixelToValueRatio);
-
-                    break;
-                case MotionEvent.ACTION_UP:
-                    setXAxisValue(0);
-                    setYAxisValue(0);
-                    break;
-            }
-            invalidate();
+    @Override
+    protected boolean onPointerDown(int pointerId, float x, float y) {
+        if (this.pointerId != NO_POINTER) {
+            // Already following another finger
+            return false;
+        }
+        this.pointerId = pointerId;
+        moveTo(x, y);
+        return true;
+    }
+
+    @Override
+    protected void onPointerMove(int pointerId, float x, float y) {
+        moveTo(x, y);
+    }
+
+    @Override
+    protected void onPointerUp(int pointerId, boolean canceled) {
+        this.pointerId = NO_POINTER;
+        setAxisValues(0, 0);
+        invalidate();
+    }
+
+    /**
+     * Every sample is applied, so that the input journal records the whole
+     * movement. They are all in one batch, so only the newest is sent.
+     */
+    @Override
+    protected boolean isHistoryNeeded() {
+        return true;
+    }
+
+    private void moveTo(float x, float y) {
+        int centerRadius = radius.getValue();
+        float offsetX = x - centerRadius;
+        float offsetY = y - centerRadius;
+
+        //If the touch event occurs outside of the joystick's radius
+        // then keep the cursor inside but keep the angle
+        float distance = (float) Math.sqrt(offsetX * offsetX + offsetY * offsetY);
+        if (!(distance <= outerRadius)) {
+            float scale = outerRadius / distance;
+            offsetX *= scale;
+            offsetY *= scale;
         }
 
-        return super.onTouchEvent(event);
+        setAxisValues(offsetX * pixelToValueRatio, -offsetY * pixelToValueRatio);
+        invalidate();
     }
 }
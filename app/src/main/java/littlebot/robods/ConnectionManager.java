@@ -11,10 +11,14 @@ import java.net.UnknownHostException;
 import java.util.Timer;
 import java.util.TimerTask;
 
+import littlebot.robods.communication.AndroidLogger;
+import littlebot.robods.communication.AxisSlewLimiter;
 import littlebot.robods.communication.DriverStationPacket;
 import littlebot.robods.communication.PacketManager;
+import littlebot.robods.communication.ProtocolLog;
 import littlebot.robods.communication.RobotPacket;
 import littlebot.robods.communication.RobotResolver;
+import littlebot.robods.journal.InputJournal;
 
 /**
  * @author Ben Wolsieffer
@@ -23,8 +27,40 @@ public class ConnectionManager {
 
     private static final String TAG = ConnectionManager.class.getSimpleName();
 
+    /*
+     * Indices into the batch state of a thread.
+     */
+    private static final int BATCH_DEPTH = 0;
+    private static final int SEND_PENDING = 1;
+
+    /**
+     * Applies control changes to the packet. The database can call this from
+     * several threads, so registering and configuring components, which is
+     * rare, is synchronized, while value changes are not.
+     */
     private final ControlDatabase.ControlListener controlListener = new ControlDatabase.ControlListener() {
 
+        /**
+         * The packet joystick of each component, indexed by its handle, so
+         * that value changes do not have to look up the joystick. The array
+         * is never changed once it is published, so that the threads that
+         * change values without a lock see complete bindings.
+         */
+        private volatile DriverStationPacket.Joystick[] boundJoysticks = new DriverStationPacket.Joystick[0];
+
+        /**
+         * The batch state of each thread, since batches on different threads
+         * can overlap: the depth of the thread's batches, and whether
+         * something changed during them, so a packet should be sent when the
+         * outermost one finishes.
+         */
+        private final ThreadLocal<int[]> batchStates = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[2];
+            }
+        };
+
         private DriverStationPacket.Joystick getJoystick(int index) {
             DriverStationPacket.Joystick j;
             if ((j = driverStationPacket.getJoystick(index)) == null) {
@@ -34,73 +70,158 @@ public class ConnectionManager {
             return j;
         }
 
-        @Override
-        public void axisRegistered(int joystickIndex, int axisIndex) {
+        private void requestSend() {
+            int[] batchState = batchStates.get();
+            if (batchState[BATCH_DEPTH] > 0) {
+                batchState[SEND_PENDING] = 1;
+            } else {
+                packetManager.requestSend();
+            }
+        }
+
+        private DriverStationPacket.Joystick bind(int handle, int joystickIndex) {
             DriverStationPacket.Joystick j = getJoystick(joystickIndex);
+            DriverStationPacket.Joystick[] joysticks = boundJoysticks;
+            if (handle < joysticks.length && joysticks[handle] == j) {
+                return j;
+            }
+            // Binding is rare, so the array is copied every time
+            DriverStationPacket.Joystick[] newBoundJoysticks =
+                    new DriverStationPacket.Joystick[Math.max(handle + 1, joysticks.length)];
+            System.arraycopy(joysticks, 0, newBoundJoysticks, 0, joysticks.length);
+            newBoundJoysticks[handle] = j;
+            boundJoysticks = newBoundJoysticks;
+            return j;
+        }
+
+        @Override
+        public synchronized void axisRegistered(int handle, int joystickIndex, int axisIndex) {
+            DriverStationPacket.Joystick j = bind(handle, joystickIndex);
             if (j.getAxisCount() <= axisIndex) {
                 j.setAxisCount(axisIndex + 1);
             }
         }
 
         @Override
-        public void buttonRegistered(int joystickIndex, int buttonIndex) {
-            DriverStationPacket.Joystick j = getJoystick(joystickIndex);
+        public synchronized void buttonRegistered(int handle, int joystickIndex, int buttonIndex) {
+            DriverStationPacket.Joystick j = bind(handle, joystickIndex);
             if (j.getButtonCount() <= buttonIndex) {
                 j.setButtonCount(buttonIndex + 1);
             }
         }
 
         @Override
-        public void povHatRegistered(int joystickIndex, int povHatIndex) {
-            DriverStationPacket.Joystick j = getJoystick(joystickIndex);
+        public synchronized void povHatRegistered(int handle, int joystickIndex, int povHatIndex) {
+            DriverStationPacket.Joystick j = bind(handle, joystickIndex);
             if (j.getPOVHatCount() <= povHatIndex) {
                 j.setPOVHatCount(povHatIndex + 1);
             }
         }
 
         @Override
-        public void axisValueChanged(int joystickIndex, int axisIndex, float value) {
-            driverStationPacket.getJoystick(joystickIndex).setAxisValue(axisIndex, value);
+        public void axisValueChanged(int handle, int joystickIndex, int axisIndex, float value) {
+            if (axisSlewLimiter.isBound(handle)) {
+                // Reaches the packet on the next tick of the sender
+                axisSlewLimiter.setTarget(handle, value);
+            } else {
+                boundJoysticks[handle].setAxisValue(axisIndex, value);
+            }
+            requestSend();
         }
 
         @Override
-        public void buttonStateChanged(int joystickIndex, int buttonIndex, boolean pressed) {
-            driverStationPacket.getJoystick(joystickIndex).setButtonPressed(buttonIndex, pressed);
+        public void buttonStateChanged(int handle, int joystickIndex, int buttonIndex, boolean pressed) {
+            boundJoysticks[handle].setButtonPressed(buttonIndex, pressed);
+            requestSend();
         }
 
         @Override
-        public void povHatAngleChanged(int joystickIndex, int povHatIndex, int angle) {
-            driverStationPacket.getJoystick(joystickIndex).setPOVHatAngle(povHatIndex, angle);
+        public void povHatAngleChanged(int handle, int joystickIndex, int povHatIndex, int angle) {
+            boundJoysticks[handle].setPOVHatAngle(povHatIndex, angle);
+            requestSend();
+        }
+
+        @Override
+        public synchronized void axisSlewRateChanged(int handle, int joystickIndex, int axisIndex, float rate) {
+            // Once an axis goes through the limiter it stays there, even
+            // without a limit, so that the sender is never in the middle of
+            // moving it when it is set directly
+            if (rate > 0 || axisSlewLimiter.isBound(handle)) {
+                axisSlewLimiter.bind(handle, boundJoysticks[handle], axisIndex, rate);
+            }
         }
 
         @Override
-        public void axisUnregistered(int joystickIndex, int axisIndex) {
-            DriverStationPacket.Joystick j = driverStationPacket.getJoystick(joystickIndex);
+        public synchronized void axisUnregistered(int handle, int joystickIndex, int axisIndex) {
+            axisSlewLimiter.unbind(handle);
+            DriverStationPacket.Joystick j = boundJoysticks[handle];
             if (axisIndex == j.getAxisCount() - 1) {
                 j.setAxisCount(axisIndex);
             }
         }
 
         @Override
-        public void buttonUnregistered(int joystickIndex, int buttonIndex) {
-            DriverStationPacket.Joystick j = driverStationPacket.getJoystick(joystickIndex);
+        public synchronized void buttonUnregistered(int handle, int joystickIndex, int buttonIndex) {
+            DriverStationPacket.Joystick j = boundJoysticks[handle];
             if (buttonIndex == j.getButtonCount() - 1) {
                 j.setButtonCount(buttonIndex);
             }
         }
 
         @Override
-        public void povHatUnregistered(int joystickIndex, int povHatIndex) {
-            DriverStationPacket.Joystick j = driverStationPacket.getJoystick(joystickIndex);
+        public synchronized void povHatUnregistered(int handle, int joystickIndex, int povHatIndex) {
+            DriverStationPacket.Joystick j = boundJoysticks[handle];
             if (povHatIndex == j.getPOVHatCount() - 1) {
                 j.setPOVHatCount(povHatIndex);
             }
         }
+
+        @Override
+        public void batchStarted() {
+            // Hold back the changes until the whole batch is done. This never
+            // waits for batches on other threads.
+            batchStates.get()[BATCH_DEPTH]++;
+            driverStationPacket.beginBatch();
+        }
+
+        @Override
+        public void batchFinished() {
+            int[] batchState = batchStates.get();
+            if (batchState[BATCH_DEPTH] > 0) {
+                driverStationPacket.endBatch();
+                if (--batchState[BATCH_DEPTH] == 0 && batchState[SEND_PENDING] != 0) {
+                    batchState[SEND_PENDING] = 0;
+                    packetManager.requestSend();
+                }
+            }
+        }
     };
 
     private final DriverStationPacket driverStationPacket;
     private final RobotPacket robotPacket;
     private final PacketManager packetManager;
+    private final AxisSlewLimiter axisSlewLimiter;
+
+    private final ControlDatabase controlDatabase;
+    private final Handler uiHandler;
+    private BatteryListener batteryListener;
+    /**
+     * The last battery voltage received, in hundredths of a volt. Only the
+     * receiving thread writes this.
+     */
+    private volatile int batteryCentivolts = -1;
+    /**
+     * Reused so that nothing is allocated when the battery voltage changes.
+     */
+    private final Runnable batteryUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (batteryListener != null) {
+                int centivolts = batteryCentivolts;
+                batteryListener.onBatteryVoltageChanged(centivolts / 100, centivolts % 100);
+            }
+        }
+    };
 
     private final Timer connectionTimer = new Timer();
 
@@ -115,34 +236,61 @@ public class ConnectionManager {
         this.context = context;
         this.roboRIOName = roboRIOName;
         this.connectionPeriod = connectionPeriod;
+        this.controlDatabase = controlDatabase;
 
+        ProtocolLog.setLogger(AndroidLogger.INSTANCE);
         driverStationPacket = new DriverStationPacket();
         robotPacket = new RobotPacket();
         packetManager = new PacketManager(driverStationPacket, robotPacket);
+        axisSlewLimiter = packetManager.getAxisSlewLimiter();
+        uiHandler = new Handler(context.getMainLooper());
 
-        controlDatabase.setControlListener(controlListener);
+        controlDatabase.addControlListener(controlListener);
         modeSwitch.setModeChangeListener(new ModeSwitch.ModeChangeListener() {
             @Override
             public void onTeleopEnabled() {
                 enableButton.setEnabled(false);
                 driverStationPacket.setMode(DriverStationPacket.Mode.TELEOPERATED);
+                recordMode(DriverStationPacket.Mode.TELEOPERATED);
+                packetManager.requestSend();
             }
 
             @Override
             public void onAutoEnabled() {
                 enableButton.setEnabled(false);
                 driverStationPacket.setMode(DriverStationPacket.Mode.AUTONOMOUS);
+                recordMode(DriverStationPacket.Mode.AUTONOMOUS);
+                packetManager.requestSend();
             }
         });
         enableButton.addEnableListener(new EnableButton.EnableListener() {
             @Override
             public void onEnabled() {
                 driverStationPacket.setEnabled(true);
+                recordEnabled(true);
+                packetManager.requestSend();
             }
 
             @Override
             public void onDisabled() {
                 driverStationPacket.setEnabled(false);
+                recordEnabled(false);
+                packetManager.requestSend();
+            }
+        });
+        packetManager.setPacketListener(new PacketManager.PacketListener() {
+            @Override
+            public void onPacketReceived(RobotPacket packet) {
+                // Only update the display when the displayed value changes
+                int centivolts = packet.getBatteryCentivolts();
+                if (centivolts != batteryCentivolts) {
+                    batteryCentivolts = centivolts;
+                    uiHandler.post(batteryUpdater);
+                }
+            }
+
+            @Override
+            public void onPacketSent(DriverStationPacket packet) {
             }
         });
         packetManager.setConnectionListener(new PacketManager.ConnectionListener() {
@@ -159,6 +307,11 @@ public class ConnectionManager {
 
             @Override
             public void onConnectionLost() {
+                // Disable the robot right away instead of waiting for the UI
+                // thread, because the button does not notify its listeners
+                // when it is changed programmatically
+                driverStationPacket.setEnabled(false);
+                recordEnabled(false);
                 new Handler(context.getMainLooper()).post(new Runnable() {
                     @Override
                     public void run() {
@@ -182,6 +335,20 @@ public class ConnectionManager {
         });
     }
 
+    private void recordMode(DriverStationPacket.Mode mode) {
+        InputJournal journal = controlDatabase.getJournal();
+        if (journal != null) {
+            journal.recordMode(mode);
+        }
+    }
+
+    private void recordEnabled(boolean enabled) {
+        InputJournal journal = controlDatabase.getJournal();
+        if (journal != null) {
+            journal.recordEnabled(enabled);
+        }
+    }
+
     public void connect() {
         if (!packetManager.isRunning()) {
             // Start a timer that attempt a connection on a regular basis
@@ -204,10 +371,40 @@ public class ConnectionManager {
         }
     }
 
+    /**
+     * Sets whether control and enable changes are sent to the robot right away
+     * instead of with the next regular packet.
+     *
+     * @param lowLatency true to send changes right away
+     */
+    public void setLowLatency(boolean lowLatency) {
+        packetManager.setLowLatency(lowLatency);
+    }
+
+    /**
+     * Sets the listener that is notified on the UI thread when the battery
+     * voltage of the robot changes.
+     *
+     * @param listener the listener
+     */
+    public void setBatteryListener(BatteryListener listener) {
+        batteryListener = listener;
+    }
+
     public void disconnect() {
         if (packetManager.isRunning()) {
             RobotResolver.getInstance(context).stop();
             packetManager.stop();
         }
     }
+
+    public interface BatteryListener {
+        /**
+         * Called when the battery voltage of the robot changes.
+         *
+         * @param whole the whole number of volts
+         * @param hundredths the hundredths of a volt
+         */
+        void onBatteryVoltageChanged(int whole, int hundredths);
+    }
 }
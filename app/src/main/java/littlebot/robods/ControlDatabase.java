@@ -1,126 +1,1314 @@
 package littlebot.robods;
 
-import com.google.common.collect.TreeBasedTable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import littlebot.robods.communication.DriverStationPacket;
+import littlebot.robods.journal.InputJournal;
 
 /**
+ * Keeps track of which joystick axes, buttons and POV hats are used by the
+ * controls in a layout, and their current values.
+ * <p/>
+ * Registering a component returns a handle, which is an index into arrays that
+ * hold the joystick, index and value of each component. A component keeps the
+ * same handle for the life of the database, even if it is unregistered and
+ * registered again. Controls should update their values using their handles,
+ * which does not search or allocate anything, and the listeners are given the
+ * handle so they can find where the value goes the same way.
+ * <p/>
+ * Values are set by {@link Producer}s, such as the on screen controls, a
+ * gamepad or a macro, each of which can run on its own thread. Every producer
+ * has its own value for each component, and the value that is passed to the
+ * listeners is chosen from them by the component's {@link Arbitration}. The
+ * methods that set values on the database itself use the
+ * {@linkplain #getDefaultProducer() default producer}, which is what the on
+ * screen controls use.
+ * <p/>
+ * Nothing in the database is protected by a lock. The registered components
+ * are kept in an immutable registry, which is replaced with a compare and set
+ * when a new component gets a handle. Each component has a counter of changes
+ * that have not been passed to the listeners yet. The thread that raises it
+ * from zero owns the component, and keeps passing the arbitrated value on
+ * until no other thread changed it in the meantime. Other threads only store
+ * their value and leave, so producers never wait for each other, and the
+ * listeners see the changes to each component one at a time and in order.
+ * <p/>
+ * Changes that should be sent together, such as both axes of a joystick or
+ * everything that changes in one touch event, can be grouped into a batch
+ * with {@link #beginBatch()} and {@link #endBatch()}.
+ * <p/>
+ * Axis values are sent to the robot as bytes, so most small movements of a
+ * touch joystick do not change what is sent. The listeners are only told
+ * about a change if it changes the quantized value.
+ * <p/>
+ * Every change that is passed to the listeners can also be recorded in an
+ * {@link InputJournal}.
+ *
  * @author Ben Wolsieffer
  */
 public class ControlDatabase {
 
-    private final TreeBasedTable<Integer, Integer, Float> axes = TreeBasedTable.create();
-    private final TreeBasedTable<Integer, Integer, Boolean> buttons = TreeBasedTable.create();
-    private final TreeBasedTable<Integer, Integer, Integer> povHats = TreeBasedTable.create();
+    /**
+     * Returned instead of a handle when a component is not registered.
+     */
+    public static final int NO_HANDLE = -1;
+
+    /**
+     * The maximum number of producers that can be open at once, including the
+     * default producer.
+     */
+    public static final int MAX_PRODUCERS = 8;
+
+    /**
+     * How the value of a component is chosen when several producers set it.
+     */
+    public enum Arbitration {
+        /**
+         * The value that was set most recently by any producer. With only one
+         * producer, this is the same as setting the value directly.
+         */
+        LAST_WRITER,
+        /**
+         * The axis value that is furthest from zero, whether any producer is
+         * pressing a button, or the POV hat angle of the highest priority
+         * producer that is pressing the hat.
+         */
+        MAX_MAGNITUDE,
+        /**
+         * The value of the highest priority producer that is not at rest,
+         * meaning an axis that is not zero, a button that is pressed or a POV
+         * hat that is pressed. This lets a producer take over a component
+         * only while it is being used.
+         */
+        PRIORITY
+    }
+
+    private static final Arbitration[] ARBITRATIONS = Arbitration.values();
+
+    private static final int AXIS = 0;
+    private static final int BUTTON = 1;
+    private static final int POV_HAT = 2;
+
+    /**
+     * The value of each type of component when no producer is using it.
+     */
+    private static final int[] REST_VALUES = {Float.floatToRawIntBits(0), 0, -1};
+
+    /**
+     * Stored as the last forwarded value of a component that the listeners
+     * have not been told about, so the next change is always forwarded.
+     */
+    private static final int NOT_FORWARDED = Integer.MIN_VALUE;
+
+    /**
+     * Stored as the producer of the latest value when no producer set it.
+     */
+    private static final int NO_PRODUCER = -1;
+
+    private static final int UNREGISTERED = 0;
+    private static final int REGISTERED = 1;
+
+    private static final String[] TYPE_NAMES = {"Axis", "Button", "POV hat"};
+
+    private static final int PAGE_SHIFT = 5;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * The handles of the components of one type, indexed by joystick and
+     * component. This is never changed once it is in a registry, so a new
+     * table is made whenever a component gets a handle.
+     */
+    private static class ComponentTable {
+        private final int[][] handles;
+
+        ComponentTable() {
+            this(new int[0][]);
+        }
 
-    private ControlListener listener;
+        private ComponentTable(int[][] handles) {
+            this.handles = handles;
+        }
 
-    public boolean registerAxis(int joystick, int axis) {
-        if (!axes.contains(joystick, axis)) {
-            axes.put(joystick, axis, 0.0f);
-            if (listener != null) {
-                listener.axisRegistered(joystick, axis);
+        /**
+         * Gets the handle of a component, whether it is registered or not.
+         *
+         * @return the handle, or {@link #NO_HANDLE} if the component was never
+         * registered
+         */
+        int getHandle(int joystick, int index) {
+            if (joystick < 0 || index < 0 || joystick >= handles.length || index >= handles[joystick].length) {
+                return NO_HANDLE;
             }
-            return true;
-        } else {
-            return false;
+            return handles[joystick][index];
         }
+
+        /**
+         * Makes a copy of this table with a handle added. Only the arrays of
+         * the joystick that changes are copied.
+         */
+        ComponentTable withHandle(int joystick, int index, int handle) {
+            int[][] newHandles = new int[Math.max(joystick + 1, handles.length)][];
+            System.arraycopy(handles, 0, newHandles, 0, handles.length);
+            for (int j = handles.length; j < newHandles.length; j++) {
+                newHandles[j] = new int[0];
+            }
+            int oldLength = newHandles[joystick].length;
+            int[] joystickHandles = new int[Math.max(index + 1, oldLength)];
+            System.arraycopy(newHandles[joystick], 0, joystickHandles, 0, oldLength);
+            for (int i = oldLength; i < joystickHandles.length; i++) {
+                joystickHandles[i] = NO_HANDLE;
+            }
+            joystickHandles[index] = handle;
+            newHandles[joystick] = joystickHandles;
+            return new ComponentTable(newHandles);
+        }
+    }
+
+    /**
+     * The state of a block of handles. Pages are shared by every registry
+     * after the one that added them, so values set through an old registry are
+     * never lost.
+     */
+    private static class Page {
+        /**
+         * Whether each component is registered.
+         */
+        final AtomicIntegerArray states = new AtomicIntegerArray(PAGE_SIZE);
+        /**
+         * The value each producer last set, indexed by slot times
+         * {@link #MAX_PRODUCERS} plus the producer ID. Axis values are stored
+         * as float bits, and buttons as 0 or 1.
+         */
+        final AtomicIntegerArray producerValues = new AtomicIntegerArray(PAGE_SIZE * MAX_PRODUCERS);
+        /**
+         * The ID of the producer that set each component most recently, or
+         * {@link #NO_PRODUCER}.
+         */
+        final AtomicIntegerArray latestProducers = new AtomicIntegerArray(PAGE_SIZE);
+        /**
+         * The arbitrated value of each component.
+         */
+        final AtomicIntegerArray values = new AtomicIntegerArray(PAGE_SIZE);
+        /**
+         * The ordinal of the {@link Arbitration} of each component.
+         */
+        final AtomicIntegerArray arbitrations = new AtomicIntegerArray(PAGE_SIZE);
+        /**
+         * The float bits of the maximum change per second of each axis, or
+         * zero if it is not limited.
+         */
+        final AtomicIntegerArray slewRates = new AtomicIntegerArray(PAGE_SIZE);
+        /**
+         * The number of changes to each component since the thread that owns
+         * it last checked, or zero if no thread owns it.
+         */
+        final AtomicIntegerArray pending = new AtomicIntegerArray(PAGE_SIZE);
+        /**
+         * The value of each component that the listeners were last told
+         * about, quantized if it is an axis. This is only used by the thread
+         * that owns the component, and the counter makes its changes visible
+         * to the next owner.
+         */
+        final int[] forwardedValues = new int[PAGE_SIZE];
     }
 
-    public boolean registerButton(int joystick, int button) {
-        if (!buttons.contains(joystick, button)) {
-            buttons.put(joystick, button, false);
-            if (listener != null) {
-                listener.buttonRegistered(joystick, button);
+    /**
+     * The components that have handles. A registry is never changed, so a
+     * thread can use one without worrying about another thread registering a
+     * component at the same time.
+     */
+    private static class Registry {
+        final ComponentTable[] tables;
+        final int handleCount;
+        /*
+         * The components, indexed by handle.
+         */
+        final int[] types;
+        final int[] joysticks;
+        final int[] indices;
+        final Page[] pages;
+
+        Registry() {
+            this(new ComponentTable[]{new ComponentTable(), new ComponentTable(), new ComponentTable()},
+                    0, new int[0], new int[0], new int[0], new Page[0]);
+        }
+
+        private Registry(ComponentTable[] tables, int handleCount, int[] types, int[] joysticks,
+                         int[] indices, Page[] pages) {
+            this.tables = tables;
+            this.handleCount = handleCount;
+            this.types = types;
+            this.joysticks = joysticks;
+            this.indices = indices;
+            this.pages = pages;
+        }
+
+        /**
+         * Makes a copy of this registry with a new handle, which is the
+         * current handle count.
+         */
+        Registry withComponent(int type, int joystick, int index) {
+            int handle = handleCount;
+            ComponentTable[] newTables = tables.clone();
+            newTables[type] = tables[type].withHandle(joystick, index, handle);
+            int[] newTypes = copyOf(types, handle + 1);
+            int[] newJoysticks = copyOf(joysticks, handle + 1);
+            int[] newIndices = copyOf(indices, handle + 1);
+            newTypes[handle] = type;
+            newJoysticks[handle] = joystick;
+            newIndices[handle] = index;
+            Page[] newPages = pages;
+            if ((handle >> PAGE_SHIFT) >= pages.length) {
+                newPages = new Page[pages.length + 1];
+                System.arraycopy(pages, 0, newPages, 0, pages.length);
+                newPages[pages.length] = new Page();
             }
-            return true;
-        } else {
-            return false;
+            return new Registry(newTables, handle + 1, newTypes, newJoysticks, newIndices, newPages);
         }
     }
 
-    public boolean registerPOVHat(int joystick, int povHat) {
-        if (!povHats.contains(joystick, povHat)) {
-            povHats.put(joystick, povHat, 0);
-            if (listener != null) {
-                listener.povHatRegistered(joystick, povHat);
+    /**
+     * The open producers. Like the registry, this is replaced rather than
+     * changed.
+     */
+    private static class ProducerSet {
+        /**
+         * The producers indexed by ID, including ones that are closing, so
+         * that their IDs are not reused until they are done.
+         */
+        final Producer[] producers;
+        /**
+         * The IDs of the producers that take part in arbitration, from the
+         * highest priority to the lowest. Producers with the same priority
+         * are ordered by ID.
+         */
+        final int[] order;
+
+        ProducerSet(Producer[] producers, int[] order) {
+            this.producers = producers;
+            this.order = order;
+        }
+
+        /**
+         * Makes a copy of this set with a producer added.
+         */
+        ProducerSet withProducer(Producer producer) {
+            Producer[] newProducers = producers.clone();
+            newProducers[producer.id] = producer;
+            int[] newOrder = new int[order.length + 1];
+            int position = 0;
+            while (position < order.length && producers[order[position]].priority >= producer.priority) {
+                newOrder[position] = order[position];
+                position++;
             }
-            return true;
-        } else {
-            return false;
+            newOrder[position] = producer.id;
+            System.arraycopy(order, position, newOrder, position + 1, order.length - position);
+            return new ProducerSet(newProducers, newOrder);
+        }
+
+        /**
+         * Makes a copy of this set where a producer no longer takes part in
+         * arbitration, but still has its ID.
+         */
+        ProducerSet withoutArbitration(Producer producer) {
+            int[] newOrder = new int[order.length - 1];
+            int position = 0;
+            for (int id : order) {
+                if (id != producer.id) {
+                    newOrder[position++] = id;
+                }
+            }
+            return new ProducerSet(producers, newOrder);
+        }
+
+        /**
+         * Makes a copy of this set without a producer's ID.
+         */
+        ProducerSet withoutProducer(Producer producer) {
+            Producer[] newProducers = producers.clone();
+            newProducers[producer.id] = null;
+            return new ProducerSet(newProducers, order);
         }
     }
 
+    /**
+     * A source of control values, which has its own value for every
+     * component. A producer must only be used by one thread at a time, but
+     * different producers can be used by different threads at the same time.
+     */
+    public class Producer {
+        private final String name;
+        private final int priority;
+        private final int id;
+        private volatile boolean closed;
+
+        /*
+         * Only changed by the thread that uses the producer, so they are
+         * incremented with lazySet, which is much cheaper than a volatile
+         * write or an atomic increment.
+         */
+        private final AtomicLong forwardedAxisUpdates = new AtomicLong();
+        private final AtomicLong suppressedAxisUpdates = new AtomicLong();
+
+        private Producer(String name, int priority, int id) {
+            this.name = name;
+            this.priority = priority;
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the priority of this producer. Producers with higher priorities
+         * win when the {@link Arbitration} of a component is
+         * {@link Arbitration#PRIORITY} or {@link Arbitration#MAX_MAGNITUDE}.
+         *
+         * @return the priority
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        public void setAxis(int joystick, int axis, float value) {
+            Registry registry = ControlDatabase.this.registry.get();
+            set(registry, getRegisteredHandle(registry, AXIS, joystick, axis), Float.floatToRawIntBits(value));
+        }
+
+        /**
+         * Sets this producer's value of an axis.
+         *
+         * @param handle the handle of the axis
+         * @param value the value
+         * @throws IllegalArgumentException if the axis is not registered
+         * @throws IllegalStateException if the producer is closed
+         */
+        public void setAxis(int handle, float value) {
+            Registry registry = ControlDatabase.this.registry.get();
+            checkRegistered(registry, handle, AXIS);
+            set(registry, handle, Float.floatToRawIntBits(value));
+        }
+
+        public void setButton(int joystick, int button, boolean pressed) {
+            Registry registry = ControlDatabase.this.registry.get();
+            set(registry, getRegisteredHandle(registry, BUTTON, joystick, button), pressed ? 1 : 0);
+        }
+
+        /**
+         * Sets whether this producer is pressing a button.
+         *
+         * @param handle the handle of the button
+         * @param pressed true if the button is pressed
+         * @throws IllegalArgumentException if the button is not registered
+         * @throws IllegalStateException if the producer is closed
+         */
+        public void setButton(int handle, boolean pressed) {
+            Registry registry = ControlDatabase.this.registry.get();
+            checkRegistered(registry, handle, BUTTON);
+            set(registry, handle, pressed ? 1 : 0);
+        }
+
+        public void setPOVHat(int joystick, int povHat, int angle) {
+            Registry registry = ControlDatabase.this.registry.get();
+            set(registry, getRegisteredHandle(registry, POV_HAT, joystick, povHat), angle);
+        }
+
+        /**
+         * Sets this producer's angle of a POV hat.
+         *
+         * @param handle the handle of the POV hat
+         * @param angle the angle, or -1 if the hat is not pressed
+         * @throws IllegalArgumentException if the POV hat is not registered
+         * @throws IllegalStateException if the producer is closed
+         */
+        public void setPOVHat(int handle, int angle) {
+            Registry registry = ControlDatabase.this.registry.get();
+            checkRegistered(registry, handle, POV_HAT);
+            set(registry, handle, angle);
+        }
+
+        private void set(Registry registry, int handle, int value) {
+            if (closed) {
+                throw new IllegalStateException("Producer " + name + " is closed");
+            }
+            Page page = registry.pages[handle >> PAGE_SHIFT];
+            int slot = handle & PAGE_MASK;
+            // The increment of the counter makes these visible to the owner
+            page.producerValues.lazySet(slot * MAX_PRODUCERS + id, value);
+            if (page.latestProducers.get(slot) != id) {
+                page.latestProducers.lazySet(slot, id);
+            }
+            if (page.pending.getAndIncrement(slot) == 0) {
+                forwardPending(registry, handle, this, true);
+            }
+            // Otherwise the thread that owns the component will see the change
+        }
+
+        /**
+         * Removes this producer. Its values are reset, so the components it
+         * was using go back to the values of the other producers, and its ID
+         * can be used by a new producer.
+         *
+         * @throws IllegalStateException if this is the default producer
+         */
+        public void close() {
+            if (this == defaultProducer) {
+                throw new IllegalStateException("The default producer cannot be closed");
+            }
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ProducerSet set;
+            do {
+                set = producers.get();
+            } while (!producers.compareAndSet(set, set.withoutArbitration(this)));
+
+            Registry registry = ControlDatabase.this.registry.get();
+            for (int handle = 0; handle < registry.handleCount; handle++) {
+                Page page = registry.pages[handle >> PAGE_SHIFT];
+                int slot = handle & PAGE_MASK;
+                int restValue = REST_VALUES[registry.types[handle]];
+                page.producerValues.set(slot * MAX_PRODUCERS + id, restValue);
+                page.latestProducers.compareAndSet(slot, id, NO_PRODUCER);
+                if (page.pending.getAndIncrement(slot) == 0) {
+                    forwardPending(registry, handle, this, true);
+                }
+            }
+
+            retiredForwardedAxisUpdates.addAndGet(forwardedAxisUpdates.get());
+            retiredSuppressedAxisUpdates.addAndGet(suppressedAxisUpdates.get());
+            do {
+                set = producers.get();
+            } while (!producers.compareAndSet(set, set.withoutProducer(this)));
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final AtomicReference<Registry> registry = new AtomicReference<>(new Registry());
+    private final AtomicReference<ProducerSet> producers =
+            new AtomicReference<>(new ProducerSet(new Producer[MAX_PRODUCERS], new int[0]));
+    private final Producer defaultProducer = createProducer("Default", 0);
+    private final AtomicReference<ControlListener[]> listeners =
+            new AtomicReference<>(new ControlListener[0]);
+    private volatile InputJournal journal;
+    private volatile Arbitration defaultArbitration = Arbitration.LAST_WRITER;
+
+    /**
+     * The batch depth of each thread, so that a thread can nest batches
+     * without affecting the batches of other threads.
+     */
+    private final ThreadLocal<int[]> batchDepth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /*
+     * The update counts of producers that have been closed.
+     */
+    private final AtomicLong retiredForwardedAxisUpdates = new AtomicLong();
+    private final AtomicLong retiredSuppressedAxisUpdates = new AtomicLong();
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    /**
+     * Opens a new producer.
+     *
+     * @param name the name of the producer, for debugging
+     * @param priority the priority of the producer, which decides whose value
+     * is used when the arbitration of a component depends on it
+     * @return the producer
+     * @throws IllegalStateException if {@link #MAX_PRODUCERS} producers are
+     * already open
+     */
+    public Producer createProducer(String name, int priority) {
+        while (true) {
+            ProducerSet set = producers.get();
+            int id = 0;
+            while (id < MAX_PRODUCERS && set.producers[id] != null) {
+                id++;
+            }
+            if (id == MAX_PRODUCERS) {
+                throw new IllegalStateException("Too many producers, the maximum is " + MAX_PRODUCERS);
+            }
+            Producer producer = new Producer(name, priority, id);
+            if (producers.compareAndSet(set, set.withProducer(producer))) {
+                return producer;
+            }
+        }
+    }
+
+    /**
+     * Gets the producer that is used by the methods of the database that set
+     * values, which has a priority of zero.
+     *
+     * @return the default producer
+     */
+    public Producer getDefaultProducer() {
+        return defaultProducer;
+    }
+
+    /**
+     * Registers an axis, if it is not already registered.
+     *
+     * @param joystick the index of the joystick
+     * @param axis the index of the axis
+     * @return the handle of the axis
+     */
+    public int registerAxis(int joystick, int axis) {
+        return register(AXIS, joystick, axis);
+    }
+
+    /**
+     * Registers a button, if it is not already registered.
+     *
+     * @param joystick the index of the joystick
+     * @param button the index of the button
+     * @return the handle of the button
+     */
+    public int registerButton(int joystick, int button) {
+        return register(BUTTON, joystick, button);
+    }
+
+    /**
+     * Registers a POV hat, if it is not already registered.
+     *
+     * @param joystick the index of the joystick
+     * @param povHat the index of the POV hat
+     * @return the handle of the POV hat
+     */
+    public int registerPOVHat(int joystick, int povHat) {
+        return register(POV_HAT, joystick, povHat);
+    }
+
+    /**
+     * Gets the handle of a component, giving it a new one if it never had one.
+     */
+    private int assignHandle(int type, int joystick, int index) {
+        while (true) {
+            Registry current = registry.get();
+            int handle = current.tables[type].getHandle(joystick, index);
+            if (handle != NO_HANDLE) {
+                return handle;
+            }
+            Registry newRegistry = current.withComponent(type, joystick, index);
+            if (registry.compareAndSet(current, newRegistry)) {
+                return newRegistry.handleCount - 1;
+            }
+        }
+    }
+
+    /**
+     * Registers a component and resets its values, if it is not already
+     * registered.
+     *
+     * @return the handle of the component
+     */
+    private int register(int type, int joystick, int index) {
+        if (joystick < 0 || index < 0) {
+            throw new IllegalArgumentException(TYPE_NAMES[type] + " (" + joystick + ", " + index + ") is invalid.");
+        }
+        int handle = assignHandle(type, joystick, index);
+        Registry registry = this.registry.get();
+        Page page = registry.pages[handle >> PAGE_SHIFT];
+        int slot = handle & PAGE_MASK;
+        acquire(page, slot);
+        try {
+            if (page.states.get(slot) == UNREGISTERED) {
+                int restValue = REST_VALUES[type];
+                int base = slot * MAX_PRODUCERS;
+                for (int id = 0; id < MAX_PRODUCERS; id++) {
+                    page.producerValues.set(base + id, restValue);
+                }
+                page.latestProducers.set(slot, NO_PRODUCER);
+                page.values.set(slot, restValue);
+                page.arbitrations.set(slot, defaultArbitration.ordinal());
+                page.slewRates.set(slot, Float.floatToRawIntBits(0));
+                page.forwardedValues[slot] = NOT_FORWARDED;
+                page.states.set(slot, REGISTERED);
+                for (ControlListener listener : listeners.get()) {
+                    notifyRegistered(listener, handle, type, joystick, index);
+                }
+            }
+        } finally {
+            forwardPending(registry, handle, null, false);
+        }
+        return handle;
+    }
+
+    private static void notifyRegistered(ControlListener listener, int handle, int type, int joystick, int index) {
+        switch (type) {
+            case AXIS:
+                listener.axisRegistered(handle, joystick, index);
+                break;
+            case BUTTON:
+                listener.buttonRegistered(handle, joystick, index);
+                break;
+            case POV_HAT:
+                listener.povHatRegistered(handle, joystick, index);
+                break;
+        }
+    }
+
+    /**
+     * Waits until no other thread owns a component and takes ownership of it.
+     * The component must be released with {@link #forwardPending}. This is
+     * only used to register, unregister and configure components, which
+     * should not happen while driving, so the wait is short.
+     */
+    private static void acquire(Page page, int slot) {
+        while (!page.pending.compareAndSet(slot, 0, 1)) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Passes the changes to a component that this thread owns on to the
+     * listeners, until no other thread changed it in the meantime, and then
+     * releases the component.
+     *
+     * @param producer the producer that made the change, which is used to
+     * count updates, or null
+     * @param forward false if the component was only configured, so there is
+     * nothing to pass on unless another thread changed it
+     */
+    private void forwardPending(Registry registry, int handle, Producer producer, boolean forward) {
+        Page page = registry.pages[handle >> PAGE_SHIFT];
+        int slot = handle & PAGE_MASK;
+        boolean released = false;
+        try {
+            int seen;
+            do {
+                seen = page.pending.get(slot);
+                // Anything above the owner's own count is a change that
+                // another thread left for the owner to pass on
+                if (forward || seen > 1) {
+                    forward(registry, handle, page, slot, producer);
+                }
+                forward = true;
+            } while (!page.pending.compareAndSet(slot, seen, 0));
+            released = true;
+        } finally {
+            if (!released) {
+                // A listener threw, so give up on the component rather than
+                // leaving it owned forever
+                page.pending.set(slot, 0);
+            }
+        }
+    }
+
+    /**
+     * Arbitrates the value of a component and passes it on to the listeners
+     * if it changed. Only called by the thread that owns the component.
+     */
+    private void forward(Registry registry, int handle, Page page, int slot, Producer producer) {
+        int type = registry.types[handle];
+        int value = arbitrate(page, slot, type);
+        page.values.lazySet(slot, value);
+        if (page.states.get(slot) != REGISTERED) {
+            return;
+        }
+        int joystick = registry.joysticks[handle];
+        int index = registry.indices[handle];
+        InputJournal journal = this.journal;
+        switch (type) {
+            case AXIS:
+                float axisValue = Float.intBitsToFloat(value);
+                int quantized = DriverStationPacket.Joystick.quantizeAxis(axisValue);
+                if (quantized == page.forwardedValues[slot]) {
+                    // The robot would not see any difference
+                    if (producer != null) {
+                        producer.suppressedAxisUpdates.lazySet(producer.suppressedAxisUpdates.get() + 1);
+                    }
+                    return;
+                }
+                page.forwardedValues[slot] = quantized;
+                if (producer != null) {
+                    producer.forwardedAxisUpdates.lazySet(producer.forwardedAxisUpdates.get() + 1);
+                }
+                if (journal != null) {
+                    journal.recordAxis(joystick, index, axisValue);
+                }
+                for (ControlListener listener : listeners.get()) {
+                    listener.axisValueChanged(handle, joystick, index, axisValue);
+                }
+                break;
+            case BUTTON:
+                if (value == page.forwardedValues[slot]) {
+                    return;
+                }
+                page.forwardedValues[slot] = value;
+                if (journal != null) {
+                    journal.recordButton(joystick, index, value != 0);
+                }
+                for (ControlListener listener : listeners.get()) {
+                    listener.buttonStateChanged(handle, joystick, index, value != 0);
+                }
+                break;
+            case POV_HAT:
+                if (value == page.forwardedValues[slot]) {
+                    return;
+                }
+                page.forwardedValues[slot] = value;
+                if (journal != null) {
+                    journal.recordPOVHat(joystick, index, value);
+                }
+                for (ControlListener listener : listeners.get()) {
+                    listener.povHatAngleChanged(handle, joystick, index, value);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Chooses the value of a component from the values of the producers.
+     */
+    private int arbitrate(Page page, int slot, int type) {
+        Arbitration arbitration = ARBITRATIONS[page.arbitrations.get(slot)];
+        int base = slot * MAX_PRODUCERS;
+        int restValue = REST_VALUES[type];
+        if (arbitration == Arbitration.LAST_WRITER) {
+            int id = page.latestProducers.get(slot);
+            return id != NO_PRODUCER ? page.producerValues.get(base + id) : restValue;
+        }
+        int[] order = producers.get().order;
+        if (arbitration == Arbitration.MAX_MAGNITUDE && type == AXIS) {
+            int best = restValue;
+            float bestMagnitude = 0;
+            for (int id : order) {
+                int value = page.producerValues.get(base + id);
+                float magnitude = Math.abs(Float.intBitsToFloat(value));
+                // Ties go to the higher priority producer
+                if (magnitude > bestMagnitude) {
+                    best = value;
+                    bestMagnitude = magnitude;
+                }
+            }
+            return best;
+        }
+        // Otherwise the highest priority producer that is not at rest wins,
+        // which for buttons is the same as any producer pressing it
+        for (int id : order) {
+            int value = page.producerValues.get(base + id);
+            if (type == AXIS ? Float.intBitsToFloat(value) != 0 : value != restValue) {
+                return value;
+            }
+        }
+        return restValue;
+    }
+
+    /**
+     * Gets the handle of a registered axis.
+     *
+     * @param joystick the index of the joystick
+     * @param axis the index of the axis
+     * @return the handle, or {@link #NO_HANDLE} if the axis is not registered
+     */
+    public int getAxisHandle(int joystick, int axis) {
+        return getHandle(registry.get(), AXIS, joystick, axis);
+    }
+
+    public int getButtonHandle(int joystick, int button) {
+        return getHandle(registry.get(), BUTTON, joystick, button);
+    }
+
+    public int getPOVHatHandle(int joystick, int povHat) {
+        return getHandle(registry.get(), POV_HAT, joystick, povHat);
+    }
+
+    private static int getHandle(Registry registry, int type, int joystick, int index) {
+        int handle = registry.tables[type].getHandle(joystick, index);
+        if (handle != NO_HANDLE && registry.pages[handle >> PAGE_SHIFT].states.get(handle & PAGE_MASK) == REGISTERED) {
+            return handle;
+        }
+        return NO_HANDLE;
+    }
+
+    /**
+     * Gets the index of the joystick a handle belongs to.
+     *
+     * @param handle the handle of a component
+     * @return the joystick index
+     */
+    public int getJoystickIndex(int handle) {
+        Registry registry = this.registry.get();
+        checkHandle(registry, handle);
+        return registry.joysticks[handle];
+    }
+
+    /**
+     * Gets the index of the axis, button or POV hat a handle belongs to.
+     *
+     * @param handle the handle of a component
+     * @return the component index
+     */
+    public int getComponentIndex(int handle) {
+        Registry registry = this.registry.get();
+        checkHandle(registry, handle);
+        return registry.indices[handle];
+    }
+
+    /**
+     * Checks that a handle refers to a registered component of a certain
+     * type.
+     */
+    private static void checkRegistered(Registry registry, int handle, int type) {
+        if (handle < 0 || handle >= registry.handleCount || registry.types[handle] != type
+                || registry.pages[handle >> PAGE_SHIFT].states.get(handle & PAGE_MASK) != REGISTERED) {
+            throw new IllegalArgumentException(TYPE_NAMES[type] + " handle " + handle + " is not registered.");
+        }
+    }
+
+    private static void checkHandle(Registry registry, int handle) {
+        if (handle < 0 || handle >= registry.handleCount) {
+            throw new IllegalArgumentException("Invalid handle: " + handle);
+        }
+    }
+
+    private static int getRegisteredHandle(Registry registry, int type, int joystick, int index) {
+        int handle = getHandle(registry, type, joystick, index);
+        if (handle == NO_HANDLE) {
+            throw new IllegalArgumentException(TYPE_NAMES[type] + " (" + joystick + ", " + index + ") is not registered.");
+        }
+        return handle;
+    }
+
     public void setAxis(int joystick, int axis, float value) {
-        if (axes.contains(joystick, axis)) {
-            axes.put(joystick, axis, value);
-            if(listener != null) {
-                listener.axisValueChanged(joystick, axis, value);
+        defaultProducer.setAxis(joystick, axis, value);
+    }
+
+    /**
+     * Sets the value of an axis for the default producer.
+     *
+     * @param handle the handle of the axis
+     * @param value the value
+     * @throws IllegalArgumentException if the axis is not registered
+     */
+    public void setAxis(int handle, float value) {
+        defaultProducer.setAxis(handle, value);
+    }
+
+    /**
+     * Sets how fast the value of an axis that is sent to the robot can
+     * change. The limit is applied by the listeners as the packets are sent,
+     * so the value stored here still changes right away.
+     *
+     * @param handle the handle of the axis
+     * @param rate the maximum change per second, or zero for no limit
+     * @throws IllegalArgumentException if the axis is not registered or the
+     * rate is negative
+     */
+    public void setAxisSlewRate(int handle, float rate) {
+        Registry registry = this.registry.get();
+        checkRegistered(registry, handle, AXIS);
+        if (!(rate >= 0)) {
+            throw new IllegalArgumentException("Slew rate must not be negative, was given: " + rate);
+        }
+        Page page = registry.pages[handle >> PAGE_SHIFT];
+        int slot = handle & PAGE_MASK;
+        acquire(page, slot);
+        try {
+            if (page.states.get(slot) == REGISTERED
+                    && Float.intBitsToFloat(page.slewRates.getAndSet(slot, Float.floatToRawIntBits(rate))) != rate) {
+                for (ControlListener listener : listeners.get()) {
+                    listener.axisSlewRateChanged(handle, registry.joysticks[handle], registry.indices[handle], rate);
+                }
             }
-        } else {
-            throw new IllegalArgumentException("Axis (" + joystick + ", " + axis + ") is not registered.");
+        } finally {
+            forwardPending(registry, handle, null, false);
         }
     }
 
+    public float getAxisSlewRate(int handle) {
+        Registry registry = this.registry.get();
+        checkRegistered(registry, handle, AXIS);
+        return Float.intBitsToFloat(registry.pages[handle >> PAGE_SHIFT].slewRates.get(handle & PAGE_MASK));
+    }
+
+    /**
+     * Sets how the value of a component is chosen from the values of the
+     * producers. The value is arbitrated again right away, and passed to the
+     * listeners if it changes.
+     *
+     * @param handle the handle of a registered component
+     * @param arbitration the arbitration
+     * @throws IllegalArgumentException if the component is not registered
+     */
+    public void setArbitration(int handle, Arbitration arbitration) {
+        if (arbitration == null) {
+            throw new IllegalArgumentException("Arbitration must not be null");
+        }
+        Registry registry = this.registry.get();
+        checkHandle(registry, handle);
+        checkRegistered(registry, handle, registry.types[handle]);
+        Page page = registry.pages[handle >> PAGE_SHIFT];
+        int slot = handle & PAGE_MASK;
+        acquire(page, slot);
+        boolean changed = false;
+        try {
+            changed = page.arbitrations.getAndSet(slot, arbitration.ordinal()) != arbitration.ordinal();
+        } finally {
+            forwardPending(registry, handle, null, changed);
+        }
+    }
+
+    public Arbitration getArbitration(int handle) {
+        Registry registry = this.registry.get();
+        checkHandle(registry, handle);
+        checkRegistered(registry, handle, registry.types[handle]);
+        return ARBITRATIONS[registry.pages[handle >> PAGE_SHIFT].arbitrations.get(handle & PAGE_MASK)];
+    }
+
+    /**
+     * Sets the arbitration that components get when they are registered. The
+     * default is {@link Arbitration#LAST_WRITER}.
+     *
+     * @param arbitration the arbitration for new components
+     */
+    public void setDefaultArbitration(Arbitration arbitration) {
+        if (arbitration == null) {
+            throw new IllegalArgumentException("Arbitration must not be null");
+        }
+        defaultArbitration = arbitration;
+    }
+
+    public Arbitration getDefaultArbitration() {
+        return defaultArbitration;
+    }
+
     public void setButton(int joystick, int button, boolean pressed) {
-        if (buttons.contains(joystick, button)) {
-            buttons.put(joystick, button, pressed);
-            if(listener != null) {
-                listener.buttonStateChanged(joystick, button, pressed);
+        defaultProducer.setButton(joystick, button, pressed);
+    }
+
+    /**
+     * Sets whether a button is pressed for the default producer.
+     *
+     * @param handle the handle of the button
+     * @param pressed true if the button is pressed
+     * @throws IllegalArgumentException if the button is not registered
+     */
+    public void setButton(int handle, boolean pressed) {
+        defaultProducer.setButton(handle, pressed);
+    }
+
+    public void setPOVHat(int joystick, int povHat, int angle) {
+        defaultProducer.setPOVHat(joystick, povHat, angle);
+    }
+
+    /**
+     * Sets the angle of a POV hat for the default producer.
+     *
+     * @param handle the handle of the POV hat
+     * @param angle the angle, or -1 if the hat is not pressed
+     * @throws IllegalArgumentException if the POV hat is not registered
+     */
+    public void setPOVHat(int handle, int angle) {
+        defaultProducer.setPOVHat(handle, angle);
+    }
+
+    private int getValue(int handle, int type) {
+        Registry registry = this.registry.get();
+        checkRegistered(registry, handle, type);
+        return registry.pages[handle >> PAGE_SHIFT].values.get(handle & PAGE_MASK);
+    }
+
+    private int getValue(int type, int joystick, int index) {
+        Registry registry = this.registry.get();
+        int handle = getRegisteredHandle(registry, type, joystick, index);
+        return registry.pages[handle >> PAGE_SHIFT].values.get(handle & PAGE_MASK);
+    }
+
+    public float getAxis(int joystick, int axis) {
+        return Float.intBitsToFloat(getValue(AXIS, joystick, axis));
+    }
+
+    /**
+     * Gets the arbitrated value of an axis.
+     *
+     * @param handle the handle of the axis
+     * @return the value
+     * @throws IllegalArgumentException if the axis is not registered
+     */
+    public float getAxis(int handle) {
+        return Float.intBitsToFloat(getValue(handle, AXIS));
+    }
+
+    public boolean isButtonPressed(int joystick, int button) {
+        return getValue(BUTTON, joystick, button) != 0;
+    }
+
+    public boolean isButtonPressed(int handle) {
+        return getValue(handle, BUTTON) != 0;
+    }
+
+    public int getPOVHat(int joystick, int povHat) {
+        return getValue(POV_HAT, joystick, povHat);
+    }
+
+    public int getPOVHat(int handle) {
+        return getValue(handle, POV_HAT);
+    }
+
+    public void unregisterAxis(int joystick, int axis) {
+        unregister(AXIS, joystick, axis);
+    }
+
+    public void unregisterButton(int joystick, int button) {
+        unregister(BUTTON, joystick, button);
+    }
+
+    public void unregisterPOVHat(int joystick, int povHat) {
+        unregister(POV_HAT, joystick, povHat);
+    }
+
+    private void unregister(int type, int joystick, int index) {
+        Registry registry = this.registry.get();
+        int handle = registry.tables[type].getHandle(joystick, index);
+        if (handle == NO_HANDLE) {
+            return;
+        }
+        Page page = registry.pages[handle >> PAGE_SHIFT];
+        int slot = handle & PAGE_MASK;
+        acquire(page, slot);
+        try {
+            if (page.states.get(slot) == REGISTERED) {
+                page.states.set(slot, UNREGISTERED);
+                for (ControlListener listener : listeners.get()) {
+                    switch (type) {
+                        case AXIS:
+                            listener.axisUnregistered(handle, joystick, index);
+                            break;
+                        case BUTTON:
+                            listener.buttonUnregistered(handle, joystick, index);
+                            break;
+                        case POV_HAT:
+                            listener.povHatUnregistered(handle, joystick, index);
+                            break;
+                    }
+                }
             }
-        } else {
-            throw new IllegalArgumentException("Button (" + joystick + ", " + button + ") is not registered.");
+        } finally {
+            forwardPending(registry, handle, null, false);
         }
     }
 
-    public void setPOVHat(int joystick, int povHat, int angle) {
-        if (povHats.contains(joystick, povHat)) {
-            povHats.put(joystick, povHat, angle);
-            if(listener != null) {
-                listener.povHatAngleChanged(joystick, povHat, angle);
+    /**
+     * Gets the number of axis changes that changed the quantized value, and
+     * were passed to the listeners.
+     *
+     * @return the number of forwarded updates
+     */
+    public long getForwardedAxisUpdates() {
+        long count = retiredForwardedAxisUpdates.get();
+        for (Producer producer : producers.get().producers) {
+            if (producer != null) {
+                count += producer.forwardedAxisUpdates.get();
             }
-        } else {
-            throw new IllegalArgumentException("POV hat (" + joystick + ", " + povHat + ") is not registered.");
         }
+        return count;
     }
 
-    public void unregisterAxis(int joystick, int axis) {
-        if (axes.remove(joystick, axis) != null && listener != null) {
-            listener.axisUnregistered(joystick, axis);
+    /**
+     * Gets the number of axis changes that did not change the quantized value,
+     * and were not passed to the listeners.
+     *
+     * @return the number of suppressed updates
+     */
+    public long getSuppressedAxisUpdates() {
+        long count = retiredSuppressedAxisUpdates.get();
+        for (Producer producer : producers.get().producers) {
+            if (producer != null) {
+                count += producer.suppressedAxisUpdates.get();
+            }
         }
+        return count;
     }
 
-    public void unregisterButton(int joystick, int button) {
-        if (buttons.remove(joystick, button) != null && listener != null) {
-            listener.buttonUnregistered(joystick, button);
+    /**
+     * Starts a batch of changes on the current thread. The listeners are told
+     * when the outermost batch of a thread starts and finishes, so they can
+     * apply all the changes at once. Batches can be nested, and every call to
+     * this must be followed by a call to {@link #endBatch()} on the same
+     * thread, in a finally block.
+     */
+    public void beginBatch() {
+        if (batchDepth.get()[0]++ == 0) {
+            for (ControlListener listener : listeners.get()) {
+                listener.batchStarted();
+            }
         }
     }
 
-    public void unregisterPOVHat(int joystick, int povHat) {
-        if (povHats.remove(joystick, povHat) != null && listener != null) {
-            listener.povHatUnregistered(joystick, povHat);
+    /**
+     * Finishes a batch of changes on the current thread.
+     *
+     * @throws IllegalStateException if the thread has no batch in progress
+     */
+    public void endBatch() {
+        int[] depth = batchDepth.get();
+        if (depth[0] == 0) {
+            throw new IllegalStateException("No batch in progress");
         }
+        if (--depth[0] == 0) {
+            for (ControlListener listener : listeners.get()) {
+                listener.batchFinished();
+            }
+        }
+    }
+
+    /**
+     * Sets the journal that value changes are recorded in.
+     *
+     * @param journal the journal, or null to stop recording
+     */
+    public void setJournal(InputJournal journal) {
+        this.journal = journal;
     }
 
-    public void setControlListener(ControlListener listener) {
-        this.listener = listener;
+    public InputJournal getJournal() {
+        return journal;
     }
 
+    /**
+     * Adds a listener, and tells it about the components that are already
+     * registered and their current values. The other listeners may be told
+     * about the current values again. If a component is registered while
+     * this is happening, the new listener may be told about it twice.
+     *
+     * @param listener the listener
+     */
+    public void addControlListener(ControlListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+        ControlListener[] current;
+        ControlListener[] newListeners;
+        do {
+            current = listeners.get();
+            newListeners = new ControlListener[current.length + 1];
+            System.arraycopy(current, 0, newListeners, 0, current.length);
+            newListeners[current.length] = listener;
+        } while (!listeners.compareAndSet(current, newListeners));
+
+        Registry registry = this.registry.get();
+        for (int handle = 0; handle < registry.handleCount; handle++) {
+            Page page = registry.pages[handle >> PAGE_SHIFT];
+            int slot = handle & PAGE_MASK;
+            acquire(page, slot);
+            boolean registered = false;
+            try {
+                if (page.states.get(slot) == REGISTERED) {
+                    registered = true;
+                    int type = registry.types[handle];
+                    int joystick = registry.joysticks[handle];
+                    int index = registry.indices[handle];
+                    notifyRegistered(listener, handle, type, joystick, index);
+                    float slewRate = Float.intBitsToFloat(page.slewRates.get(slot));
+                    if (type == AXIS && slewRate != 0) {
+                        listener.axisSlewRateChanged(handle, joystick, index, slewRate);
+                    }
+                    page.forwardedValues[slot] = NOT_FORWARDED;
+                }
+            } finally {
+                forwardPending(registry, handle, null, registered);
+            }
+        }
+    }
+
+    /**
+     * Removes a listener. A change that is being passed on at the same time
+     * may still reach it.
+     *
+     * @param listener the listener
+     */
+    public void removeControlListener(ControlListener listener) {
+        ControlListener[] current;
+        ControlListener[] newListeners;
+        do {
+            current = listeners.get();
+            int index = 0;
+            while (index < current.length && current[index] != listener) {
+                index++;
+            }
+            if (index == current.length) {
+                return;
+            }
+            newListeners = new ControlListener[current.length - 1];
+            System.arraycopy(current, 0, newListeners, 0, index);
+            System.arraycopy(current, index + 1, newListeners, index, newListeners.length - index);
+        } while (!listeners.compareAndSet(current, newListeners));
+    }
+
+    /**
+     * Notified when components are registered and when their values change.
+     * Each method is given the handle of the component along with its
+     * joystick and index, so the handle can be used to look up anything that
+     * was set up for the component when it was registered.
+     * <p/>
+     * The methods are called on the thread that made the change, or on the
+     * thread of another producer that was passing on a change to the same
+     * component at the time. Methods for different components can be called
+     * at the same time from different threads, but the calls for one
+     * component are never concurrent, and always come in order, starting with
+     * its registration. A listener must not change the database.
+     */
     public interface ControlListener {
-        void axisRegistered(int joystickIndex, int axisIndex);
+        void axisRegistered(int handle, int joystickIndex, int axisIndex);
+
+        void buttonRegistered(int handle, int joystickIndex, int buttonIndex);
+
+        void povHatRegistered(int handle, int joystickIndex, int povHatIndex);
+
+        void axisValueChanged(int handle, int joystickIndex, int axisIndex, float value);
 
-        void buttonRegistered(int joystickIndex, int buttonIndex);
+        void buttonStateChanged(int handle, int joystickIndex, int buttonIndex, boolean pressed);
 
-        void povHatRegistered(int joystickIndex, int povHatIndex);
+        void povHatAngleChanged(int handle, int joystickIndex, int povHatIndex, int angle);
 
-        void axisValueChanged(int joystickIndex, int axisIndex, float value);
+        /**
+         * Called when the slew rate limit of an axis changes.
+         *
+         * @param handle the handle of the axis
+         * @param joystickIndex the index of the joystick
+         * @param axisIndex the index of the axis
+         * @param rate the maximum change per second, or zero for no limit
+         */
+        void axisSlewRateChanged(int handle, int joystickIndex, int axisIndex, float rate);
 
-        void buttonStateChanged(int joystickIndex, int buttonIndex, boolean pressed);
+        void axisUnregistered(int handle, int joystickIndex, int axisIndex);
 
-        void povHatAngleChanged(int joystickIndex, int povHatIndex, int angle);
+        void buttonUnregistered(int handle, int joystickIndex, int buttonIndex);
 
-        void axisUnregistered(int joystickIndex, int axisIndex);
+        void povHatUnregistered(int handle, int joystickIndex, int povHatIndex);
 
-        void buttonUnregistered(int joystickIndex, int buttonIndex);
+        /**
+         * Called on a thread before the changes in its outermost batch.
+         * Batches on different threads can overlap.
+         */
+        void batchStarted();
 
-        void povHatUnregistered(int joystickIndex, int povHatIndex);
+        /**
+         * Called on a thread after the changes in its outermost batch. They
+         * should be applied all at once.
+         */
+        void batchFinished();
     }
 }
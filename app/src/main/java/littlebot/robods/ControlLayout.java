@@ -1,31 +1,47 @@
 package littlebot.robods;
 
 import android.content.Context;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.RelativeLayout;
 
-import com.google.common.collect.TreeBasedTable;
-
 /**
  * Represents a layout that contains controls.
+ * <p/>
+ * Unless the layout is being edited, touches are routed to the controls by
+ * the layout itself, rather than by the usual view dispatch. Each pointer
+ * goes to the control it went down on, until it goes up, no matter where it
+ * moves or what the other pointers are doing, so two thumbs can drive two
+ * joysticks at once.
  */
 public class ControlLayout extends RelativeLayout {
 
     private static final String TAG = ControlLayout.class.getSimpleName();
 
-    private final TreeBasedTable<Integer, Integer, Float> axes = TreeBasedTable.create();
-    private final TreeBasedTable<Integer, Integer, Boolean> buttons = TreeBasedTable.create();
-    private final TreeBasedTable<Integer, Integer, Integer> povHats = TreeBasedTable.create();
+    /**
+     * The number of pointers that can be followed at once. Android gives each
+     * new pointer the lowest free ID, so this is also the limit on pointer
+     * IDs.
+     */
+    private static final int MAX_POINTERS = 16;
 
     private final ControlDatabase controlDatabase = new ControlDatabase();
 
+    /**
+     * The control that each pointer went down on, indexed by pointer ID.
+     */
+    private final ControlView[] pointerControls = new ControlView[MAX_POINTERS];
+
+    private boolean editing;
+
     public ControlLayout(Context context) {
         super(context);
         setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
     }
 
     public void load(DSLayout layout) {
+        releasePointers(true);
         removeAllViews();
 
         for (int i = 0; i < layout.getNodeCount(); i++) {
@@ -58,12 +74,136 @@ public class ControlLayout extends RelativeLayout {
     }
 
     public void removeControl(ControlView view) {
+        for (int pointerId = 0; pointerId < MAX_POINTERS; pointerId++) {
+            if (pointerControls[pointerId] == view) {
+                releasePointer(pointerId, true);
+            }
+        }
         removeView(view);
         if (controlListener != null) {
             controlListener.controlRemoved(view);
         }
     }
 
+    /**
+     * Sets whether the layout is being edited. While it is, touches are
+     * dispatched the usual way, so that controls can be selected and dragged.
+     *
+     * @param editing true if the layout is being edited
+     */
+    public void setEditing(boolean editing) {
+        if (editing != this.editing) {
+            releasePointers(true);
+            this.editing = editing;
+        }
+    }
+
+    public boolean isEditing() {
+        return editing;
+    }
+
+    /**
+     * Dispatches a touch event to the controls. Everything the controls change
+     * while handling the event is sent in the same packet, even if several
+     * fingers moved.
+     */
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        controlDatabase.beginBatch();
+        try {
+            if (editing) {
+                return super.dispatchTouchEvent(ev);
+            }
+            routeTouchEvent(ev);
+            return true;
+        } finally {
+            controlDatabase.endBatch();
+        }
+    }
+
+    private void routeTouchEvent(MotionEvent ev) {
+        switch (ev.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                // A new gesture, so any pointers that are left over from the
+                // last one are never going to go up
+                releasePointers(true);
+                // Fall through
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                int index = ev.getActionIndex();
+                int pointerId = ev.getPointerId(index);
+                if (pointerId < MAX_POINTERS) {
+                    float x = ev.getX(index);
+                    float y = ev.getY(index);
+                    ControlView control = findControl(x, y);
+                    if (control != null && !control.isEditing()
+                            && control.onPointerDown(pointerId, x - control.getLeft(), y - control.getTop())) {
+                        pointerControls[pointerId] = control;
+                    }
+                }
+                break;
+            }
+            case MotionEvent.ACTION_MOVE:
+                routeMove(ev);
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+            case MotionEvent.ACTION_UP:
+                releasePointer(ev.getPointerId(ev.getActionIndex()), false);
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                releasePointers(true);
+                break;
+        }
+    }
+
+    private void routeMove(MotionEvent ev) {
+        int historySize = ev.getHistorySize();
+        int pointerCount = ev.getPointerCount();
+        for (int i = 0; i < pointerCount; i++) {
+            int pointerId = ev.getPointerId(i);
+            ControlView control = pointerId < MAX_POINTERS ? pointerControls[pointerId] : null;
+            if (control == null) {
+                continue;
+            }
+            float left = control.getLeft();
+            float top = control.getTop();
+            if (control.isHistoryNeeded()) {
+                for (int pos = 0; pos < historySize; pos++) {
+                    control.onPointerMove(pointerId, ev.getHistoricalX(i, pos) - left, ev.getHistoricalY(i, pos) - top);
+                }
+            }
+            control.onPointerMove(pointerId, ev.getX(i) - left, ev.getY(i) - top);
+        }
+    }
+
+    private void releasePointer(int pointerId, boolean canceled) {
+        if (pointerId < MAX_POINTERS && pointerControls[pointerId] != null) {
+            ControlView control = pointerControls[pointerId];
+            pointerControls[pointerId] = null;
+            control.onPointerUp(pointerId, canceled);
+        }
+    }
+
+    private void releasePointers(boolean canceled) {
+        for (int pointerId = 0; pointerId < MAX_POINTERS; pointerId++) {
+            releasePointer(pointerId, canceled);
+        }
+    }
+
+    /**
+     * Finds the topmost visible control at a point.
+     */
+    private ControlView findControl(float x, float y) {
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            View child = getChildAt(i);
+            if (child instanceof ControlView && child.getVisibility() == VISIBLE
+                    && x >= child.getLeft() && x < child.getRight()
+                    && y >= child.getTop() && y < child.getBottom()) {
+                return (ControlView) child;
+            }
+        }
+        return null;
+    }
+
     public ControlDatabase getControlDatabase() {
         return controlDatabase;
     }
@@ -205,6 +205,57 @@ public abstract class ControlView extends View implements View.OnLongClickListen
         return super.onTouchEvent(event);
     }
 
+    /*
+     * Outside of the editor, touches are not delivered with onTouchEvent().
+     * Instead, ControlLayout follows each pointer and passes it to the control
+     * it went down on, using coordinates relative to the control, so that
+     * several fingers can use several controls at the same time.
+     */
+
+    /**
+     * Called when a pointer goes down on this control.
+     *
+     * @param pointerId the ID of the pointer
+     * @param x the X coordinate, relative to this control
+     * @param y the Y coordinate, relative to this control
+     * @return true to be given the pointer's moves until it goes up
+     */
+    protected boolean onPointerDown(int pointerId, float x, float y) {
+        return false;
+    }
+
+    /**
+     * Called when a pointer that this control took in
+     * {@link #onPointerDown(int, float, float)} moves. The pointer can be
+     * outside of the control.
+     *
+     * @param pointerId the ID of the pointer
+     * @param x the X coordinate, relative to this control
+     * @param y the Y coordinate, relative to this control
+     */
+    protected void onPointerMove(int pointerId, float x, float y) {
+    }
+
+    /**
+     * Called when a pointer that this control took goes up.
+     *
+     * @param pointerId the ID of the pointer
+     * @param canceled true if the gesture was canceled rather than finished
+     */
+    protected void onPointerUp(int pointerId, boolean canceled) {
+    }
+
+    /**
+     * Checks whether this control wants every sample of a pointer's movement.
+     * If so, {@link #onPointerMove(int, float, float)} is also called for the
+     * older samples that Android batches into each move event, oldest first,
+     * before the newest one. Otherwise it is only called with the newest.
+     *
+     * @return true to be given the older samples
+     */
+    protected boolean isHistoryNeeded() {
+        return false;
+    }
 
 
     @Override
@@ -6,12 +6,16 @@ import java.util.ArrayList;
 
 public class DSLayout implements Serializable {
 
+    // The value before lowLatency was added, so saved layouts still load
+    private static final long serialVersionUID = 8584148309160353378L;
+
     public enum Orientation {LANDSCAPE, PORTRAIT}
 
     private String name;
     private Orientation orientation;
     private String rioIp;
     private int maxVideoFPS;
+    private boolean lowLatency;
 
     private ArrayList<DSLayoutNode> nodes = new ArrayList<>();
 
@@ -70,6 +74,20 @@ public class DSLayout implements Serializable {
         this.maxVideoFPS = maxVideoFPS;
     }
 
+    /**
+     * Gets whether control and enable changes are sent to the robot right away
+     * instead of with the next regular packet.
+     *
+     * @return true to send changes right away
+     */
+    public boolean isLowLatency() {
+        return lowLatency;
+    }
+
+    public void setLowLatency(boolean lowLatency) {
+        this.lowLatency = lowLatency;
+    }
+
     public ArrayList<DSLayoutNode> getNodes() {
         return nodes;
     }
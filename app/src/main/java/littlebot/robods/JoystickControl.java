@@ -90,6 +90,54 @@ public abstract class JoystickControl extends ControlView {
         this.yAxis.setInverted(yInverted);
     }
 
+    public float getXDeadband() {
+        return xAxis.getDeadband();
+    }
+
+    public float getYDeadband() {
+        return yAxis.getDeadband();
+    }
+
+    public void setXDeadband(float deadband) {
+        xAxis.setDeadband(deadband);
+    }
+
+    public void setYDeadband(float deadband) {
+        yAxis.setDeadband(deadband);
+    }
+
+    public float getXExpo() {
+        return xAxis.getExpo();
+    }
+
+    public float getYExpo() {
+        return yAxis.getExpo();
+    }
+
+    public void setXExpo(float expo) {
+        xAxis.setExpo(expo);
+    }
+
+    public void setYExpo(float expo) {
+        yAxis.setExpo(expo);
+    }
+
+    public float getXSlewRate() {
+        return xAxis.getSlewRate();
+    }
+
+    public float getYSlewRate() {
+        return yAxis.getSlewRate();
+    }
+
+    public void setXSlewRate(float slewRate) {
+        xAxis.setSlewRate(slewRate);
+    }
+
+    public void setYSlewRate(float slewRate) {
+        yAxis.setSlewRate(slewRate);
+    }
+
     public void setXAxisValue(float value) {
         xAxis.setValue(value);
 
@@ -106,6 +154,28 @@ public abstract class JoystickControl extends ControlView {
         }
     }
 
+    /**
+     * Sets both axes at once, so that they are always sent in the same packet
+     * and the listener is only notified once.
+     *
+     * @param x the value of the X axis
+     * @param y the value of the Y axis
+     */
+    public void setAxisValues(float x, float y) {
+        ControlDatabase controlDatabase = getControlDatabase();
+        controlDatabase.beginBatch();
+        try {
+            xAxis.setValue(x);
+            yAxis.setValue(y);
+        } finally {
+            controlDatabase.endBatch();
+        }
+
+        if (listener != null) {
+            listener.onJoystickChange(getXAxisValue(), getYAxisValue());
+        }
+    }
+
     public void setJoystickChangeListener(final JoystickChangeListener l) {
         listener = l;
     }
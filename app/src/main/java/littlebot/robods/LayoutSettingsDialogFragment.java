@@ -10,6 +10,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.RadioButton;
 import android.widget.TextView;
 
@@ -28,6 +29,7 @@ public class LayoutSettingsDialogFragment extends DialogFragment implements Robo
     private Button robotChooseButton;
     private RadioButton orientLandRB;
     private RadioButton orientPortRB;
+    private CheckBox lowLatencyCB;
     private boolean newLayout;
     private DSLayout layout;
     private String oldName = "";
@@ -60,6 +62,7 @@ public class LayoutSettingsDialogFragment extends DialogFragment implements Robo
                                             layout.setName(getName());
                                             layout.setRioIP(getRoboRIOIP());
                                             layout.setOrientation(getOrientation());
+                                            layout.setLowLatency(isLowLatency());
                                             if (okListener != null) {
                                                 okListener.onClick(di, which);
                                             }
@@ -84,6 +87,7 @@ public class LayoutSettingsDialogFragment extends DialogFragment implements Robo
         robotChooseButton = (Button) content.findViewById(R.id.layout_settings_robot_choose);
         orientLandRB = (RadioButton) content.findViewById(R.id.layout_settings_orientation_landscape);
         orientPortRB = (RadioButton) content.findViewById(R.id.layout_settings_orientation_portrait);
+        lowLatencyCB = (CheckBox) content.findViewById(R.id.layout_settings_low_latency);
 
         robotChooseButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -98,6 +102,7 @@ public class LayoutSettingsDialogFragment extends DialogFragment implements Robo
         setName(layout.getName());
         oldName = layout.getName();
         setRoboRIOIP(layout.getRioIP());
+        setLowLatency(layout.isLowLatency());
 
         return dialog;
     }
@@ -135,6 +140,14 @@ public class LayoutSettingsDialogFragment extends DialogFragment implements Robo
         }
     }
 
+    public boolean isLowLatency() {
+        return lowLatencyCB.isChecked();
+    }
+
+    public void setLowLatency(boolean lowLatency) {
+        lowLatencyCB.setChecked(lowLatency);
+    }
+
     public void setOkListener(DialogInterface.OnClickListener okListener) {
         this.okListener = okListener;
     }
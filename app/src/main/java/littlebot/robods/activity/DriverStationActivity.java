@@ -13,10 +13,15 @@ import android.os.Bundle;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
+import android.view.KeyEvent;
 import android.view.Menu;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
+
 import littlebot.robods.ConnectionIndicator;
 import littlebot.robods.ConnectionManager;
 import littlebot.robods.ControlLayout;
@@ -26,6 +31,8 @@ import littlebot.robods.LayoutManager;
 import littlebot.robods.ModeSwitch;
 import littlebot.robods.R;
 import littlebot.robods.communication.RobotResolver;
+import littlebot.robods.input.GamepadInput;
+import littlebot.robods.journal.InputJournal;
 
 
 public class DriverStationActivity extends AppCompatActivity {
@@ -33,6 +40,12 @@ public class DriverStationActivity extends AppCompatActivity {
     private static final String TAG = DriverStationActivity.class.getSimpleName();
 
     public static final int CONNECTION_PERIOD = 3000;
+    /**
+     * The number of records kept in the input journal, which is 4 MB and more
+     * than half an hour of continuous driving.
+     */
+    public static final int JOURNAL_CAPACITY = 256 * 1024;
+    private static final String JOURNAL_NAME = "input.journal";
 
     private TextView voltageDisplay;
     private ConnectionIndicator connectionIndicator;
@@ -43,15 +56,43 @@ public class DriverStationActivity extends AppCompatActivity {
     private DSLayout layout;
 
     private ConnectionManager connectionManager;
+    private InputJournal journal;
+    private GamepadInput gamepadInput;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         LayoutManager.initialize(this);
+        openJournal();
+    }
+
+    /**
+     * Starts a new input journal, keeping the one from the last time the
+     * activity was started.
+     */
+    private void openJournal() {
+        File file = new File(getFilesDir(), JOURNAL_NAME);
+        if (file.exists() && !file.renameTo(new File(getFilesDir(), JOURNAL_NAME + ".previous"))) {
+            Log.w(TAG, "Failed to keep the previous input journal");
+        }
+        try {
+            journal = new InputJournal(file, JOURNAL_CAPACITY);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open input journal", e);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (journal != null) {
+            journal.close();
+        }
     }
 
     public void setupLayout() {
         controlLayout = new ControlLayout(this);
+        controlLayout.getControlDatabase().setJournal(journal);
         setContentView(controlLayout);
 
         RobotResolver.getInstance(this).start();
@@ -70,9 +111,24 @@ public class DriverStationActivity extends AppCompatActivity {
                             connectionManager = new ConnectionManager(DriverStationActivity.this, layout.getRioIP(), CONNECTION_PERIOD,
                                     controlLayout.getControlDatabase(), connectionIndicator,
                                     modeSwitch, enableButton);
+                            connectionManager.setLowLatency(layout.isLowLatency());
+                            connectionManager.setBatteryListener(new ConnectionManager.BatteryListener() {
+                                @Override
+                                public void onBatteryVoltageChanged(int whole, int hundredths) {
+                                    setVoltage(whole, hundredths);
+                                }
+                            });
 
                             controlLayout.load(layout);
 
+                            // Started after the layout is loaded, so the
+                            // gamepads share components with the controls
+                            if (gamepadInput != null) {
+                                gamepadInput.stop();
+                            }
+                            gamepadInput = new GamepadInput(DriverStationActivity.this, controlLayout.getControlDatabase());
+                            gamepadInput.start();
+
                             //Set the orientation
                             int requestedOrientation;
                             switch (layout.getOrientation()) {
@@ -121,20 +177,43 @@ public class DriverStationActivity extends AppCompatActivity {
         return true;
     }
 
-    private void setVoltage(final int whole, final int decimal) {
+    private void setVoltage(final int whole, final int hundredths) {
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                voltageDisplay.setText(whole + "." + Integer.toString(decimal).substring(1) + "v");
+                voltageDisplay.setText(whole + "." + (hundredths < 10 ? "0" : "") + hundredths + "v");
             }
         });
     }
 
+    @Override
+    public boolean dispatchGenericMotionEvent(MotionEvent ev) {
+        if (gamepadInput != null && gamepadInput.onGenericMotionEvent(ev)) {
+            return true;
+        }
+        return super.dispatchGenericMotionEvent(ev);
+    }
+
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        if (gamepadInput != null && gamepadInput.onKeyEvent(event)) {
+            return true;
+        }
+        return super.dispatchKeyEvent(event);
+    }
+
     public void onPause() {
         super.onPause();
+        if (gamepadInput != null) {
+            gamepadInput.stop();
+            gamepadInput = null;
+        }
         if (connectionManager != null) {
             connectionManager.disconnect();
         }
+        if (journal != null) {
+            journal.flush();
+        }
     }
 
     public void onResume() {
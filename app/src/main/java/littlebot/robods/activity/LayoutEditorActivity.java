@@ -60,6 +60,7 @@ public class LayoutEditorActivity extends AppCompatActivity {
 
         footerLayout = (CoordinatorLayout) findViewById(R.id.editor_layout_footer);
         controlLayout = new ControlLayout(this);
+        controlLayout.setEditing(true);
         controlLayout.setControlListener(new ControlLayout.ControlListener() {
             @Override
             public void controlAdded(ControlView control) {
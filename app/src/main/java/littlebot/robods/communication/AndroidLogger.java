@@ -0,0 +1,36 @@
+package littlebot.robods.communication;
+
+import android.util.Log;
+
+/**
+ * Sends the log messages of the protocol code to the Android log.
+ *
+ * @author Ben Wolsieffer
+ */
+public class AndroidLogger implements ProtocolLog.Logger {
+
+    public static final AndroidLogger INSTANCE = new AndroidLogger();
+
+    private AndroidLogger() {
+    }
+
+    @Override
+    public void debug(String tag, String message) {
+        Log.d(tag, message);
+    }
+
+    @Override
+    public void info(String tag, String message) {
+        Log.i(tag, message);
+    }
+
+    @Override
+    public void warn(String tag, String message, Throwable throwable) {
+        Log.w(tag, message, throwable);
+    }
+
+    @Override
+    public void error(String tag, String message, Throwable throwable) {
+        Log.e(tag, message, throwable);
+    }
+}
@@ -0,0 +1,87 @@
+package littlebot.robods.control;
+
+/**
+ * Shapes axis values with a deadband and an exponential curve. Values inside
+ * the deadband become zero, and the rest of the range is stretched so that
+ * the output still starts at zero and reaches one. The expo blends the result
+ * between a straight line and a cubic curve, which gives finer control near
+ * the center.
+ * <p/>
+ * The curve is computed into a lookup table when it is changed, so applying
+ * it only interpolates between two table entries and does not allocate
+ * anything.
+ *
+ * @author Ben Wolsieffer
+ */
+public class AxisCurve {
+
+    /**
+     * The number of table segments between zero and one. Negative values use
+     * the same table, because the curve is symmetric.
+     */
+    private static final int SEGMENTS = 256;
+
+    private final float[] table = new float[SEGMENTS + 1];
+    private float deadband;
+    private float expo;
+    private boolean linear = true;
+
+    /**
+     * Sets the shape of the curve.
+     *
+     * @param deadband the fraction of the range around the center that is
+     * treated as zero, from 0 up to but not including 1
+     * @param expo how much of the cubic curve is used, from 0 for a straight
+     * line to 1 for a pure cubic
+     * @throws IllegalArgumentException if either value is out of range
+     */
+    public void set(float deadband, float expo) {
+        if (!(deadband >= 0 && deadband < 1)) {
+            throw new IllegalArgumentException("Deadband must be between 0 and 1, was given: " + deadband);
+        }
+        if (!(expo >= 0 && expo <= 1)) {
+            throw new IllegalArgumentException("Expo must be between 0 and 1, was given: " + expo);
+        }
+        this.deadband = deadband;
+        this.expo = expo;
+        linear = deadband == 0 && expo == 0;
+        for (int i = 0; i <= SEGMENTS; i++) {
+            float input = (float) i / SEGMENTS;
+            float scaled = Math.max(0, (input - deadband) / (1 - deadband));
+            table[i] = (1 - expo) * scaled + expo * scaled * scaled * scaled;
+        }
+    }
+
+    public float getDeadband() {
+        return deadband;
+    }
+
+    public float getExpo() {
+        return expo;
+    }
+
+    /**
+     * Shapes a value.
+     *
+     * @param value the value, between -1.0 and 1.0
+     * @return the shaped value, between -1.0 and 1.0
+     */
+    public float apply(float value) {
+        if (linear) {
+            return value;
+        }
+        float magnitude = Math.abs(value);
+        if (magnitude <= deadband) {
+            // Checked separately so that interpolating across the edge of the
+            // deadband does not let small values through
+            return 0;
+        }
+        if (magnitude >= 1) {
+            return value > 0 ? 1 : -1;
+        }
+        float position = magnitude * SEGMENTS;
+        int i = (int) position;
+        float shaped = table[i] + (table[i + 1] - table[i]) * (position - i);
+        return value > 0 ? shaped : -shaped;
+    }
+}
@@ -5,6 +5,11 @@ import java.util.HashMap;
 import littlebot.robods.ControlDatabase;
 
 /**
+ * An axis that a control sets. Before a value is passed on to the
+ * {@link ControlDatabase}, it is shaped by an {@link AxisCurve}, and the
+ * database is told how fast the axis is allowed to change, which is applied
+ * as the packets are sent.
+ *
  * @author Ben Wolsieffer
  */
 public class JoystickAxisProperty extends JoystickComponentProperty {
@@ -12,6 +17,8 @@ public class JoystickAxisProperty extends JoystickComponentProperty {
     private int axisIndex = -1;
     private boolean inverted;
     private float value;
+    private final AxisCurve curve = new AxisCurve();
+    private float slewRate;
 
     public JoystickAxisProperty(String name, int joystickIndex, int axisIndex, ControlDatabase controlDatabase) {
         super(name, joystickIndex, controlDatabase);
@@ -42,24 +49,95 @@ public class JoystickAxisProperty extends JoystickComponentProperty {
         this.inverted = inverted;
     }
 
+    public float getDeadband() {
+        return curve.getDeadband();
+    }
+
+    /**
+     * Sets the fraction of the range around the center that is sent as zero.
+     *
+     * @param deadband the deadband, from 0 up to but not including 1
+     * @throws IllegalArgumentException if the deadband is out of range
+     */
+    public void setDeadband(float deadband) {
+        curve.set(deadband, curve.getExpo());
+        update();
+    }
+
+    public float getExpo() {
+        return curve.getExpo();
+    }
+
+    /**
+     * Sets how much of a cubic curve is blended into the value, which gives
+     * finer control near the center.
+     *
+     * @param expo the expo, from 0 for none to 1 for a pure cubic
+     * @throws IllegalArgumentException if the expo is out of range
+     */
+    public void setExpo(float expo) {
+        curve.set(curve.getDeadband(), expo);
+        update();
+    }
+
+    public float getSlewRate() {
+        return slewRate;
+    }
+
+    /**
+     * Sets how fast the value sent to the robot can change.
+     *
+     * @param slewRate the maximum change per second, or zero for no limit
+     * @throws IllegalArgumentException if the rate is negative
+     */
+    public void setSlewRate(float slewRate) {
+        if (!(slewRate >= 0)) {
+            throw new IllegalArgumentException("Slew rate must not be negative, was given: " + slewRate);
+        }
+        this.slewRate = slewRate;
+        if (handle != ControlDatabase.NO_HANDLE) {
+            controlDatabase.setAxisSlewRate(handle, slewRate);
+        }
+    }
+
+    /**
+     * Gets the value set by the control, before it is shaped.
+     *
+     * @return the value
+     */
     public float getValue() {
         return value;
     }
 
     public void setValue(float value) {
         this.value = value;
-        controlDatabase.setAxis(getJoystickIndex(), axisIndex, value);
+        controlDatabase.setAxis(handle, curve.apply(value));
+    }
+
+    /**
+     * Sends the current value again after the curve changes.
+     */
+    private void update() {
+        if (handle != ControlDatabase.NO_HANDLE) {
+            controlDatabase.setAxis(handle, curve.apply(value));
+        }
     }
 
 
     @Override
     protected boolean register() {
-        return controlDatabase.registerAxis(getJoystickIndex(), axisIndex);
+        handle = controlDatabase.registerAxis(getJoystickIndex(), axisIndex);
+        if (handle == ControlDatabase.NO_HANDLE) {
+            return false;
+        }
+        controlDatabase.setAxisSlewRate(handle, slewRate);
+        return true;
     }
 
     @Override
     protected void unregister() {
         controlDatabase.unregisterAxis(getJoystickIndex(), axisIndex);
+        handle = ControlDatabase.NO_HANDLE;
     }
 
     @Override
@@ -67,6 +145,12 @@ public class JoystickAxisProperty extends JoystickComponentProperty {
         super.read(properties);
         setAxisIndex((Integer) properties.get(getName() + "AXIS_INDEX"));
         inverted = (Boolean) properties.get(getName() + "INVERTED");
+        // Layouts saved before these were added do not have them
+        Float deadband = (Float) properties.get(getName() + "DEADBAND");
+        Float expo = (Float) properties.get(getName() + "EXPO");
+        Float slewRate = (Float) properties.get(getName() + "SLEW_RATE");
+        curve.set(deadband != null ? deadband : 0, expo != null ? expo : 0);
+        setSlewRate(slewRate != null ? slewRate : 0);
     }
 
     @Override
@@ -74,5 +158,8 @@ public class JoystickAxisProperty extends JoystickComponentProperty {
         super.write(properties);
         properties.put(getName() + "AXIS_INDEX", axisIndex);
         properties.put(getName() + "INVERTED", inverted);
+        properties.put(getName() + "DEADBAND", curve.getDeadband());
+        properties.put(getName() + "EXPO", curve.getExpo());
+        properties.put(getName() + "SLEW_RATE", slewRate);
     }
 }
@@ -34,7 +34,7 @@ public class JoystickButtonProperty extends JoystickComponentProperty {
 
     public void setPressed(boolean pressed) {
         this.pressed = pressed;
-        controlDatabase.setButton(getJoystickIndex(), buttonIndex, pressed);
+        controlDatabase.setButton(handle, pressed);
     }
 
     public boolean isPressed() {
@@ -43,12 +43,14 @@ public class JoystickButtonProperty extends JoystickComponentProperty {
 
     @Override
     protected boolean register() {
-        return controlDatabase.registerButton(getJoystickIndex(), buttonIndex);
+        handle = controlDatabase.registerButton(getJoystickIndex(), buttonIndex);
+        return handle != ControlDatabase.NO_HANDLE;
     }
 
     @Override
     protected void unregister() {
         controlDatabase.unregisterButton(getJoystickIndex(), buttonIndex);
+        handle = ControlDatabase.NO_HANDLE;
     }
 
     @Override
@@ -11,6 +11,11 @@ public abstract class JoystickComponentProperty extends Property {
 
     private int joystickIndex = -1;
     protected final ControlDatabase controlDatabase;
+    /**
+     * The handle of the component in the {@link ControlDatabase}, which is set
+     * by {@link #register()}.
+     */
+    protected int handle = ControlDatabase.NO_HANDLE;
 
 
     public JoystickComponentProperty(String name, int joystickIndex, ControlDatabase controlDatabase) {
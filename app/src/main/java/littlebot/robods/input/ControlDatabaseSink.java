@@ -0,0 +1,91 @@
+package littlebot.robods.input;
+
+import littlebot.robods.ControlDatabase;
+
+/**
+ * Sends mapped input to a {@link ControlDatabase}, setting values through a
+ * {@link ControlDatabase.Producer} so that it can be arbitrated with the on
+ * screen controls.
+ *
+ * @author Ben Wolsieffer
+ */
+public class ControlDatabaseSink implements ControlSink {
+
+    private final ControlDatabase controlDatabase;
+    private final ControlDatabase.Producer producer;
+
+    public ControlDatabaseSink(ControlDatabase controlDatabase, ControlDatabase.Producer producer) {
+        this.controlDatabase = controlDatabase;
+        this.producer = producer;
+    }
+
+    @Override
+    public int getAxisHandle(int joystick, int axis) {
+        return controlDatabase.getAxisHandle(joystick, axis);
+    }
+
+    @Override
+    public int getButtonHandle(int joystick, int button) {
+        return controlDatabase.getButtonHandle(joystick, button);
+    }
+
+    @Override
+    public int getPOVHatHandle(int joystick, int povHat) {
+        return controlDatabase.getPOVHatHandle(joystick, povHat);
+    }
+
+    @Override
+    public int registerAxis(int joystick, int axis) {
+        return controlDatabase.registerAxis(joystick, axis);
+    }
+
+    @Override
+    public int registerButton(int joystick, int button) {
+        return controlDatabase.registerButton(joystick, button);
+    }
+
+    @Override
+    public int registerPOVHat(int joystick, int povHat) {
+        return controlDatabase.registerPOVHat(joystick, povHat);
+    }
+
+    @Override
+    public void unregisterAxis(int joystick, int axis) {
+        controlDatabase.unregisterAxis(joystick, axis);
+    }
+
+    @Override
+    public void unregisterButton(int joystick, int button) {
+        controlDatabase.unregisterButton(joystick, button);
+    }
+
+    @Override
+    public void unregisterPOVHat(int joystick, int povHat) {
+        controlDatabase.unregisterPOVHat(joystick, povHat);
+    }
+
+    @Override
+    public void setAxis(int handle, float value) {
+        producer.setAxis(handle, value);
+    }
+
+    @Override
+    public void setButton(int handle, boolean pressed) {
+        producer.setButton(handle, pressed);
+    }
+
+    @Override
+    public void setPOVHat(int handle, int angle) {
+        producer.setPOVHat(handle, angle);
+    }
+
+    @Override
+    public void beginBatch() {
+        controlDatabase.beginBatch();
+    }
+
+    @Override
+    public void endBatch() {
+        controlDatabase.endBatch();
+    }
+}
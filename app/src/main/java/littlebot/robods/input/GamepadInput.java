@@ -0,0 +1,183 @@
+package littlebot.robods.input;
+
+import android.content.Context;
+import android.hardware.input.InputManager;
+import android.util.Log;
+import android.view.InputDevice;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+
+import littlebot.robods.ControlDatabase;
+
+/**
+ * Connects hardware gamepads to a {@link ControlDatabase}. Gamepads are
+ * picked up when they are plugged in or paired, and each one gets its own
+ * joystick, starting at joystick 0. The activity has to pass its motion and
+ * key events here, because Android only delivers them to the focused window.
+ * <p/>
+ * Android batches the motion samples of a gamepad into one event per frame,
+ * so every sample in the history of an event is applied, each in its own
+ * batch. This way the robot and the journal see the gamepad at the rate the
+ * device reports it, and short taps are not lost.
+ * <p/>
+ * The gamepads share components with the on screen controls that use the
+ * same joysticks, so this should be started after the layout is loaded.
+ *
+ * @author Ben Wolsieffer
+ */
+public class GamepadInput implements InputManager.InputDeviceListener {
+
+    private static final String TAG = GamepadInput.class.getSimpleName();
+
+    /**
+     * The maximum number of gamepads that can be used at once, which is the
+     * number of joysticks the FRC driver station supports.
+     */
+    public static final int MAX_GAMEPADS = 6;
+
+    /**
+     * The priority of the gamepad producer, which is higher than the on
+     * screen controls.
+     */
+    public static final int PRODUCER_PRIORITY = 1;
+
+    private final InputManager inputManager;
+    private final ControlDatabase controlDatabase;
+    private final GamepadMapping mapping = GamepadMapping.createStandard();
+
+    private ControlDatabase.Producer producer;
+    private GamepadManager gamepadManager;
+
+    public GamepadInput(Context context, ControlDatabase controlDatabase) {
+        this.inputManager = (InputManager) context.getSystemService(Context.INPUT_SERVICE);
+        this.controlDatabase = controlDatabase;
+    }
+
+    /**
+     * Starts using the gamepads that are connected, and any that are
+     * connected later. Must be called on the UI thread.
+     */
+    public void start() {
+        if (gamepadManager != null) {
+            return;
+        }
+        producer = controlDatabase.createProducer("Gamepad", PRODUCER_PRIORITY);
+        gamepadManager = new GamepadManager(new ControlDatabaseSink(controlDatabase, producer), 0, MAX_GAMEPADS);
+        inputManager.registerInputDeviceListener(this, null);
+        for (int deviceId : inputManager.getInputDeviceIds()) {
+            onInputDeviceAdded(deviceId);
+        }
+    }
+
+    /**
+     * Stops using the gamepads, releasing everything they were pressing.
+     */
+    public void stop() {
+        if (gamepadManager == null) {
+            return;
+        }
+        inputManager.unregisterInputDeviceListener(this);
+        gamepadManager.removeAllDevices();
+        gamepadManager = null;
+        producer.close();
+        producer = null;
+    }
+
+    private static boolean isGamepad(InputDevice device) {
+        if (device == null || device.isVirtual()) {
+            return false;
+        }
+        int sources = device.getSources();
+        return (sources & InputDevice.SOURCE_GAMEPAD) == InputDevice.SOURCE_GAMEPAD
+                || (sources & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK;
+    }
+
+    @Override
+    public void onInputDeviceAdded(int deviceId) {
+        InputDevice device = inputManager.getInputDevice(deviceId);
+        if (!isGamepad(device)) {
+            return;
+        }
+        GamepadMapper mapper = gamepadManager.addDevice(deviceId, mapping);
+        if (mapper != null) {
+            Log.i(TAG, "Using " + device.getName() + " as joystick " + mapper.getJoystickIndex());
+        } else {
+            Log.w(TAG, "No joystick left for " + device.getName());
+        }
+    }
+
+    @Override
+    public void onInputDeviceRemoved(int deviceId) {
+        if (gamepadManager.removeDevice(deviceId)) {
+            Log.i(TAG, "Gamepad " + deviceId + " removed");
+        }
+    }
+
+    @Override
+    public void onInputDeviceChanged(int deviceId) {
+        if (isGamepad(inputManager.getInputDevice(deviceId))) {
+            onInputDeviceAdded(deviceId);
+        } else {
+            onInputDeviceRemoved(deviceId);
+        }
+    }
+
+    /**
+     * Applies the samples of a joystick motion event.
+     *
+     * @param event the event
+     * @return true if the event came from a gamepad that is in use
+     */
+    public boolean onGenericMotionEvent(MotionEvent event) {
+        if (gamepadManager == null
+                || (event.getSource() & InputDevice.SOURCE_JOYSTICK) != InputDevice.SOURCE_JOYSTICK
+                || event.getActionMasked() != MotionEvent.ACTION_MOVE) {
+            return false;
+        }
+        GamepadMapper mapper = gamepadManager.getMapper(event.getDeviceId());
+        if (mapper == null) {
+            return false;
+        }
+        int[] axes = mapping.getSourceAxes();
+        int historySize = event.getHistorySize();
+        // The oldest samples come first, and the current one is last
+        for (int pos = 0; pos <= historySize; pos++) {
+            mapper.beginEvent();
+            try {
+                for (int axis : axes) {
+                    mapper.axisChanged(axis, pos < historySize
+                            ? event.getHistoricalAxisValue(axis, pos)
+                            : event.getAxisValue(axis));
+                }
+            } finally {
+                mapper.endEvent();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies a gamepad key event.
+     *
+     * @param event the event
+     * @return true if the key is mapped and came from a gamepad that is in
+     * use
+     */
+    public boolean onKeyEvent(KeyEvent event) {
+        if (gamepadManager == null) {
+            return false;
+        }
+        GamepadMapper mapper = gamepadManager.getMapper(event.getDeviceId());
+        if (mapper == null) {
+            return false;
+        }
+        switch (event.getAction()) {
+            case KeyEvent.ACTION_DOWN:
+                return mapper.keyChanged(event.getKeyCode(), true);
+            case KeyEvent.ACTION_UP:
+                return mapper.keyChanged(event.getKeyCode(), false);
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package littlebot.robods;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that changes made by producers while another thread owns a
+ * component are passed on when the owner releases it.
+ *
+ * @author Ben Wolsieffer
+ */
+public class ControlDatabaseTest {
+
+    private final ControlDatabase controlDatabase = new ControlDatabase();
+
+    /**
+     * Remembers the last axis value, and can hold up the thread that changes
+     * a slew rate while it owns the axis.
+     */
+    private static class Listener implements ControlDatabase.ControlListener {
+        final CountDownLatch configuring = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean holdConfiguration;
+        volatile float axisValue;
+        volatile int axisChanges;
+
+        @Override
+        public void axisSlewRateChanged(int handle, int joystickIndex, int axisIndex, float rate) {
+            if (holdConfiguration) {
+                configuring.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void axisValueChanged(int handle, int joystickIndex, int axisIndex, float value) {
+            axisValue = value;
+            axisChanges++;
+        }
+
+        @Override
+        public void axisRegistered(int handle, int joystickIndex, int axisIndex) {
+        }
+
+        @Override
+        public void buttonRegistered(int handle, int joystickIndex, int buttonIndex) {
+        }
+
+        @Override
+        public void povHatRegistered(int handle, int joystickIndex, int povHatIndex) {
+        }
+
+        @Override
+        public void buttonStateChanged(int handle, int joystickIndex, int buttonIndex, boolean pressed) {
+        }
+
+        @Override
+        public void povHatAngleChanged(int handle, int joystickIndex, int povHatIndex, int angle) {
+        }
+
+        @Override
+        public void axisUnregistered(int handle, int joystickIndex, int axisIndex) {
+        }
+
+        @Override
+        public void buttonUnregistered(int handle, int joystickIndex, int buttonIndex) {
+        }
+
+        @Override
+        public void povHatUnregistered(int handle, int joystickIndex, int povHatIndex) {
+        }
+
+        @Override
+        public void batchStarted() {
+        }
+
+        @Override
+        public void batchFinished() {
+        }
+    }
+
+    @Test
+    public void testChangeWhileConfiguring() throws InterruptedException {
+        final int handle = controlDatabase.registerAxis(0, 1);
+        Listener listener = new Listener();
+        controlDatabase.addControlListener(listener);
+        ControlDatabase.Producer gamepad = controlDatabase.createProducer("Gamepad", 1);
+        // Adding the listener passes on the current value
+        int changes = listener.axisChanges;
+
+        // The configuring thread owns the axis until the listener lets it go
+        listener.holdConfiguration = true;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread configurer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    controlDatabase.setAxisSlewRate(handle, 2);
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        configurer.start();
+        assertTrue(listener.configuring.await(5, TimeUnit.SECONDS));
+
+        // Left for the configuring thread to pass on
+        gamepad.setAxis(handle, 0.75f);
+        assertEquals(changes, listener.axisChanges);
+
+        listener.release.countDown();
+        configurer.join(5000);
+        assertFalse(configurer.isAlive());
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        assertEquals(0.75f, controlDatabase.getAxis(handle), 0);
+        assertEquals(changes + 1, listener.axisChanges);
+        assertEquals(0.75f, listener.axisValue, 0);
+        assertEquals(2, controlDatabase.getAxisSlewRate(handle), 0);
+    }
+
+    @Test
+    public void testChangesKeepGoingAfterConfiguring() {
+        int handle = controlDatabase.registerAxis(0, 1);
+        Listener listener = new Listener();
+        controlDatabase.addControlListener(listener);
+        ControlDatabase.Producer gamepad = controlDatabase.createProducer("Gamepad", 1);
+
+        controlDatabase.setAxisSlewRate(handle, 2);
+        controlDatabase.setArbitration(handle, ControlDatabase.Arbitration.LAST_WRITER);
+        gamepad.setAxis(handle, -0.5f);
+        assertEquals(-0.5f, controlDatabase.getAxis(handle), 0);
+        assertEquals(-0.5f, listener.axisValue, 0);
+    }
+}
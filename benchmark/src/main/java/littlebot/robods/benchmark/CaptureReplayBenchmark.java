@@ -0,0 +1,73 @@
+package littlebot.robods.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import littlebot.robods.communication.CaptureReplayer;
+import littlebot.robods.communication.PcapngReader;
+
+/**
+ * Measures applying the state of each packet sent by the official driver
+ * station in <code>capture/official_ds</code> and encoding a new packet, which
+ * is the same work the conformance test checks. Unlike the synthetic encoding
+ * benchmark, the controls change the way they did in a real match.
+ * <p/>
+ * The captures are found using the <code>robods.captureDir</code> system
+ * property, or in the <code>capture/official_ds</code> directory of the
+ * project.
+ *
+ * @author Ben Wolsieffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CaptureReplayBenchmark {
+
+    private ByteBuffer[] packets;
+    private CaptureReplayer replayer;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        File dir = CaptureReplayer.findCaptureDir();
+        List<ByteBuffer> packets = new ArrayList<>();
+        for (File capture : CaptureReplayer.findCaptures(dir)) {
+            for (byte[] packet : PcapngReader.readPayloads(capture.getPath(), CaptureReplayer.DS_PORT)) {
+                packets.add(ByteBuffer.wrap(packet));
+            }
+        }
+        if (packets.isEmpty()) {
+            throw new IllegalStateException("No captures found in " + dir);
+        }
+        this.packets = packets.toArray(new ByteBuffer[packets.size()]);
+        replayer = new CaptureReplayer();
+    }
+
+    @Benchmark
+    public int replay() {
+        ByteBuffer packet = packets[next];
+        if (++next == packets.length) {
+            next = 0;
+        }
+        replayer.replay(packet);
+        return replayer.getDatagram().getLength();
+    }
+}
@@ -0,0 +1,252 @@
+package littlebot.robods.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import littlebot.robods.ControlDatabase;
+import littlebot.robods.communication.AxisSlewLimiter;
+import littlebot.robods.communication.DriverStationPacket;
+import littlebot.robods.control.AxisCurve;
+
+/**
+ * Measures updating a control from the UI until the new value is in the
+ * packet, not including encoding the packet. The listener does the same as the
+ * one in {@link littlebot.robods.ConnectionManager}, except for requesting a
+ * send.
+ *
+ * @author Ben Wolsieffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ControlDatabaseBenchmark {
+
+    private static final int AXIS_COUNT = 4;
+    private static final int BUTTON_COUNT = 12;
+    private static final int POV_HAT_COUNT = 1;
+
+    private final DriverStationPacket packet = new DriverStationPacket();
+    private final ControlDatabase controlDatabase = new ControlDatabase();
+    private final AxisSlewLimiter axisSlewLimiter = new AxisSlewLimiter();
+    private final AxisCurve curve = new AxisCurve();
+    private int step;
+    private long now;
+    private int xAxis;
+    private int yAxis;
+    private int slewLimitedAxis;
+    private int arbitratedAxis;
+    private int button;
+    private int povHat;
+
+    @Setup
+    public void setup() {
+        controlDatabase.addControlListener(new ControlDatabase.ControlListener() {
+
+            private DriverStationPacket.Joystick[] boundJoysticks = new DriverStationPacket.Joystick[0];
+
+            private DriverStationPacket.Joystick getJoystick(int index) {
+                DriverStationPacket.Joystick j;
+                if ((j = packet.getJoystick(index)) == null) {
+                    j = new DriverStationPacket.Joystick();
+                    packet.addJoystick(index, j);
+                }
+                return j;
+            }
+
+            private DriverStationPacket.Joystick bind(int handle, int joystickIndex) {
+                if (handle >= boundJoysticks.length) {
+                    DriverStationPacket.Joystick[] newBoundJoysticks =
+                            new DriverStationPacket.Joystick[Math.max(handle + 1, boundJoysticks.length * 2)];
+                    System.arraycopy(boundJoysticks, 0, newBoundJoysticks, 0, boundJoysticks.length);
+                    boundJoysticks = newBoundJoysticks;
+                }
+                DriverStationPacket.Joystick j = getJoystick(joystickIndex);
+                boundJoysticks[handle] = j;
+                return j;
+            }
+
+            @Override
+            public void axisRegistered(int handle, int joystickIndex, int axisIndex) {
+                DriverStationPacket.Joystick j = bind(handle, joystickIndex);
+                if (j.getAxisCount() <= axisIndex) {
+                    j.setAxisCount(axisIndex + 1);
+                }
+            }
+
+            @Override
+            public void buttonRegistered(int handle, int joystickIndex, int buttonIndex) {
+                DriverStationPacket.Joystick j = bind(handle, joystickIndex);
+                if (j.getButtonCount() <= buttonIndex) {
+                    j.setButtonCount(buttonIndex + 1);
+                }
+            }
+
+            @Override
+            public void povHatRegistered(int handle, int joystickIndex, int povHatIndex) {
+                DriverStationPacket.Joystick j = bind(handle, joystickIndex);
+                if (j.getPOVHatCount() <= povHatIndex) {
+                    j.setPOVHatCount(povHatIndex + 1);
+                }
+            }
+
+            @Override
+            public void axisValueChanged(int handle, int joystickIndex, int axisIndex, float value) {
+                if (axisSlewLimiter.isBound(handle)) {
+                    axisSlewLimiter.setTarget(handle, value);
+                } else {
+                    boundJoysticks[handle].setAxisValue(axisIndex, value);
+                }
+            }
+
+            @Override
+            public void buttonStateChanged(int handle, int joystickIndex, int buttonIndex, boolean pressed) {
+                boundJoysticks[handle].setButtonPressed(buttonIndex, pressed);
+            }
+
+            @Override
+            public void povHatAngleChanged(int handle, int joystickIndex, int povHatIndex, int angle) {
+                boundJoysticks[handle].setPOVHatAngle(povHatIndex, angle);
+            }
+
+            @Override
+            public void axisSlewRateChanged(int handle, int joystickIndex, int axisIndex, float rate) {
+                if (rate > 0 || axisSlewLimiter.isBound(handle)) {
+                    axisSlewLimiter.bind(handle, boundJoysticks[handle], axisIndex, rate);
+                }
+            }
+
+            @Override
+            public void axisUnregistered(int handle, int joystickIndex, int axisIndex) {
+            }
+
+            @Override
+            public void buttonUnregistered(int handle, int joystickIndex, int buttonIndex) {
+            }
+
+            @Override
+            public void povHatUnregistered(int handle, int joystickIndex, int povHatIndex) {
+            }
+
+            @Override
+            public void batchStarted() {
+                packet.beginBatch();
+            }
+
+            @Override
+            public void batchFinished() {
+                packet.endBatch();
+            }
+        });
+
+        for (int a = 0; a < AXIS_COUNT; a++) {
+            controlDatabase.registerAxis(0, a);
+        }
+        for (int b = 0; b < BUTTON_COUNT; b++) {
+            controlDatabase.registerButton(0, b);
+        }
+        for (int p = 0; p < POV_HAT_COUNT; p++) {
+            controlDatabase.registerPOVHat(0, p);
+        }
+        xAxis = controlDatabase.getAxisHandle(0, 0);
+        yAxis = controlDatabase.getAxisHandle(0, 1);
+        button = controlDatabase.getButtonHandle(0, 0);
+        povHat = controlDatabase.getPOVHatHandle(0, 0);
+        slewLimitedAxis = controlDatabase.getAxisHandle(0, 2);
+        controlDatabase.setAxisSlewRate(slewLimitedAxis, 5);
+        arbitratedAxis = controlDatabase.getAxisHandle(0, 3);
+        controlDatabase.setArbitration(arbitratedAxis, ControlDatabase.Arbitration.PRIORITY);
+        // At rest, so the default producer wins
+        controlDatabase.createProducer("Gamepad", 1).setAxis(arbitratedAxis, 0);
+        axisSlewLimiter.start(now);
+        curve.set(0.1f, 0.5f);
+    }
+
+    /**
+     * Moves both axes of a thumb stick, which is the most common update.
+     */
+    @Benchmark
+    public void setAxes() {
+        float value = (step++ & 1) == 0 ? 0.5f : -0.5f;
+        controlDatabase.setAxis(xAxis, value);
+        controlDatabase.setAxis(yAxis, -value);
+    }
+
+    /**
+     * Moves both axes of a thumb stick by less than one quantization step,
+     * which does not change the packet, like most touch events.
+     */
+    @Benchmark
+    public void setAxesUnchangedOnWire() {
+        float value = (step++ & 1) == 0 ? 0.5f : 0.501f;
+        controlDatabase.setAxis(xAxis, value);
+        controlDatabase.setAxis(yAxis, -value);
+    }
+
+    /**
+     * Moves both axes of a thumb stick in a batch, like a touch event does.
+     */
+    @Benchmark
+    public void setAxesBatched() {
+        float value = (step++ & 1) == 0 ? 0.5f : -0.5f;
+        controlDatabase.beginBatch();
+        try {
+            controlDatabase.setAxis(xAxis, value);
+            controlDatabase.setAxis(yAxis, -value);
+        } finally {
+            controlDatabase.endBatch();
+        }
+    }
+
+    /**
+     * Moves both axes of a thumb stick through a deadband and expo curve.
+     */
+    @Benchmark
+    public void setAxesShaped() {
+        float value = (step++ & 1) == 0 ? 0.5f : -0.5f;
+        controlDatabase.setAxis(xAxis, curve.apply(value));
+        controlDatabase.setAxis(yAxis, curve.apply(-value));
+    }
+
+    /**
+     * Moves a slew limited axis from one end to the other and ticks the
+     * limiter once, as the sender does before every packet.
+     */
+    @Benchmark
+    public void setSlewLimitedAxisAndTick() {
+        controlDatabase.setAxis(slewLimitedAxis, (step++ & 1) == 0 ? 1 : -1);
+        now += TimeUnit.MILLISECONDS.toNanos(20);
+        axisSlewLimiter.tick(now);
+    }
+
+    /**
+     * Moves an axis that a higher priority producer is not using, so the value
+     * is chosen by priority.
+     */
+    @Benchmark
+    public void setArbitratedAxis() {
+        controlDatabase.setAxis(arbitratedAxis, (step++ & 1) == 0 ? 0.5f : -0.5f);
+    }
+
+    @Benchmark
+    public void setButton() {
+        controlDatabase.setButton(button, (step++ & 1) == 0);
+    }
+
+    @Benchmark
+    public void setPOVHat() {
+        controlDatabase.setPOVHat(povHat, (step++ & 1) == 0 ? 90 : -1);
+    }
+}
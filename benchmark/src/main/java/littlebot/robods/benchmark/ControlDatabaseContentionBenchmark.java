@@ -0,0 +1,140 @@
+package littlebot.robods.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import littlebot.robods.ControlDatabase;
+import littlebot.robods.communication.DriverStationPacket;
+
+/**
+ * Measures two producers on different threads, such as the touch screen and
+ * a gamepad, setting axes at the same time. In the <code>sameAxis</code>
+ * group they fight over one axis, so one thread often passes on the other's
+ * change, and in the <code>separateAxes</code> group they only share the
+ * database.
+ *
+ * @author Ben Wolsieffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ControlDatabaseContentionBenchmark {
+
+    private final DriverStationPacket.Joystick joystick = new DriverStationPacket.Joystick();
+    private final ControlDatabase controlDatabase = new ControlDatabase();
+    private ControlDatabase.Producer touch;
+    private ControlDatabase.Producer gamepad;
+    private int sharedAxis;
+    private int touchAxis;
+    private int gamepadAxis;
+
+    /*
+     * Each field is only used by one thread.
+     */
+    private int touchStep;
+    private int gamepadStep;
+
+    @Setup
+    public void setup() {
+        joystick.setAxisCount(3);
+        controlDatabase.addControlListener(new ControlDatabase.ControlListener() {
+            @Override
+            public void axisRegistered(int handle, int joystickIndex, int axisIndex) {
+            }
+
+            @Override
+            public void buttonRegistered(int handle, int joystickIndex, int buttonIndex) {
+            }
+
+            @Override
+            public void povHatRegistered(int handle, int joystickIndex, int povHatIndex) {
+            }
+
+            @Override
+            public void axisValueChanged(int handle, int joystickIndex, int axisIndex, float value) {
+                joystick.setAxisValue(axisIndex, value);
+            }
+
+            @Override
+            public void buttonStateChanged(int handle, int joystickIndex, int buttonIndex, boolean pressed) {
+            }
+
+            @Override
+            public void povHatAngleChanged(int handle, int joystickIndex, int povHatIndex, int angle) {
+            }
+
+            @Override
+            public void axisSlewRateChanged(int handle, int joystickIndex, int axisIndex, float rate) {
+            }
+
+            @Override
+            public void axisUnregistered(int handle, int joystickIndex, int axisIndex) {
+            }
+
+            @Override
+            public void buttonUnregistered(int handle, int joystickIndex, int buttonIndex) {
+            }
+
+            @Override
+            public void povHatUnregistered(int handle, int joystickIndex, int povHatIndex) {
+            }
+
+            @Override
+            public void batchStarted() {
+            }
+
+            @Override
+            public void batchFinished() {
+            }
+        });
+        sharedAxis = controlDatabase.registerAxis(0, 0);
+        touchAxis = controlDatabase.registerAxis(0, 1);
+        gamepadAxis = controlDatabase.registerAxis(0, 2);
+        controlDatabase.setArbitration(sharedAxis, ControlDatabase.Arbitration.MAX_MAGNITUDE);
+        touch = controlDatabase.getDefaultProducer();
+        gamepad = controlDatabase.createProducer("Gamepad", 1);
+    }
+
+    @Benchmark
+    @Group("sameAxis")
+    @GroupThreads(1)
+    public void sameAxisTouch() {
+        touch.setAxis(sharedAxis, (touchStep++ & 1) == 0 ? 0.25f : -0.25f);
+    }
+
+    @Benchmark
+    @Group("sameAxis")
+    @GroupThreads(1)
+    public void sameAxisGamepad() {
+        gamepad.setAxis(sharedAxis, (gamepadStep++ & 1) == 0 ? 0.75f : -0.75f);
+    }
+
+    @Benchmark
+    @Group("separateAxes")
+    @GroupThreads(1)
+    public void separateAxesTouch() {
+        touch.setAxis(touchAxis, (touchStep++ & 1) == 0 ? 0.25f : -0.25f);
+    }
+
+    @Benchmark
+    @Group("separateAxes")
+    @GroupThreads(1)
+    public void separateAxesGamepad() {
+        gamepad.setAxis(gamepadAxis, (gamepadStep++ & 1) == 0 ? 0.75f : -0.75f);
+    }
+}
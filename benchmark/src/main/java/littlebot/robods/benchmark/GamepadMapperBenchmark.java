@@ -0,0 +1,133 @@
+package littlebot.robods.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import littlebot.robods.ControlDatabase;
+import littlebot.robods.communication.DriverStationPacket;
+import littlebot.robods.input.ControlDatabaseSink;
+import littlebot.robods.input.GamepadManager;
+import littlebot.robods.input.GamepadMapper;
+import littlebot.robods.input.GamepadMapping;
+
+/**
+ * Measures applying one gamepad sample, the way
+ * {@link littlebot.robods.input.GamepadInput} does for each sample in the
+ * history of a motion event, until the new values are in the joystick.
+ *
+ * @author Ben Wolsieffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GamepadMapperBenchmark {
+
+    private static final int DEVICE_ID = 5;
+
+    private final DriverStationPacket.Joystick joystick = new DriverStationPacket.Joystick();
+    private final ControlDatabase controlDatabase = new ControlDatabase();
+    private final GamepadMapping mapping = GamepadMapping.createStandard();
+    private GamepadManager gamepadManager;
+    private int[] sourceAxes;
+    private int step;
+
+    @Setup
+    public void setup() {
+        joystick.setAxisCount(6);
+        joystick.setButtonCount(10);
+        joystick.setPOVHatCount(1);
+        controlDatabase.addControlListener(new ControlDatabase.ControlListener() {
+            @Override
+            public void axisRegistered(int handle, int joystickIndex, int axisIndex) {
+            }
+
+            @Override
+            public void buttonRegistered(int handle, int joystickIndex, int buttonIndex) {
+            }
+
+            @Override
+            public void povHatRegistered(int handle, int joystickIndex, int povHatIndex) {
+            }
+
+            @Override
+            public void axisValueChanged(int handle, int joystickIndex, int axisIndex, float value) {
+                joystick.setAxisValue(axisIndex, value);
+            }
+
+            @Override
+            public void buttonStateChanged(int handle, int joystickIndex, int buttonIndex, boolean pressed) {
+                joystick.setButtonPressed(buttonIndex, pressed);
+            }
+
+            @Override
+            public void povHatAngleChanged(int handle, int joystickIndex, int povHatIndex, int angle) {
+                joystick.setPOVHatAngle(povHatIndex, angle);
+            }
+
+            @Override
+            public void axisSlewRateChanged(int handle, int joystickIndex, int axisIndex, float rate) {
+            }
+
+            @Override
+            public void axisUnregistered(int handle, int joystickIndex, int axisIndex) {
+            }
+
+            @Override
+            public void buttonUnregistered(int handle, int joystickIndex, int buttonIndex) {
+            }
+
+            @Override
+            public void povHatUnregistered(int handle, int joystickIndex, int povHatIndex) {
+            }
+
+            @Override
+            public void batchStarted() {
+            }
+
+            @Override
+            public void batchFinished() {
+            }
+        });
+        ControlDatabase.Producer producer = controlDatabase.createProducer("Gamepad", 1);
+        gamepadManager = new GamepadManager(new ControlDatabaseSink(controlDatabase, producer), 0, 6);
+        gamepadManager.addDevice(DEVICE_ID, mapping);
+        sourceAxes = mapping.getSourceAxes();
+    }
+
+    /**
+     * One sample where the left stick moved, and the rest of the axes did
+     * not.
+     */
+    @Benchmark
+    public void stickSample() {
+        GamepadMapper mapper = gamepadManager.getMapper(DEVICE_ID);
+        float x = (step++ & 1) == 0 ? 0.5f : -0.5f;
+        mapper.beginEvent();
+        try {
+            for (int axis : sourceAxes) {
+                mapper.axisChanged(axis, axis == GamepadMapping.AXIS_X || axis == GamepadMapping.AXIS_Y ? x : 0);
+            }
+        } finally {
+            mapper.endEvent();
+        }
+    }
+
+    @Benchmark
+    public void buttonPress() {
+        GamepadMapper mapper = gamepadManager.getMapper(DEVICE_ID);
+        mapper.keyChanged(GamepadMapping.KEYCODE_BUTTON_A, (step++ & 1) == 0);
+    }
+}
@@ -0,0 +1,63 @@
+package littlebot.robods.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import littlebot.robods.journal.InputJournal;
+
+/**
+ * Measures recording a change in the input journal, which is added to every
+ * control change that is sent. The journal is small enough that it wraps
+ * around many times during a run.
+ *
+ * @author Ben Wolsieffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InputJournalBenchmark {
+
+    private static final int CAPACITY = 64 * 1024;
+
+    private File file;
+    private InputJournal journal;
+    private int step;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("input", ".journal");
+        journal = new InputJournal(file, CAPACITY);
+    }
+
+    @TearDown
+    public void tearDown() {
+        journal.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void recordAxis() {
+        journal.recordAxis(0, 1, (step++ & 1) == 0 ? 0.5f : -0.5f);
+    }
+
+    @Benchmark
+    public void recordButton() {
+        journal.recordButton(0, 3, (step++ & 1) == 0);
+    }
+}
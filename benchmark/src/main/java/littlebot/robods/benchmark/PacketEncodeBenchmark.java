@@ -0,0 +1,101 @@
+package littlebot.robods.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.DatagramPacket;
+import java.util.concurrent.TimeUnit;
+
+import littlebot.robods.communication.DriverStationPacket;
+
+/**
+ * Measures encoding driver station packets, which happens every time a packet
+ * is sent. Each joystick has as many axes, buttons and POV hats as the
+ * joysticks in the official driver station captures.
+ *
+ * @author Ben Wolsieffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketEncodeBenchmark {
+
+    private static final int AXIS_COUNT = 4;
+    private static final int BUTTON_COUNT = 12;
+    private static final int POV_HAT_COUNT = 1;
+
+    @Param({"0", "1", "2", "3", "4", "5", "6"})
+    public int joystickCount;
+
+    private DriverStationPacket packet;
+    private DriverStationPacket.Joystick[] joysticks;
+    private final DatagramPacket datagram = new DatagramPacket(new byte[0], 0);
+    private int step;
+
+    @Setup
+    public void setup() {
+        packet = new DriverStationPacket();
+        joysticks = new DriverStationPacket.Joystick[joystickCount];
+        for (int i = 0; i < joystickCount; i++) {
+            DriverStationPacket.Joystick joystick = new DriverStationPacket.Joystick();
+            joystick.setAxisCount(AXIS_COUNT);
+            joystick.setButtonCount(BUTTON_COUNT);
+            joystick.setPOVHatCount(POV_HAT_COUNT);
+            packet.addJoystick(i, joystick);
+            joysticks[i] = joystick;
+        }
+        // Lay out the packet before measuring
+        packet.toDatagramPacket(datagram);
+    }
+
+    /**
+     * Encodes a packet when none of the controls changed, which is what
+     * happens most of the time.
+     */
+    @Benchmark
+    public int encodeUnchanged() {
+        packet.toDatagramPacket(datagram);
+        return datagram.getLength();
+    }
+
+    /**
+     * Moves one axis of every joystick and encodes a packet.
+     */
+    @Benchmark
+    public int encodeAxisChanged() {
+        float value = (step++ & 1) == 0 ? 0.5f : -0.5f;
+        for (DriverStationPacket.Joystick joystick : joysticks) {
+            joystick.setAxisValue(0, value);
+        }
+        packet.toDatagramPacket(datagram);
+        return datagram.getLength();
+    }
+
+    /**
+     * Changes every button of every joystick and encodes a packet, to measure
+     * packing the buttons into bits.
+     */
+    @Benchmark
+    public int encodeButtonsChanged() {
+        int buttons = step++;
+        for (DriverStationPacket.Joystick joystick : joysticks) {
+            for (int b = 0; b < BUTTON_COUNT; b++) {
+                joystick.setButtonPressed(b, (buttons & (1 << b)) != 0);
+            }
+        }
+        packet.toDatagramPacket(datagram);
+        return datagram.getLength();
+    }
+}
@@ -0,0 +1,84 @@
+package littlebot.robods.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import littlebot.robods.communication.RobotPacket;
+
+/**
+ * Measures decoding packets received from the robot. The packets are copied
+ * from the official driver station captures, one of each length the robot
+ * sends.
+ *
+ * @author Ben Wolsieffer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RobotPacketDecodeBenchmark {
+
+    @Param({"8", "18", "24", "43"})
+    public int packetLength;
+
+    private final RobotPacket packet = new RobotPacket();
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        String hex;
+        switch (packetLength) {
+            case 8:
+                hex = "00040101310c7000";
+                break;
+            case 18:
+                hex = "00150101310c70000904000000000c5ac000";
+                break;
+            case 24:
+                hex = "000b0101310c72000f0e3d33ac1c00000000000000000000";
+                break;
+            case 43:
+                hex = "00100101310c700022050241a4a89600000000000000003d7ea07740e2e23800000000000000003dd28db7";
+                break;
+            default:
+                throw new IllegalArgumentException("No packet of length " + packetLength);
+        }
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        buffer = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Decodes the header and walks the sections, like the driver station does
+     * with each packet.
+     */
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        RobotPacket packet = this.packet.wrap(buffer);
+        blackhole.consume(packet.isValid());
+        blackhole.consume(packet.getIndex());
+        blackhole.consume(packet.getMode());
+        blackhole.consume(packet.isEnabled());
+        blackhole.consume(packet.getBatteryCentivolts());
+        for (int s = packet.firstSection(); s >= 0; s = packet.nextSection(s)) {
+            blackhole.consume(packet.getSectionType(s));
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package littlebot.robods.communication;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Limits how fast joystick axes in a {@link DriverStationPacket} can change.
+ * Instead of setting an axis directly, its target value is given to the
+ * limiter, and every time a packet is about to be sent, {@link #tick(long)}
+ * moves the axis towards its target by at most the rate times the time since
+ * the previous tick. This way the rate depends only on time, not on how often
+ * the target changes.
+ * <p/>
+ * Axes are bound to numbered slots, which can be anything the caller uses to
+ * identify them, such as control handles. Binding must only be done by one
+ * thread at a time, but targets can be set from any thread, as long as each
+ * slot is only set by one thread at a time. Ticking is done by the thread that
+ * sends the packets. Setting targets and ticking do not allocate anything or
+ * wait for each other.
+ *
+ * @author Ben Wolsieffer
+ */
+public class AxisSlewLimiter {
+
+    private static final float NANOS_PER_SECOND = 1e9f;
+
+    /**
+     * The bound axes. These are replaced rather than changed when an axis is
+     * bound or unbound, so the sending thread always sees a consistent set.
+     * The targets are shared by every copy that has the same capacity.
+     */
+    private static class Slots {
+        final DriverStationPacket.Joystick[] joysticks;
+        final int[] axisIndices;
+        /**
+         * The maximum change per second of each axis, or infinity if it is
+         * not limited.
+         */
+        final float[] rates;
+        /**
+         * Changes every time a slot is bound to a different axis, so the
+         * sending thread knows to start again from the current value.
+         */
+        final int[] generations;
+        final AtomicIntegerArray targets;
+
+        Slots(int capacity) {
+            joysticks = new DriverStationPacket.Joystick[capacity];
+            axisIndices = new int[capacity];
+            rates = new float[capacity];
+            generations = new int[capacity];
+            targets = new AtomicIntegerArray(capacity);
+        }
+
+        Slots(Slots slots, int capacity) {
+            if (capacity == slots.joysticks.length) {
+                targets = slots.targets;
+            } else {
+                targets = new AtomicIntegerArray(capacity);
+                for (int i = 0; i < slots.targets.length(); i++) {
+                    targets.set(i, slots.targets.get(i));
+                }
+            }
+            joysticks = new DriverStationPacket.Joystick[capacity];
+            axisIndices = new int[capacity];
+            rates = new float[capacity];
+            generations = new int[capacity];
+            int length = slots.joysticks.length;
+            System.arraycopy(slots.joysticks, 0, joysticks, 0, length);
+            System.arraycopy(slots.axisIndices, 0, axisIndices, 0, length);
+            System.arraycopy(slots.rates, 0, rates, 0, length);
+            System.arraycopy(slots.generations, 0, generations, 0, length);
+        }
+    }
+
+    private volatile Slots slots = new Slots(0);
+    private int generation;
+
+    /*
+     * Only used by the sending thread.
+     */
+    private float[] outputs = new float[0];
+    private int[] outputGenerations = new int[0];
+    private long lastTick;
+    private boolean started;
+
+    /**
+     * Binds a slot to an axis, or changes the rate of the axis it is already
+     * bound to. When a slot is bound to a new axis, the target starts out as
+     * the current value of the axis.
+     *
+     * @param slot the slot
+     * @param joystick the joystick of the axis
+     * @param axisIndex the index of the axis
+     * @param rate the maximum change per second, or zero for no limit, in
+     * which case the axis jumps to its target on the next tick
+     */
+    public void bind(int slot, DriverStationPacket.Joystick joystick, int axisIndex, float rate) {
+        if (slot < 0) {
+            throw new IndexOutOfBoundsException("Invalid slot: " + slot);
+        }
+        if (joystick == null) {
+            throw new IllegalArgumentException("Joystick must not be null");
+        }
+        if (axisIndex < 0) {
+            throw new IllegalArgumentException("Invalid axis index: " + axisIndex);
+        }
+        if (rate < 0 || Float.isNaN(rate)) {
+            throw new IllegalArgumentException("Rate must not be negative, was given: " + rate);
+        }
+        Slots oldSlots = slots;
+        Slots newSlots = new Slots(oldSlots, Math.max(slot + 1, oldSlots.joysticks.length));
+        if (newSlots.joysticks[slot] != joystick || newSlots.axisIndices[slot] != axisIndex) {
+            newSlots.joysticks[slot] = joystick;
+            newSlots.axisIndices[slot] = axisIndex;
+            newSlots.generations[slot] = ++generation;
+            newSlots.targets.set(slot, Float.floatToRawIntBits(joystick.getAxisValue(axisIndex)));
+        }
+        newSlots.rates[slot] = rate > 0 ? rate : Float.POSITIVE_INFINITY;
+        slots = newSlots;
+    }
+
+    /**
+     * Stops limiting the axis bound to a slot. The axis keeps the value it
+     * had on the last tick.
+     *
+     * @param slot the slot
+     */
+    public void unbind(int slot) {
+        if (isBound(slot)) {
+            Slots newSlots = new Slots(slots, slots.joysticks.length);
+            newSlots.joysticks[slot] = null;
+            slots = newSlots;
+        }
+    }
+
+    /**
+     * Checks whether a slot is bound to an axis, in which case its value must
+     * be set with {@link #setTarget(int, float)}.
+     *
+     * @param slot the slot
+     * @return true if the slot is bound
+     */
+    public boolean isBound(int slot) {
+        DriverStationPacket.Joystick[] joysticks = slots.joysticks;
+        return slot >= 0 && slot < joysticks.length && joysticks[slot] != null;
+    }
+
+    /**
+     * Sets the value that the axis bound to a slot should move towards.
+     *
+     * @param slot the slot
+     * @param value the target value
+     * @throws IllegalArgumentException if the slot is not bound
+     */
+    public void setTarget(int slot, float value) {
+        if (!isBound(slot)) {
+            throw new IllegalArgumentException("Slot " + slot + " is not bound");
+        }
+        int bits = Float.floatToRawIntBits(value);
+        Slots current = slots;
+        current.targets.set(slot, bits);
+        // If the slots were grown while this was being set, the target might
+        // have been copied before it was changed, so set it again
+        Slots newSlots;
+        while ((newSlots = slots) != current) {
+            current = newSlots;
+            current.targets.set(slot, bits);
+        }
+    }
+
+    /**
+     * Gets the value that the axis bound to a slot is moving towards.
+     *
+     * @param slot the slot
+     * @return the target value
+     * @throws IllegalArgumentException if the slot is not bound
+     */
+    public float getTarget(int slot) {
+        if (!isBound(slot)) {
+            throw new IllegalArgumentException("Slot " + slot + " is not bound");
+        }
+        return Float.intBitsToFloat(slots.targets.get(slot));
+    }
+
+    /**
+     * Starts measuring time again, so the first tick after this does not move
+     * anything that is limited. This must be called from the sending thread,
+     * or before it starts.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     */
+    public void start(long now) {
+        lastTick = now;
+        started = true;
+    }
+
+    /**
+     * Moves every bound axis towards its target. This must be called from the
+     * sending thread right before the packet is encoded.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     * @return true if any axis was changed
+     */
+    public boolean tick(long now) {
+        Slots slots = this.slots;
+        int length = slots.joysticks.length;
+        if (outputs.length < length) {
+            float[] newOutputs = new float[length];
+            System.arraycopy(outputs, 0, newOutputs, 0, outputs.length);
+            outputs = newOutputs;
+            int[] newOutputGenerations = new int[length];
+            System.arraycopy(outputGenerations, 0, newOutputGenerations, 0, outputGenerations.length);
+            outputGenerations = newOutputGenerations;
+        }
+        float elapsed = started ? (now - lastTick) / NANOS_PER_SECOND : 0;
+        lastTick = now;
+        started = true;
+
+        boolean changed = false;
+        for (int slot = 0; slot < length; slot++) {
+            DriverStationPacket.Joystick joystick = slots.joysticks[slot];
+            if (joystick == null) {
+                continue;
+            }
+            int axisIndex = slots.axisIndices[slot];
+            try {
+                float output;
+                if (outputGenerations[slot] != slots.generations[slot]) {
+                    // Newly bound, so start from what is already being sent
+                    outputGenerations[slot] = slots.generations[slot];
+                    output = joystick.getAxisValue(axisIndex);
+                } else {
+                    output = outputs[slot];
+                }
+                float target = Float.intBitsToFloat(slots.targets.get(slot));
+                if (output != target) {
+                    // An unlimited axis has an infinite step, which is NaN on
+                    // the first tick, but either way it fails the comparisons
+                    // and jumps to the target
+                    float maxStep = slots.rates[slot] * elapsed;
+                    if (target > output) {
+                        output = target - output > maxStep ? output + maxStep : target;
+                    } else {
+                        output = output - target > maxStep ? output - maxStep : target;
+                    }
+                    joystick.setAxisValue(axisIndex, output);
+                    changed = true;
+                }
+                outputs[slot] = output;
+            } catch (IndexOutOfBoundsException e) {
+                // The axis was removed from the joystick after this tick read
+                // the slots, and the slot is about to be unbound
+            }
+        }
+        return changed;
+    }
+}
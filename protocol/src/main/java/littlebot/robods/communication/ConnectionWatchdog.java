@@ -0,0 +1,147 @@
+package littlebot.robods.communication;
+
+/**
+ * Decides whether the robot is connected by counting the packets it failed to
+ * reply to. The robot replies to every packet, so once a number of packets in
+ * a row have gone unanswered, the connection is considered lost, which is
+ * much faster than waiting for a receive timeout. To avoid flickering
+ * between connected and disconnected on a bad link, the connection is only
+ * considered established again after several replies arrive without the
+ * connection being lost in between.
+ * <p/>
+ * This can be used from separate sending and receiving threads.
+ *
+ * @author Ben Wolsieffer
+ */
+public class ConnectionWatchdog {
+
+    /**
+     * What changed after a packet was sent or received.
+     */
+    public enum Event {
+        NONE,
+        CONNECTED,
+        CONNECTION_LOST
+    }
+
+    private int maxMissedPackets;
+    private int recoveryPackets;
+
+    private boolean connected;
+    /**
+     * The number of packets sent since the last reply.
+     */
+    private int missedPackets;
+    /**
+     * The number of replies received while not connected.
+     */
+    private int receivedPackets;
+
+    /**
+     * Creates a new watchdog.
+     *
+     * @param maxMissedPackets the number of packets in a row that can go
+     * unanswered before the connection is lost
+     * @param recoveryPackets the number of replies needed to connect
+     */
+    public ConnectionWatchdog(int maxMissedPackets, int recoveryPackets) {
+        setMaxMissedPackets(maxMissedPackets);
+        setRecoveryPackets(recoveryPackets);
+    }
+
+    /**
+     * Records that a regular packet was sent to the robot. Extra packets sent
+     * between the regular ones should not be recorded, so that the number of
+     * missed packets corresponds to a fixed amount of time.
+     *
+     * @return {@link Event#CONNECTION_LOST} if too many packets have now gone
+     * unanswered, otherwise {@link Event#NONE}
+     */
+    public synchronized Event packetSent() {
+        // Replies to the previous packet should have arrived by now
+        if (missedPackets < Integer.MAX_VALUE) {
+            missedPackets++;
+        }
+        if (missedPackets > maxMissedPackets) {
+            receivedPackets = 0;
+            if (connected) {
+                connected = false;
+                return Event.CONNECTION_LOST;
+            }
+        }
+        return Event.NONE;
+    }
+
+    /**
+     * Records that a packet was received from the robot.
+     *
+     * @return {@link Event#CONNECTED} if enough replies have now been received
+     * to connect, otherwise {@link Event#NONE}
+     */
+    public synchronized Event packetReceived() {
+        missedPackets = 0;
+        if (!connected && ++receivedPackets >= recoveryPackets) {
+            connected = true;
+            return Event.CONNECTED;
+        }
+        return Event.NONE;
+    }
+
+    /**
+     * Goes back to the disconnected state, for example when the connection is
+     * lost some other way.
+     */
+    public synchronized void reset() {
+        connected = false;
+        missedPackets = 0;
+        receivedPackets = 0;
+    }
+
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Gets the number of packets sent since the last reply was received.
+     *
+     * @return the number of missed packets
+     */
+    public synchronized int getMissedPackets() {
+        return missedPackets;
+    }
+
+    /**
+     * Sets the number of packets in a row that can go unanswered before the
+     * connection is lost. The packet that was just sent is not counted,
+     * because its reply may still be on its way.
+     *
+     * @param maxMissedPackets the number of packets
+     */
+    public synchronized void setMaxMissedPackets(int maxMissedPackets) {
+        if (maxMissedPackets < 1) {
+            throw new IllegalArgumentException("Max missed packets must be positive, was given: " + maxMissedPackets);
+        }
+        this.maxMissedPackets = maxMissedPackets;
+    }
+
+    public synchronized int getMaxMissedPackets() {
+        return maxMissedPackets;
+    }
+
+    /**
+     * Sets the number of replies that must be received without the connection
+     * being lost before the robot is considered connected.
+     *
+     * @param recoveryPackets the number of packets
+     */
+    public synchronized void setRecoveryPackets(int recoveryPackets) {
+        if (recoveryPackets < 1) {
+            throw new IllegalArgumentException("Recovery packets must be positive, was given: " + recoveryPackets);
+        }
+        this.recoveryPackets = recoveryPackets;
+    }
+
+    public synchronized int getRecoveryPackets() {
+        return recoveryPackets;
+    }
+}
@@ -2,22 +2,30 @@ package littlebot.robods.communication;
 
 import java.net.DatagramPacket;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents data that can be sent from the driver station to the robot.
  * Designed to be used with {@link DatagramPacket}s via the {@link
- * #toDatagramPacket(DatagramPacket)} method. This class is not thread safe and
- * is designed ot be interacted with from the UI thread of an application.
+ * #toDatagramPacket(DatagramPacket)} method. The state of the packet can be
+ * changed from any thread, and changes never wait for the packet to be sent or
+ * the other way around. Adding and removing joysticks should only be done from
+ * one thread, such as the UI thread of an application.
  *
  * @author Ben Wolsieffer
  * @see DatagramPacket
  */
 public class DriverStationPacket extends FRCPacket {
 
+    /**
+     * The largest packet that can be sent without fragmentation on Ethernet.
+     */
+    public static final int MAX_LENGTH = 1472;
+
     public enum Mode {
         TELEOPERATED(0x0),
         AUTONOMOUS(0x2),
@@ -45,9 +53,22 @@ public class DriverStationPacket extends FRCPacket {
 
         private static final int MIN_DATA_LENGTH = 3;
 
-        private final ArrayList<Float> axes = new ArrayList<>();
-        private final ArrayList<Boolean> buttons = new ArrayList<>();
-        private final ArrayList<Integer> povHats = new ArrayList<>();
+        /**
+         * Axis values, already quantized to the signed bytes that are sent to
+         * the robot.
+         */
+        private byte[] axes = new byte[0];
+        /**
+         * Button states packed 8 per byte, starting with the first 8 buttons
+         * in the first byte. The robot expects a big endian bit field, so the
+         * bytes are sent in reverse order.
+         */
+        private byte[] buttons = new byte[0];
+        private short[] povHats = new short[0];
+
+        private int axisCount;
+        private int buttonCount;
+        private int povHatCount;
 
         private final boolean real;
 
@@ -73,9 +94,13 @@ public class DriverStationPacket extends FRCPacket {
          * @return the axis count
          */
         public int getAxisCount() {
-            synchronized (axes) {
-                return axes.size();
-            }
+            int seq;
+            int count;
+            do {
+                seq = beginRead();
+                count = axisCount;
+            } while (!validateRead(seq));
+            return count;
         }
 
         /**
@@ -84,23 +109,45 @@ public class DriverStationPacket extends FRCPacket {
          * @param count the number of axes the joystick should have
          */
         public void setAxisCount(int count) {
-            synchronized (axes) {
-                resizeList(axes, count, 0.0f);
-                updateDataLength();
+            int seq = beginWrite();
+            boolean changed = false;
+            try {
+                if (count != axisCount) {
+                    if (count > axes.length) {
+                        axes = Arrays.copyOf(axes, count);
+                    }
+                    // Clear axes that are no longer used so they start at 0 if
+                    // they are added back
+                    for (int i = count; i < axisCount; i++) {
+                        axes[i] = 0;
+                    }
+                    axisCount = count;
+                    updateDataLength();
+                    changed = true;
+                }
+            } finally {
+                endWrite(seq, changed);
             }
         }
 
         /**
          * Gets the value of the axis at the specified index. The value will be
-         * between -1.0 and 1.0.
+         * between -1.0 and 1.0. Axes are stored in the form they are sent to
+         * the robot, so this value has the same precision as the robot sees.
          *
          * @param index the index of the axis
          * @return the value of the axis
          */
         public float getAxisValue(int index) {
-            synchronized (axes) {
-                return axes.get(index);
-            }
+            int seq;
+            byte axis;
+            do {
+                seq = beginRead();
+                byte[] axes = this.axes;
+                axis = index < axes.length ? axes[index] : 0;
+            } while (!validateRead(seq));
+            checkIndex(index, getAxisCount());
+            return axis > 0 ? axis / 127.0f : axis / 128.0f;
         }
 
         /**
@@ -114,8 +161,17 @@ public class DriverStationPacket extends FRCPacket {
          */
         public void setAxisValue(int index, float value) {
             if (value <= 1.0 && value >= -1.0) {
-                synchronized (axes) {
-                    axes.set(index, value);
+                byte byteValue = quantizeAxis(value);
+                int seq = beginWrite();
+                boolean changed = false;
+                try {
+                    checkIndex(index, axisCount);
+                    if (axes[index] != byteValue) {
+                        axes[index] = byteValue;
+                        changed = true;
+                    }
+                } finally {
+                    endWrite(seq, changed);
                 }
             } else {
                 throw new IllegalArgumentException("Value must be between -1.0  and 1.0");
@@ -128,20 +184,39 @@ public class DriverStationPacket extends FRCPacket {
          * @return the button count
          */
         public int getButtonCount() {
-            synchronized (buttons) {
-                return buttons.size();
-            }
+            int seq;
+            int count;
+            do {
+                seq = beginRead();
+                count = buttonCount;
+            } while (!validateRead(seq));
+            return count;
         }
 
         /**
-         * Gets the number of buttons that this joystick has.
+         * Sets the number of buttons that this joystick has.
          *
-         * @return the button count
+         * @param count the button count
          */
         public void setButtonCount(int count) {
-            synchronized (buttons) {
-                resizeList(buttons, count, false);
-                updateDataLength();
+            int seq = beginWrite();
+            boolean changed = false;
+            try {
+                if (count != buttonCount) {
+                    int byteCount = getButtonBytes(count);
+                    if (byteCount > buttons.length) {
+                        buttons = Arrays.copyOf(buttons, byteCount);
+                    }
+                    // Release buttons that are no longer used
+                    for (int i = count; i < buttonCount; i++) {
+                        buttons[i >> 3] &= ~(1 << (i & 7));
+                    }
+                    buttonCount = count;
+                    updateDataLength();
+                    changed = true;
+                }
+            } finally {
+                endWrite(seq, changed);
             }
         }
 
@@ -152,9 +227,15 @@ public class DriverStationPacket extends FRCPacket {
          * @return true if the button is pressed
          */
         public boolean isButtonPressed(int index) {
-            synchronized (buttons) {
-                return buttons.get(index);
-            }
+            int seq;
+            byte buttonByte;
+            do {
+                seq = beginRead();
+                byte[] buttons = this.buttons;
+                buttonByte = (index >> 3) < buttons.length ? buttons[index >> 3] : 0;
+            } while (!validateRead(seq));
+            checkIndex(index, getButtonCount());
+            return (buttonByte & (1 << (index & 7))) != 0;
         }
 
         /**
@@ -164,8 +245,22 @@ public class DriverStationPacket extends FRCPacket {
          * @param pressed if the button is pressed
          */
         public void setButtonPressed(int index, boolean pressed) {
-            synchronized (buttons) {
-                buttons.set(index, pressed);
+            int seq = beginWrite();
+            boolean changed = false;
+            try {
+                checkIndex(index, buttonCount);
+                int buttonByte = buttons[index >> 3];
+                if (pressed) {
+                    buttonByte |= 1 << (index & 7);
+                } else {
+                    buttonByte &= ~(1 << (index & 7));
+                }
+                if (buttons[index >> 3] != (byte) buttonByte) {
+                    buttons[index >> 3] = (byte) buttonByte;
+                    changed = true;
+                }
+            } finally {
+                endWrite(seq, changed);
             }
         }
 
@@ -175,9 +270,13 @@ public class DriverStationPacket extends FRCPacket {
          * @return the POV hat count
          */
         public int getPOVHatCount() {
-            synchronized (povHats) {
-                return povHats.size();
-            }
+            int seq;
+            int count;
+            do {
+                seq = beginRead();
+                count = povHatCount;
+            } while (!validateRead(seq));
+            return count;
         }
 
         /**
@@ -186,9 +285,22 @@ public class DriverStationPacket extends FRCPacket {
          * @param count the POV hat count
          */
         public void setPOVHatCount(int count) {
-            synchronized (povHats) {
-                resizeList(povHats, count, 0);
-                updateDataLength();
+            int seq = beginWrite();
+            boolean changed = false;
+            try {
+                if (count != povHatCount) {
+                    if (count > povHats.length) {
+                        povHats = Arrays.copyOf(povHats, count);
+                    }
+                    for (int i = count; i < povHatCount; i++) {
+                        povHats[i] = 0;
+                    }
+                    povHatCount = count;
+                    updateDataLength();
+                    changed = true;
+                }
+            } finally {
+                endWrite(seq, changed);
             }
         }
 
@@ -200,9 +312,15 @@ public class DriverStationPacket extends FRCPacket {
          * @return the angle of the POV hat
          */
         public int getPOVHatAngle(int index) {
-            synchronized (povHats) {
-                return povHats.get(index);
-            }
+            int seq;
+            short angle;
+            do {
+                seq = beginRead();
+                short[] povHats = this.povHats;
+                angle = index < povHats.length ? povHats[index] : 0;
+            } while (!validateRead(seq));
+            checkIndex(index, getPOVHatCount());
+            return angle;
         }
 
         /**
@@ -213,8 +331,16 @@ public class DriverStationPacket extends FRCPacket {
          * @param angle the angle of the POV hat
          */
         public void setPOVHatAngle(int index, int angle) {
-            synchronized (povHats) {
-                povHats.set(index, angle);
+            int seq = beginWrite();
+            boolean changed = false;
+            try {
+                checkIndex(index, povHatCount);
+                if (povHats[index] != (short) angle) {
+                    povHats[index] = (short) angle;
+                    changed = true;
+                }
+            } finally {
+                endWrite(seq, changed);
             }
         }
 
@@ -224,43 +350,42 @@ public class DriverStationPacket extends FRCPacket {
          * @return true if the joystick has no axes, buttons, or POV hats
          */
         public boolean isEmpty() {
-            boolean axesEmpty;
-            synchronized (axes) {
-                axesEmpty = axes.size() == 0;
-            }
-            boolean buttonsEmpty;
-            synchronized (buttons) {
-                buttonsEmpty = buttons.size() == 0;
-            }
-            boolean povHatsEmpty;
-            synchronized (povHats) {
-                povHatsEmpty = povHats.size() == 0;
-            }
-            return axesEmpty && buttonsEmpty && povHatsEmpty;
+            int seq;
+            boolean empty;
+            do {
+                seq = beginRead();
+                empty = axisCount == 0 && buttonCount == 0 && povHatCount == 0;
+            } while (!validateRead(seq));
+            return empty;
         }
 
         /**
-         * Gets the number of bytes necessary to write the buttons.
+         * Gets the number of bytes necessary to write the specified number of
+         * buttons.
          *
+         * @param buttonCount the number of buttons
          * @return the number of bytes for the buttons
          */
-        private int getButtonBytes() {
-            int numButtons = getButtonCount();
+        private static int getButtonBytes(int buttonCount) {
             // 8 buttons per byte
-            return ((numButtons % 8) == 0) ? (numButtons / 8) : (numButtons / 8 + 1);
+            return (buttonCount + 7) >> 3;
         }
 
         /**
-         * Updates the length of the section to hold the axes and buttons.
+         * Updates the length of the section to hold the axes and buttons. Must
+         * be called while writing.
          */
         private void updateDataLength() {
             // 3 extra bytes are necessary to store the button, axis and pov hat
             // counts
-            setDataLength(MIN_DATA_LENGTH + getAxisCount() + getButtonBytes() + (getPOVHatCount() * 2));
+            writeDataLength(MIN_DATA_LENGTH + axisCount + getButtonBytes(buttonCount) + (povHatCount * 2));
         }
 
         /**
-         * Write the joystick and axis data to the packet.
+         * Write the joystick and axis data to the packet. This reads the state
+         * without locking, so it may be in the middle of changing. In that case
+         * nothing is written if the counts do not fit the section, and the
+         * packet discards the result anyway.
          *
          * @param data the array to write to
          * @param offset the start of the data in the array
@@ -268,58 +393,60 @@ public class DriverStationPacket extends FRCPacket {
          */
         @Override
         public void updateData(byte[] data, int offset, int length) {
-            synchronized (axes) {
-                // Axes
-                int axisCount = getAxisCount();
-                // Axis count byte
-                data[offset++] = (byte) axisCount;
-                // Loop through each axis and write its value
-                for (int i = 0; i < axisCount; i++) {
-                    float axis = axes.get(i);
-                    byte byteValue;
-                    if (axis > 0) {
-                        byteValue = (byte) (axis * 127);
-                    } else {
-                        byteValue = (byte) (axis * 128);
-                    }
-                    data[offset + i] = byteValue;
-                }
-                offset += axisCount;
+            byte[] axes = this.axes;
+            byte[] buttons = this.buttons;
+            short[] povHats = this.povHats;
+            int axisCount = this.axisCount;
+            int buttonCount = this.buttonCount;
+            int povHatCount = this.povHatCount;
+            int buttonBytes = getButtonBytes(buttonCount);
+
+            if (MIN_DATA_LENGTH + axisCount + buttonBytes + povHatCount * 2 != length
+                    || axisCount > axes.length || buttonBytes > buttons.length
+                    || povHatCount > povHats.length) {
+                // Inconsistent state, so the section is being changed
+                return;
             }
-            synchronized (buttons) {
-                // Buttons
-                int buttonBytes = getButtonBytes();
-                // Button count byte
-                int buttonCount = getButtonCount();
-                data[offset++] = (byte) buttonCount;
-                int b = 0;
-                for (int i = 0; i < buttonBytes; i++) {
-                    // Each byte contains up to 8 buttons
-                    byte buttonByte = 0;
-                    for (int k = 0; k < 8; k++) {
-                        if (b < buttonCount) {
-                            if (buttons.get(b++)) {
-                                buttonByte |= (byte) 1 << k;
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                    data[offset + i] = buttonByte;
-                }
-                offset += buttonBytes;
+
+            // Axes, which are already quantized
+            data[offset++] = (byte) axisCount;
+            System.arraycopy(axes, 0, data, offset, axisCount);
+            offset += axisCount;
+
+            // Buttons, which are already packed 8 per byte, with the last byte
+            // first
+            data[offset++] = (byte) buttonCount;
+            for (int i = buttonBytes - 1; i >= 0; i--) {
+                data[offset++] = buttons[i];
             }
-            synchronized (povHats) {
-                // POV Hats
-                int povHatCount = getPOVHatCount();
-
-                data[offset++] = (byte) povHatCount;
-                for (int i = 0; i < povHatCount; i++) {
-                    int angle = povHats.get(i);
-                    int povStart = offset + (2 * i);
-                    data[povStart] = (byte) (angle >> 8);
-                    data[povStart + 1] = (byte) angle;
-                }
+
+            // POV Hats
+            data[offset++] = (byte) povHatCount;
+            for (int i = 0; i < povHatCount; i++) {
+                short angle = povHats[i];
+                data[offset++] = (byte) (angle >> 8);
+                data[offset++] = (byte) angle;
+            }
+        }
+
+        /**
+         * Converts an axis value between -1.0 and 1.0 to the signed byte that
+         * is sent to the robot.
+         *
+         * @param value the axis value
+         * @return the quantized value
+         */
+        public static byte quantizeAxis(float value) {
+            if (value > 0) {
+                return (byte) (value * 127);
+            } else {
+                return (byte) (value * 128);
+            }
+        }
+
+        private static void checkIndex(int index, int count) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + count);
             }
         }
     }
@@ -497,12 +624,26 @@ public class DriverStationPacket extends FRCPacket {
         }
     }
 
+    private static final int MODE_MASK = 0x3;
+    private static final int ENABLED = 0x4;
+    private static final int EMERGENCY_STOPPED = 0x8;
+    private static final int ALLIANCE_SHIFT = 4;
+    private static final int ALLIANCE_MASK = 0x1 << ALLIANCE_SHIFT;
+    private static final int POSITION_SHIFT = 5;
+    private static final int POSITION_MASK = 0x3 << POSITION_SHIFT;
+    private static final int CONNECTED = 0x80;
+
+    private static final Mode[] MODES = Mode.values();
+    private static final Alliance[] ALLIANCES = Alliance.values();
+
     private final ArrayList<Joystick> joysticks = new ArrayList<>();
-    private Mode mode = Mode.TELEOPERATED;
-    private boolean enabled = false;
-    private boolean emergencyStopped = false;
-    private Alliance alliance = Alliance.BLUE;
-    private int position = 1;
+    /**
+     * The mode, enabled, emergency stopped and connected flags, alliance and
+     * position, packed into one value so they can be changed and read
+     * atomically. The mode and alliance are stored as ordinals.
+     */
+    private final AtomicInteger state = new AtomicInteger(
+            (Mode.TELEOPERATED.ordinal()) | (Alliance.BLUE.ordinal() << ALLIANCE_SHIFT) | (1 << POSITION_SHIFT));
 
     /**
      * Create a new packet to send from the driver station to the robot.
@@ -511,56 +652,91 @@ public class DriverStationPacket extends FRCPacket {
         super(4);
     }
 
+    /**
+     * Atomically changes part of the packed state.
+     *
+     * @param mask the bits to change
+     * @param value the new value of those bits
+     */
+    private void updateState(int mask, int value) {
+        int oldState;
+        do {
+            oldState = state.get();
+        } while (!state.compareAndSet(oldState, (oldState & ~mask) | (value & mask)));
+    }
+
     public void setMode(Mode mode) {
-        this.mode = mode;
+        updateState(MODE_MASK, mode.ordinal());
     }
 
     public Mode getMode() {
-        return mode;
+        return MODES[state.get() & MODE_MASK];
     }
 
     public void setEnabled(boolean enabled) {
-        if (!emergencyStopped) {
-            this.enabled = enabled;
-        }
+        int oldState;
+        int newState;
+        do {
+            oldState = state.get();
+            if ((oldState & EMERGENCY_STOPPED) != 0) {
+                return;
+            }
+            newState = enabled ? oldState | ENABLED : oldState & ~ENABLED;
+        } while (!state.compareAndSet(oldState, newState));
     }
 
     public boolean isEnabled() {
-        return enabled;
+        return (state.get() & ENABLED) != 0;
     }
 
     public void setEmergencyStopped(boolean emergencyStopped) {
-        this.emergencyStopped = emergencyStopped;
-        enabled = false;
+        updateState(EMERGENCY_STOPPED | ENABLED, emergencyStopped ? EMERGENCY_STOPPED : 0);
     }
 
     public boolean isEmergencyStopped() {
-        return emergencyStopped;
+        return (state.get() & EMERGENCY_STOPPED) != 0;
+    }
+
+    /**
+     * Sets whether the driver station is receiving replies from the robot. The
+     * official driver station reports this in every packet.
+     *
+     * @param connected true if the robot is connected
+     */
+    public void setConnected(boolean connected) {
+        updateState(CONNECTED, connected ? CONNECTED : 0);
+    }
+
+    public boolean isConnected() {
+        return (state.get() & CONNECTED) != 0;
     }
 
     public void setAlliance(Alliance alliance) {
-        this.alliance = alliance;
+        updateState(ALLIANCE_MASK, alliance.ordinal() << ALLIANCE_SHIFT);
     }
 
     public Alliance getAlliance() {
-        return alliance;
+        return ALLIANCES[(state.get() & ALLIANCE_MASK) >> ALLIANCE_SHIFT];
     }
 
     public void setPosition(int position) {
         if (position >= 1 && position <= 3) {
-            this.position = position;
+            updateState(POSITION_MASK, position << POSITION_SHIFT);
         } else {
             throw new IllegalArgumentException("Position must be 1, 2 or 3, was given:" + position);
         }
     }
 
     public int getPosition() {
-        return position;
+        return (state.get() & POSITION_MASK) >> POSITION_SHIFT;
     }
 
     /**
-     * Add a joystick to the packet.
+     * Add a joystick to the packet. The joystick's section is placed at the
+     * same index as the joystick, so empty placeholder joysticks are added to
+     * fill any gaps.
      *
+     * @param index the index of the joystick
      * @param joystick the joystick
      * @throws IllegalArgumentException if the joystick has already been added
      */
@@ -568,7 +744,7 @@ public class DriverStationPacket extends FRCPacket {
         if (index < joysticks.size()) {
             if (!joysticks.get(index).isReal()) {
                 joysticks.set(index, joystick);
-                removeSection(index);
+                setSection(index, joystick);
             } else {
                 throw new IllegalArgumentException("This packet already contains a joystick at index " + index);
             }
@@ -579,8 +755,8 @@ public class DriverStationPacket extends FRCPacket {
                 joysticks.add(i, fakeJoystick);
             }
             joysticks.add(index, joystick);
+            addSection(index, joystick);
         }
-        addSection(index, joystick);
     }
 
     /**
@@ -589,15 +765,17 @@ public class DriverStationPacket extends FRCPacket {
      * @param joystick the joystick to remove
      */
     public void removeJoystick(Joystick joystick) {
-        removeSection(joystick);
-
         int index = joysticks.indexOf(joystick);
         if (index == -1) {
             throw new IllegalArgumentException("Joystick was not added to this packet.");
         } else if (index == joysticks.size() - 1) {
-            joysticks.remove(joystick);
+            joysticks.remove(index);
+            removeSection(index);
         } else {
-            joysticks.set(index, new Joystick(false));
+            // Keep the following joysticks at the same index
+            Joystick fakeJoystick = new Joystick(false);
+            joysticks.set(index, fakeJoystick);
+            setSection(index, fakeJoystick);
         }
     }
 
@@ -629,44 +807,20 @@ public class DriverStationPacket extends FRCPacket {
      */
     @Override
     public void updateBody(byte[] data, int offset, int length) {
+        // Read the state once so the body is consistent
+        int state = this.state.get();
         data[offset++] = 0x01; // Unknown
-        data[offset] = 0;
-        data[offset] = (byte) mode.value;
-        if (emergencyStopped) {
-            data[offset] |= 0x80;
-        } else {
-            if (enabled) {
-                data[offset] |= 0x4;
-            }
-        }
-        offset++;
-        data[offset++] = 0x10; // Unknown
-        data[offset] = (byte) (alliance.value + position);
-    }
-
-    /**
-     * Resizes a {@link List} while inserting the specified value for all new
-     * elements.
-     *
-     * @param list the list to resize
-     * @param size the new size of the list
-     * @param defaultValue the value to add when new elements have to be
-     * created
-     * @param <T> the type of the list contents
-     */
-    private static <T> void resizeList(List<T> list, int size, T defaultValue) {
-        int currentSize = list.size();
-        if (size > currentSize) {
-            if (list instanceof ArrayList) {
-                ((ArrayList<T>) list).ensureCapacity(size);
-            }
-            for (int i = currentSize; i < size; i++) {
-                list.add(defaultValue);
-            }
-        } else if (size < currentSize) {
-            for (int i = currentSize - 1; i >= size; i--) {
-                list.remove(i);
-            }
-        }
+        int flags = MODES[state & MODE_MASK].value;
+        if ((state & EMERGENCY_STOPPED) != 0) {
+            flags |= 0x80;
+        } else if ((state & ENABLED) != 0) {
+            flags |= 0x4;
+        }
+        data[offset++] = (byte) flags;
+        // Unknown meaning, but the official driver station only sends 0x10
+        // once the robot replies
+        data[offset++] = (byte) ((state & CONNECTED) != 0 ? 0x10 : 0x00);
+        int position = (state & POSITION_MASK) >> POSITION_SHIFT;
+        data[offset] = (byte) (ALLIANCES[(state & ALLIANCE_MASK) >> ALLIANCE_SHIFT].value + position);
     }
-}
\ No newline at end of file
+}
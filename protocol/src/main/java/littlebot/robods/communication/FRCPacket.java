@@ -0,0 +1,614 @@
+package littlebot.robods.communication;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides methods for interacting with common elements of both packet types.
+ * Also provides the ability to set up a {@link DatagramPacket} or {@link
+ * ByteBuffer} for transmission.
+ * <p/>
+ * Sections are protected by sequence locks rather than monitors. Threads that
+ * change a section never wait for the packet to be encoded, and encoding never
+ * waits for a change to finish. Instead, the packet is encoded into a back
+ * buffer and then checked to make sure that no section changed while it was
+ * being written. If one did, the encoding is retried, and if that keeps
+ * failing the last consistent packet is sent again. A packet therefore never
+ * contains a half updated section.
+ *
+ * @author Ben Wolsieffer
+ */
+public abstract class FRCPacket {
+
+    public static abstract class Section {
+
+        public static int HEADER_LENGTH = 2;
+
+        /**
+         * Sequence lock for the data of this section. It is odd while the
+         * section is being changed, and increases by two every time a change
+         * finishes. It also serves as the version of the data, so unchanged
+         * sections do not need to be written again.
+         */
+        private final AtomicInteger sequence = new AtomicInteger();
+        /**
+         * The total length of this section. This includes the length and
+         * section type bytes.
+         */
+        private int length = 0;
+        /**
+         * The type of this section.
+         */
+        private final byte type;
+        /**
+         * Whether this section should continue to be part of the packet through
+         * multiple calls of {@link FRCPacket#toDatagramPacket(DatagramPacket)}.
+         * If false, the section is removed after it has been sent once.
+         */
+        private final boolean persistent;
+
+        /**
+         * Creates a new section with the specified data length, type and
+         * persistence value.
+         *
+         * @param dataLength the length of the data (not including length or
+         * type bytes)
+         * @param type the type identifier for this section
+         * @param persistent whether the section should persist over multiple
+         * packet update cycles or only one
+         */
+        public Section(int dataLength, int type, boolean persistent) {
+            writeDataLength(dataLength);
+            this.type = (byte) type;
+            this.persistent = persistent;
+        }
+
+        /**
+         * Sets the length of the data in this section. This does not effect the
+         * data array until the next time the packet is updated. Subclasses
+         * that are already inside a {@link #beginWrite()} block must use
+         * {@link #writeDataLength(int)} instead.
+         *
+         * @param dataLength the length of the data (not including length or
+         * type bytes)
+         */
+        public void setDataLength(int dataLength) {
+            int seq = beginWrite();
+            boolean changed = false;
+            try {
+                changed = writeDataLength(dataLength);
+            } finally {
+                endWrite(seq, changed);
+            }
+        }
+
+        /**
+         * Sets the length of the data in this section. This must only be called
+         * between {@link #beginWrite()} and {@link #endWrite(int, boolean)},
+         * or before the section is added to a packet.
+         *
+         * @param dataLength the length of the data (not including length or
+         * type bytes)
+         * @return true if the length changed
+         */
+        protected final boolean writeDataLength(int dataLength) {
+            // The total length includes the length and type bytes
+            int newLength = dataLength + HEADER_LENGTH;
+            if (newLength != length) {
+                length = newLength;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Gets the length of the data in this section.
+         *
+         * @return the length of the data
+         */
+        public int getDataLength() {
+            int seq;
+            int length;
+            do {
+                seq = beginRead();
+                length = this.length;
+            } while (!validateRead(seq));
+            return length - HEADER_LENGTH;
+        }
+
+        /**
+         * Starts changing the data of this section. Every change to something
+         * that {@link #updateData(byte[], int, int)} writes must happen
+         * between this and a call to {@link #endWrite(int, boolean)}, which
+         * should be in a finally block. Only other writers wait for this; the
+         * thread that sends the packet never does.
+         *
+         * @return the sequence number to pass to {@link #endWrite(int,
+         * boolean)}
+         */
+        protected final int beginWrite() {
+            while (true) {
+                int seq = sequence.get();
+                if ((seq & 1) == 0 && sequence.compareAndSet(seq, seq + 1)) {
+                    return seq;
+                }
+            }
+        }
+
+        /**
+         * Finishes changing the data of this section.
+         *
+         * @param seq the value returned by {@link #beginWrite()}
+         * @param changed whether the data actually changed. If not, the section
+         * does not need to be written to the packet again.
+         */
+        protected final void endWrite(int seq, boolean changed) {
+            // Going back to the old sequence is safe if nothing changed,
+            // because anything that was read during the write is still valid
+            sequence.set(changed ? seq + 2 : seq);
+        }
+
+        /**
+         * Starts reading the data of this section from a thread other than the
+         * one that sends the packet. This waits for any change in progress to
+         * finish.
+         *
+         * @return the sequence number to pass to {@link #validateRead(int)}
+         */
+        protected final int beginRead() {
+            int seq;
+            while (((seq = sequence.get()) & 1) != 0) {
+                Thread.yield();
+            }
+            return seq;
+        }
+
+        /**
+         * Checks whether the data read since {@link #beginRead()} is
+         * consistent. If not, it must be read again.
+         *
+         * @param seq the value returned by {@link #beginRead()}
+         * @return true if the section did not change while it was read
+         */
+        protected final boolean validateRead(int seq) {
+            // compareAndSet() acts as a full memory barrier, which makes sure
+            // the data reads are not reordered after the sequence check
+            return sequence.compareAndSet(seq, seq);
+        }
+
+        /**
+         * Update the data of this section. Subclasses must update every byte of
+         * their section of the array. This is only called when the section has
+         * moved or changed since it was last written to the same buffer;
+         * otherwise the previously written bytes are left in place.
+         * <p/>
+         * This is called from the thread that sends the packet while other
+         * threads may be changing the section. It must not lock anything. If
+         * it sees inconsistent data it may write anything within its part of
+         * the array, or nothing at all, but must never throw or write outside
+         * of it. The result is thrown away if the section changed while it was
+         * being written.
+         *
+         * @param data the array to write to
+         * @param offset the start of the data in the array
+         * @param length the length of the data
+         */
+        public abstract void updateData(byte[] data, int offset, int length);
+    }
+
+    /**
+     * Holds one encoded copy of the packet, along with the information needed
+     * to only update the parts that have changed.
+     */
+    private static class Buffer {
+        private byte[] data;
+        private int length;
+        /**
+         * The sequence number of each section when it was last written to this
+         * buffer, in the same order as {@link #offsets}.
+         */
+        private int[] versions = new int[0];
+        /**
+         * The layout that was used to write this buffer. If it is different
+         * from the current layout, every section has to be written again.
+         */
+        private int layoutVersion = -1;
+
+        private Buffer(int length) {
+            data = new byte[length];
+            this.length = length;
+        }
+    }
+
+    public static final int INDEX_LENGTH = 2;
+
+    /**
+     * The number of times to try to encode a consistent packet before giving
+     * up and sending the previous packet again.
+     */
+    private static final int MAX_ENCODE_ATTEMPTS = 3;
+
+    /**
+     * Added to {@link #batchState} when a batch starts, along with one for
+     * the batch being in progress.
+     */
+    private static final long BATCH_STARTED = 1L << 32;
+
+    /**
+     * The length of the body of the packet. This does not include the packet
+     * index.
+     */
+    private final int bodyLength;
+
+    /**
+     * The last packet that was encoded consistently. This is what gets sent.
+     */
+    private Buffer front;
+    /**
+     * The buffer that the next packet is encoded into. It is swapped with
+     * {@link #front} once it has been checked.
+     */
+    private Buffer back;
+    private int index = 1;
+
+    /**
+     * Persistent sections, in the order they appear in the packet.
+     */
+    private Section[] sections = new Section[4];
+    private int sectionCount;
+    /**
+     * Sections that are only sent once. These are written after all the
+     * persistent sections, and the queue is cleared once they have been sent.
+     */
+    private Section[] oneShotSections = new Section[2];
+    private int oneShotSectionCount;
+
+    /**
+     * The offset and total length of each section, in the same order as
+     * {@link #sections} followed by {@link #oneShotSections}. These are only
+     * recalculated when sections are added, removed or change length.
+     */
+    private int[] offsets = new int[6];
+    private int[] lengths = new int[6];
+    /**
+     * The sequence number of each section during the current encoding attempt.
+     */
+    private int[] sequences = new int[6];
+    private int sectionsLength;
+    /**
+     * Incremented every time the layout is recalculated.
+     */
+    private int layoutVersion;
+    /**
+     * Set when sections are added, removed or change length, so that the
+     * offsets are recalculated before the next update.
+     */
+    private boolean layoutChanged;
+    /**
+     * The state of the batches of changes. The low 32 bits are the number of
+     * batches in progress, on any thread, and the high 32 bits count the
+     * batches that were started. Encoding only succeeds if no batch was in
+     * progress when it started and none started while it ran, which works
+     * like a sequence lock that any number of writers can hold at once.
+     */
+    private final AtomicLong batchState = new AtomicLong();
+
+    /**
+     * Creates a new packet with the specified body length.
+     *
+     * @param bodyLength the length of the body.
+     */
+    public FRCPacket(int bodyLength) {
+        this.bodyLength = bodyLength;
+        // 2 extra bytes for the packet index
+        front = new Buffer(bodyLength + INDEX_LENGTH);
+        back = new Buffer(bodyLength + INDEX_LENGTH);
+    }
+
+    /**
+     * Update the data of the body of the packet. Subclasses must update every
+     * byte of their section of the array. It should be expected that this
+     * method will be called from a different thread than any of the packet data
+     * manipulation methods, so it must read its state atomically without
+     * locking.
+     *
+     * @param data the array to write to
+     * @param offset the start of the data in the array
+     * @param length the length of the data
+     */
+    public abstract void updateBody(byte[] data, int offset, int length);
+
+    /**
+     * Adds the specified section to the end of the packet. Sections that are
+     * not persistent are always placed after the persistent sections.
+     *
+     * @param section the section to add
+     */
+    protected synchronized void addSection(Section section) {
+        if (section.persistent) {
+            addSection(sectionCount, section);
+        } else {
+            if (oneShotSectionCount == oneShotSections.length) {
+                oneShotSections = Arrays.copyOf(oneShotSections, oneShotSectionCount * 2);
+            }
+            oneShotSections[oneShotSectionCount++] = section;
+            layoutChanged = true;
+        }
+    }
+
+    /**
+     * Adds the specified persistent section to the packet.
+     *
+     * @param index the index to add the section at
+     * @param section the section to add
+     * @throws IllegalArgumentException if the section is not persistent
+     */
+    protected synchronized void addSection(int index, Section section) {
+        if (!section.persistent) {
+            throw new IllegalArgumentException("Only persistent sections can be added at an index");
+        }
+        if (index < 0 || index > sectionCount) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + sectionCount);
+        }
+        if (sectionCount == sections.length) {
+            sections = Arrays.copyOf(sections, sectionCount * 2);
+        }
+        System.arraycopy(sections, index, sections, index + 1, sectionCount - index);
+        sections[index] = section;
+        sectionCount++;
+        layoutChanged = true;
+    }
+
+    /**
+     * Replaces the persistent section at the specified index.
+     *
+     * @param index the index of the section to replace
+     * @param section the new section
+     * @return the section that was replaced
+     */
+    protected synchronized Section setSection(int index, Section section) {
+        checkSectionIndex(index);
+        Section oldSection = sections[index];
+        sections[index] = section;
+        layoutChanged = true;
+        return oldSection;
+    }
+
+    /**
+     * Removes the persistent section at the specified index.
+     *
+     * @param index the index of the section to remove
+     * @return the section that was removed
+     */
+    protected synchronized Section removeSection(int index) {
+        checkSectionIndex(index);
+        Section removedSection = sections[index];
+        System.arraycopy(sections, index + 1, sections, index, sectionCount - index - 1);
+        sections[--sectionCount] = null;
+        layoutChanged = true;
+        return removedSection;
+    }
+
+    private void checkSectionIndex(int index) {
+        if (index < 0 || index >= sectionCount) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + sectionCount);
+        }
+    }
+
+    /**
+     * Recalculates the offset of every section. The lengths are read without
+     * locking, so if a section is changing they will be checked again while
+     * encoding.
+     */
+    private void updateLayout() {
+        int totalSections = sectionCount + oneShotSectionCount;
+        if (totalSections > offsets.length) {
+            offsets = new int[totalSections];
+            lengths = new int[totalSections];
+            sequences = new int[totalSections];
+        }
+        int offset = INDEX_LENGTH + bodyLength;
+        for (int i = 0; i < totalSections; i++) {
+            Section section = getSection(i);
+            int length = section.length;
+            offsets[i] = offset;
+            lengths[i] = length;
+            offset += length;
+        }
+        sectionsLength = offset - INDEX_LENGTH - bodyLength;
+        layoutVersion++;
+        layoutChanged = false;
+    }
+
+    /**
+     * Gets a section by its position in the packet, including the one shot
+     * sections at the end.
+     *
+     * @param i the position of the section
+     * @return the section
+     */
+    private Section getSection(int i) {
+        return i < sectionCount ? sections[i] : oneShotSections[i - sectionCount];
+    }
+
+    /**
+     * Encodes the body and sections into the back buffer, and checks that
+     * none of the sections changed while doing so.
+     *
+     * @return true if the back buffer contains a consistent packet
+     */
+    private boolean encode() {
+        long batch = batchState.get();
+        if ((int) batch != 0) {
+            // Some of the changes in the batch may not have been made yet
+            return false;
+        }
+        Buffer buffer = back;
+        int totalSections = sectionCount + oneShotSectionCount;
+        int length = INDEX_LENGTH + bodyLength + sectionsLength;
+        boolean layoutChanged = buffer.layoutVersion != layoutVersion;
+        if (layoutChanged) {
+            if (length > buffer.data.length) {
+                buffer.data = new byte[length];
+            }
+            if (totalSections > buffer.versions.length) {
+                buffer.versions = new int[offsets.length];
+            }
+        }
+
+        byte[] data = buffer.data;
+        updateBody(data, INDEX_LENGTH, bodyLength);
+
+        for (int i = 0; i < totalSections; i++) {
+            Section section = getSection(i);
+            int seq = section.sequence.get();
+            if ((seq & 1) != 0) {
+                // Section is being changed right now
+                return false;
+            }
+            if (section.length != lengths[i]) {
+                // The length changed since the offsets were calculated
+                this.layoutChanged = true;
+                return false;
+            }
+            sequences[i] = seq;
+            // Update section, if it has changed or moved
+            if (layoutChanged || buffer.versions[i] != seq) {
+                int offset = offsets[i];
+                data[offset] = (byte) (lengths[i] - 1);
+                data[offset + 1] = section.type;
+                section.updateData(data, offset + Section.HEADER_LENGTH, lengths[i] - Section.HEADER_LENGTH);
+            }
+        }
+
+        // Make sure nothing changed while the sections were being written
+        for (int i = 0; i < totalSections; i++) {
+            if (!getSection(i).validateRead(sequences[i])) {
+                return false;
+            }
+        }
+        if (!batchState.compareAndSet(batch, batch)) {
+            return false;
+        }
+
+        // Only remember what was written once it is known to be consistent
+        System.arraycopy(sequences, 0, buffer.versions, 0, totalSections);
+        buffer.layoutVersion = layoutVersion;
+        buffer.length = length;
+        return true;
+    }
+
+    /**
+     * Starts a batch of changes to the body and sections of the packet, which
+     * are all sent in the same packet. Changes are made as usual, and then
+     * {@link #endBatch()} must be called, in a finally block. While a batch
+     * is in progress, the previous packet is sent again instead of a packet
+     * that only has some of the changes, so batches should be kept short.
+     * <p/>
+     * This never waits. Batches on different threads can overlap, and the
+     * changes of all of them are sent once none are left in progress.
+     */
+    public final void beginBatch() {
+        batchState.addAndGet(BATCH_STARTED + 1);
+    }
+
+    /**
+     * Finishes a batch of changes, so they can be sent.
+     *
+     * @throws IllegalStateException if no batch is in progress
+     */
+    public final void endBatch() {
+        long state;
+        do {
+            state = batchState.get();
+            if ((int) state == 0) {
+                throw new IllegalStateException("No batch in progress");
+            }
+        } while (!batchState.compareAndSet(state, state - 1));
+    }
+
+    /**
+     * Updates the packet's body and all its sections, and then sets the
+     * provided {@link DatagramPacket}'s data array. This should be called every
+     * time the packet is about to be sent. The array remains valid until the
+     * next time the packet is updated.
+     *
+     * @param packet the packet to use with this data
+     */
+    public synchronized void toDatagramPacket(DatagramPacket packet) {
+        update();
+        // Set DatagramPacket data array
+        packet.setData(front.data, 0, front.length);
+    }
+
+    /**
+     * Updates the packet's body and all its sections, and then copies the
+     * packet into the provided {@link ByteBuffer}. The buffer is cleared first
+     * and is ready to be written to a channel afterwards. This should be called
+     * every time the packet is about to be sent.
+     *
+     * @param buffer the buffer to write the packet to
+     * @throws java.nio.BufferOverflowException if the packet does not fit in
+     * the buffer
+     */
+    public synchronized void toByteBuffer(ByteBuffer buffer) {
+        update();
+        buffer.clear();
+        buffer.put(front.data, 0, front.length);
+        buffer.flip();
+    }
+
+    /**
+     * Encodes a new packet into the front buffer.
+     */
+    private void update() {
+        boolean consistent = false;
+        for (int i = 0; i < MAX_ENCODE_ATTEMPTS && !consistent; i++) {
+            if (layoutChanged) {
+                updateLayout();
+            }
+            consistent = encode();
+        }
+
+        if (consistent) {
+            Buffer newFront = back;
+            back = front;
+            front = newFront;
+
+            // Remove all non-persistent sections, now that they were sent
+            if (oneShotSectionCount > 0) {
+                Arrays.fill(oneShotSections, 0, oneShotSectionCount, null);
+                oneShotSectionCount = 0;
+                layoutChanged = true;
+            }
+        }
+        // Otherwise the previous packet is sent again with a new index
+
+        // Index is common to both types of packets
+        index++;
+        front.data[0] = (byte) (index >> 8);
+        front.data[1] = (byte) index;
+    }
+
+    /**
+     * Gets the index of the packet, as of the last time it was updated. The
+     * robot replies to each packet with the same index.
+     *
+     * @return the 16 bit packet index
+     */
+    public synchronized int getIndex() {
+        return index & 0xFFFF;
+    }
+
+    /**
+     * Get the total length of the packet, as of the last time it was updated.
+     *
+     * @return the packet length
+     */
+    public synchronized int getLength() {
+        return front.length;
+    }
+}
@@ -0,0 +1,169 @@
+package littlebot.robods.communication;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in microseconds that does not allocate anything
+ * when values are recorded. Values are counted in buckets that get wider as
+ * the values get larger, so that any value is known to within about 12%, from
+ * a microsecond up to about 33 seconds. Longer values are counted in the last
+ * bucket.
+ * <p/>
+ * Values should only be recorded by one thread at a time, but the statistics
+ * can be read from any thread while values are being recorded.
+ *
+ * @author Ben Wolsieffer
+ */
+public class LatencyHistogram {
+
+    /**
+     * Each power of two is split into this many buckets.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * The largest power of two that is split into buckets, so values up to
+     * twice this (about 33 seconds in microseconds) are counted precisely.
+     */
+    private static final int MAX_EXPONENT = 24;
+    /**
+     * The buckets for values less than {@link #SUB_BUCKET_COUNT}, which each
+     * hold a single value, the buckets for each power of two and one bucket for
+     * values that are too large.
+     */
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private volatile long count;
+    private volatile long total;
+    private volatile long max;
+    private volatile long last;
+
+    /**
+     * Records a value.
+     *
+     * @param micros the value in microseconds, which is treated as zero if it
+     * is negative
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int bucket = getBucket(micros);
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        last = micros;
+        if (micros > max) {
+            max = micros;
+        }
+        total += micros;
+        count++;
+    }
+
+    /**
+     * Gets the value that the specified fraction of the recorded values are
+     * less than or equal to. The result is the upper bound of the bucket the
+     * value falls into, capped at the largest value recorded.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value in microseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100, was given: " + percentile);
+        }
+        // The count is read from the buckets themselves, because they may be
+        // changing while they are read
+        long recorded = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            recorded += counts.get(i);
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(recorded * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(getBucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getMedian() {
+        return getPercentile(50);
+    }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return the value in microseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the last value recorded.
+     *
+     * @return the value in microseconds
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return the mean in microseconds, or 0 if nothing has been recorded
+     */
+    public long getMean() {
+        long c = count;
+        return c != 0 ? total / c : 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Removes all recorded values. This must be called from the thread that
+     * records values, or while no values are being recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count = 0;
+        total = 0;
+        max = 0;
+        last = 0;
+    }
+
+    private static int getBucket(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        if (bucket == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKET_COUNT;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
@@ -0,0 +1,659 @@
+package littlebot.robods.communication;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Created by raystubbs on 18/05/15.
+ */
+public class PacketManager {
+
+    private static final String TAG = PacketListener.class.getSimpleName();
+
+    /**
+     * The ways that packets can be sent and received.
+     */
+    public enum Transport {
+        /**
+         * Blocking {@link DatagramSocket}s, with separate threads for sending
+         * and receiving.
+         */
+        SOCKET,
+        /**
+         * Non-blocking {@link DatagramChannel}s and direct {@link ByteBuffer}s,
+         * with a single thread that both sends and receives.
+         */
+        CHANNEL
+    }
+
+    //In these names ds means sent by the driverstation and rio means received to the rio
+    private final int ROBOT_PORT = 1150, DS_PORT = 1110;
+    /**
+     * How long to wait without receiving anything before the connection is
+     * considered lost, in case packets are not being sent for the watchdog to
+     * notice.
+     */
+    private final int DISCONNECT_DELAY = 1000; //One second
+    private final int SEND_PERIOD = 20;
+    /**
+     * The number of missed packets that are sent late instead of skipped.
+     */
+    private final int MAX_CATCH_UP_PACKETS = 2;
+    /**
+     * The default minimum time between an extra packet sent in low latency
+     * mode and any other packet.
+     */
+    private final int DEFAULT_MINIMUM_SEND_GAP = 5;
+    /**
+     * The default number of regular packets in a row that can go unanswered
+     * before the connection is considered lost, which is 100 ms.
+     */
+    private final int DEFAULT_MAX_MISSED_PACKETS = 5;
+    /**
+     * The default number of replies needed before the connection is considered
+     * established again.
+     */
+    private final int DEFAULT_RECOVERY_PACKETS = 3;
+
+
+    //Status
+    private volatile boolean running = false, timeSent;
+    // In SOCKET mode the receive thread reports connections and the send
+    // thread reports them lost, so each change has to happen exactly once
+    private final AtomicBoolean connected = new AtomicBoolean();
+    private volatile boolean lowLatency;
+    private final AtomicBoolean sendRequested = new AtomicBoolean();
+
+    //Data handlers
+    private final DriverStationPacket driverStationPacket;
+    private final RobotPacket robotPacket;
+
+    //Event listeners
+    private ConnectionListener connectionListener;
+    private PacketListener packetListener;
+
+    private Transport transport = Transport.SOCKET;
+
+    private DatagramSocket dsSocket;
+    private DatagramSocket robotSocket;
+
+    private final RoundTripTracker roundTripTracker = new RoundTripTracker();
+    private final SequenceTracker sequenceTracker = new SequenceTracker();
+    private final ConnectionWatchdog connectionWatchdog = new ConnectionWatchdog(DEFAULT_MAX_MISSED_PACKETS, DEFAULT_RECOVERY_PACKETS);
+    private final SendScheduler sendScheduler = new SendScheduler(SEND_PERIOD, TimeUnit.MILLISECONDS, MAX_CATCH_UP_PACKETS);
+    private final AxisSlewLimiter axisSlewLimiter = new AxisSlewLimiter();
+    private volatile Thread sendThread;
+    private Thread receiveThread;
+
+    private DatagramChannel dsChannel;
+    private DatagramChannel robotChannel;
+    private volatile Selector selector;
+    private Thread channelThread;
+    /**
+     * Direct buffers used by {@link Transport#CHANNEL}. They are only
+     * allocated once and reused every time the manager is started.
+     */
+    private ByteBuffer sendBuffer;
+    private ByteBuffer receiveBuffer;
+
+    public PacketManager(DriverStationPacket driverStationPacket, RobotPacket robotPacket) {
+        this.driverStationPacket = driverStationPacket;
+        this.robotPacket = robotPacket;
+        sendScheduler.setMinimumGap(DEFAULT_MINIMUM_SEND_GAP, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets how packets are sent and received. This only takes effect the next
+     * time the manager is started.
+     *
+     * @param transport the transport to use
+     */
+    public synchronized void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public synchronized Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets whether {@link #requestSend()} sends an extra packet right away.
+     * Otherwise changes are only sent with the next regular packet.
+     *
+     * @param lowLatency true to enable low latency mode
+     */
+    public void setLowLatency(boolean lowLatency) {
+        this.lowLatency = lowLatency;
+    }
+
+    public boolean isLowLatency() {
+        return lowLatency;
+    }
+
+    /**
+     * Sets the minimum time between an extra packet sent in low latency mode
+     * and any other packet, which keeps rapid changes from flooding the link.
+     *
+     * @param minimumGap the minimum gap
+     * @param unit the unit of the minimum gap
+     */
+    public void setMinimumSendGap(long minimumGap, TimeUnit unit) {
+        sendScheduler.setMinimumGap(minimumGap, unit);
+    }
+
+    /**
+     * Requests that the driver station packet is sent as soon as possible,
+     * because its state has changed. This does nothing unless low latency mode
+     * is enabled. Any number of requests made before the packet is sent only
+     * cause one extra packet. This can be called from any thread.
+     */
+    public void requestSend() {
+        if (lowLatency && running && sendRequested.compareAndSet(false, true)) {
+            Thread thread = sendThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+            Selector selector = this.selector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    public synchronized void start(final InetAddress robotAddress) throws IOException {
+        if (!running) {
+
+            ProtocolLog.d(TAG, "Trying to connect to: " + robotAddress + " using " + transport);
+
+            switch (transport) {
+                case SOCKET:
+                    startSocket(robotAddress);
+                    break;
+                case CHANNEL:
+                    startChannel(robotAddress);
+                    break;
+            }
+        }
+    }
+
+    private void startSocket(InetAddress robotAddress) throws IOException {
+        // Create send/receive UDP sockets
+        dsSocket = new DatagramSocket();
+
+        robotSocket = new DatagramSocket(null);
+        robotSocket.setReuseAddress(true);
+        // Make receiving timeout after a certain time
+        robotSocket.setSoTimeout(DISCONNECT_DELAY);
+        robotSocket.bind(new InetSocketAddress(ROBOT_PORT));
+
+        final DatagramPacket robotDatagram = new DatagramPacket(new byte[RobotPacket.MAX_LENGTH], RobotPacket.MAX_LENGTH);
+        // Lets the robot packet read the received data without copying it
+        final ByteBuffer robotBuffer = ByteBuffer.wrap(robotDatagram.getData());
+        final DatagramPacket driverStationDatagram = new DatagramPacket(new byte[]{}, 0, robotAddress, DS_PORT);
+
+        running = true;
+
+        receiveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        // Receiving shrinks the length to that of the packet
+                        robotDatagram.setLength(RobotPacket.MAX_LENGTH);
+                        robotSocket.receive(robotDatagram);
+                        robotBuffer.limit(robotDatagram.getLength());
+                        onDatagramReceived(robotBuffer);
+                    } catch (SocketTimeoutException e) {
+                        // When the timeout occurs, the robot isn't
+                        // responding, or we aren't connected yet.
+                        onConnectionLost();
+                    } catch (IOException e) {
+                        // We don't care if an exception occurred if the
+                        // socket was closed
+                        if (!robotSocket.isClosed()) {
+                            onConnectionLost();
+                        }
+                    }
+                }
+            }
+        });
+        receiveThread.start();
+        sendThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                sendScheduler.start(start);
+                axisSlewLimiter.start(start);
+                while (running) {
+                    long now = System.nanoTime();
+                    if (!shouldSend(now)) {
+                        // May return early, in which case the delay is
+                        // checked again
+                        LockSupport.parkNanos(getSendDelay(now));
+                    } else {
+                        try {
+                            axisSlewLimiter.tick(now);
+                            addTimeIfNeeded();
+                            driverStationPacket.toDatagramPacket(driverStationDatagram);
+                            int index = driverStationPacket.getIndex();
+                            // Recorded first in case the reply is received
+                            // before sending returns
+                            roundTripTracker.packetSent(index, System.nanoTime());
+                            try {
+                                dsSocket.send(driverStationDatagram);
+                            } catch (IOException e) {
+                                roundTripTracker.packetNotSent(index);
+                                throw e;
+                            }
+                            onPacketSent(driverStationPacket);
+                        } catch (IOException e) {
+                            if (!dsSocket.isClosed()) {
+                                onConnectionLost();
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        sendThread.setPriority(Thread.MAX_PRIORITY);
+        sendThread.start();
+    }
+
+    private void startChannel(InetAddress robotAddress) throws IOException {
+        if (sendBuffer == null) {
+            sendBuffer = ByteBuffer.allocateDirect(DriverStationPacket.MAX_LENGTH);
+            receiveBuffer = ByteBuffer.allocateDirect(RobotPacket.MAX_LENGTH);
+        }
+
+        selector = Selector.open();
+        try {
+            // Connecting the sending channel means the address only has to be
+            // handled once
+            dsChannel = DatagramChannel.open();
+            dsChannel.connect(new InetSocketAddress(robotAddress, DS_PORT));
+            dsChannel.configureBlocking(false);
+
+            robotChannel = DatagramChannel.open();
+            robotChannel.socket().setReuseAddress(true);
+            robotChannel.socket().bind(new InetSocketAddress(ROBOT_PORT));
+            robotChannel.configureBlocking(false);
+            robotChannel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+
+        running = true;
+
+        channelThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runChannelLoop();
+                } finally {
+                    closeChannels();
+                }
+            }
+        });
+        channelThread.setPriority(Thread.MAX_PRIORITY);
+        channelThread.start();
+    }
+
+    /**
+     * Sends and receives packets until the manager is stopped. Waiting for
+     * packets to arrive is done with the selector, which times out whenever it
+     * is time to send the next packet.
+     */
+    private void runChannelLoop() {
+        final long disconnectDelay = TimeUnit.MILLISECONDS.toNanos(DISCONNECT_DELAY);
+        long lastReceive = System.nanoTime();
+        sendScheduler.start(lastReceive);
+        axisSlewLimiter.start(lastReceive);
+
+        while (running) {
+            long now = System.nanoTime();
+            if (shouldSend(now)) {
+                try {
+                    axisSlewLimiter.tick(now);
+                    addTimeIfNeeded();
+                    driverStationPacket.toByteBuffer(sendBuffer);
+                    int index = driverStationPacket.getIndex();
+                    // Recorded first in case the reply is received before
+                    // writing returns
+                    roundTripTracker.packetSent(index, System.nanoTime());
+                    try {
+                        dsChannel.write(sendBuffer);
+                    } catch (IOException e) {
+                        roundTripTracker.packetNotSent(index);
+                        throw e;
+                    }
+                    onPacketSent(driverStationPacket);
+                } catch (IOException e) {
+                    // A connected channel reports ICMP errors when the robot
+                    // is not listening, so keep trying
+                    if (dsChannel.isOpen()) {
+                        onConnectionLost();
+                    }
+                }
+            }
+            if (now - lastReceive > disconnectDelay) {
+                // The robot isn't responding, or we aren't connected yet.
+                onConnectionLost();
+                lastReceive = now;
+            }
+
+            try {
+                long delay = getSendDelay(System.nanoTime());
+                long timeout = TimeUnit.NANOSECONDS.toMillis(delay);
+                int ready;
+                if (timeout > 0) {
+                    ready = selector.select(timeout);
+                } else {
+                    // The selector can only wait in whole milliseconds, so wait
+                    // for the rest of the time without it
+                    ready = selector.selectNow();
+                    if (ready == 0 && delay > 0) {
+                        LockSupport.parkNanos(delay);
+                    }
+                }
+                if (ready > 0) {
+                    selector.selectedKeys().clear();
+                    while (true) {
+                        receiveBuffer.clear();
+                        if (robotChannel.receive(receiveBuffer) == null) {
+                            break;
+                        }
+                        receiveBuffer.flip();
+                        if (onDatagramReceived(receiveBuffer)) {
+                            lastReceive = System.nanoTime();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // We don't care if an exception occurred if the channel was
+                // closed
+                if (robotChannel.isOpen()) {
+                    onConnectionLost();
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a datagram received from the robot and notifies the listeners,
+     * unless it is too short to be a robot packet.
+     *
+     * @param buffer the buffer containing the datagram
+     * @return true if the datagram was a robot packet
+     */
+    private boolean onDatagramReceived(ByteBuffer buffer) {
+        if (!robotPacket.wrap(buffer).isValid()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (!connected.get()) {
+            // Don't count the packets missed while disconnected as lost
+            sequenceTracker.restart();
+        }
+        sequenceTracker.packetReceived(robotPacket.getIndex(), now);
+        roundTripTracker.packetReceived(robotPacket.getIndex(), now);
+        if (connectionWatchdog.packetReceived() == ConnectionWatchdog.Event.CONNECTED) {
+            onConnect();
+        }
+        onPacketReceived(robotPacket);
+        return true;
+    }
+
+    /**
+     * Checks whether a packet should be sent now, either because it is time
+     * for the next regular packet, or because an extra one was requested.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     * @return true if a packet should be sent
+     */
+    private boolean shouldSend(long now) {
+        boolean tick = sendScheduler.tick(now);
+        // Only regular packets count towards missed packets, so that the
+        // watchdog measures time
+        if (tick && connectionWatchdog.packetSent() == ConnectionWatchdog.Event.CONNECTION_LOST) {
+            onConnectionLost();
+        }
+        if (tick || (sendRequested.get() && sendScheduler.tickImmediate(now))) {
+            // Clear the request before the packet is encoded, so that any
+            // change made after this point causes another one
+            sendRequested.set(false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the time until a packet should be sent, taking into account
+     * whether an extra packet was requested.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     * @return the time until a packet should be sent in nanoseconds
+     */
+    private long getSendDelay(long now) {
+        long delay = sendScheduler.getDelay(now);
+        if (sendRequested.get()) {
+            delay = Math.min(delay, sendScheduler.getImmediateDelay(now));
+        }
+        return delay;
+    }
+
+    private void closeChannels() {
+        closeQuietly(dsChannel);
+        closeQuietly(robotChannel);
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                ProtocolLog.w(TAG, "Failed to close selector", e);
+            }
+            selector = null;
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ProtocolLog.w(TAG, "Failed to close " + channel, e);
+            }
+        }
+    }
+
+    /**
+     * Adds the time to the packet the first time it is sent after the
+     * connection is established.
+     */
+    private void addTimeIfNeeded() {
+        if (connected.get() && !timeSent) {
+            driverStationPacket.addTime();
+            timeSent = true;
+        }
+    }
+
+    public synchronized void stop() {
+        if (running) {
+            // Reset flags
+            connected.set(false);
+            driverStationPacket.setConnected(false);
+            timeSent = false;
+            running = false;
+            sendRequested.set(false);
+            connectionWatchdog.reset();
+
+            Thread thread;
+            if (channelThread != null) {
+                // The channels are closed by the thread when it exits
+                Selector selector = this.selector;
+                if (selector != null) {
+                    selector.wakeup();
+                }
+                thread = channelThread;
+                channelThread = null;
+            } else {
+                // Close the transmit socket
+                LockSupport.unpark(sendThread);
+                joinQuietly(sendThread);
+                sendThread = null;
+                dsSocket.close();
+
+                // Close receiving socket
+                robotSocket.close();
+                thread = receiveThread;
+            }
+            // Wait for the thread to finish (should be fast because the
+            // socket was closed)
+            joinQuietly(thread);
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    /**
+     * Gets the scheduler that decides when packets are sent. This can be used
+     * to monitor how steadily packets are being sent.
+     *
+     * @return the send scheduler
+     */
+    public SendScheduler getSendScheduler() {
+        return sendScheduler;
+    }
+
+    /**
+     * Gets the limiter that moves slew limited axes towards their targets
+     * right before each packet is sent.
+     *
+     * @return the axis slew limiter
+     */
+    public AxisSlewLimiter getAxisSlewLimiter() {
+        return axisSlewLimiter;
+    }
+
+    /**
+     * Gets the tracker that measures the round trip time of packets to the
+     * robot and back.
+     *
+     * @return the round trip tracker
+     */
+    public RoundTripTracker getRoundTripTracker() {
+        return roundTripTracker;
+    }
+
+    /**
+     * Gets the tracker that counts packets that were lost, reordered or
+     * duplicated on the way to the robot and back.
+     *
+     * @return the sequence tracker
+     */
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+
+    /**
+     * Gets the watchdog that decides when the connection is lost based on
+     * missed packets. This can be used to configure how quickly that happens.
+     *
+     * @return the connection watchdog
+     */
+    public ConnectionWatchdog getConnectionWatchdog() {
+        return connectionWatchdog;
+    }
+
+    protected void onConnect() {
+        if (connected.compareAndSet(false, true)) {
+            driverStationPacket.setConnected(true);
+            timeSent = false;
+            if (connectionListener != null) {
+                connectionListener.onConnect();
+            }
+        }
+    }
+
+    protected void onConnectionLost() {
+        // The watchdog has to see enough replies again before reconnecting
+        connectionWatchdog.reset();
+        if (connected.compareAndSet(true, false)) {
+            driverStationPacket.setConnected(false);
+            if (connectionListener != null) {
+                connectionListener.onConnectionLost();
+            }
+        }
+    }
+
+    protected void onPacketReceived(RobotPacket packet) {
+        if (packetListener != null) {
+            packetListener.onPacketReceived(packet);
+        }
+    }
+
+    protected void onPacketSent(DriverStationPacket packet) {
+        if (packetListener != null) {
+            packetListener.onPacketSent(packet);
+        }
+    }
+
+    public boolean isConnected() {
+        return connected.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public synchronized void setConnectionListener(ConnectionListener l) {
+        connectionListener = l;
+    }
+
+    public synchronized void setPacketListener(PacketListener l) {
+        packetListener = l;
+    }
+
+
+    /**
+     * ************************Listener definitions*********************************
+     */
+    public interface ConnectionListener {
+        void onConnect();
+
+        void onConnectionLost();
+
+        void onConnectionFailed();
+    }
+
+    public interface PacketListener {
+        /**
+         * Called when a packet is received from the robot. The packet is only
+         * valid until this method returns, because its buffer is reused for
+         * the next packet.
+         *
+         * @param packet the received packet
+         */
+        void onPacketReceived(RobotPacket packet);
+
+        void onPacketSent(DriverStationPacket packet);
+    }
+}
@@ -0,0 +1,136 @@
+package littlebot.robods.communication;
+
+/**
+ * Logging for the protocol code, which does not depend on Android. The methods
+ * are the same as those of <code>android.util.Log</code>, and the messages are
+ * passed to a {@link Logger}. By default, they are printed to
+ * {@link System#err}, so the protocol code can be used in desktop tools and
+ * tests without any setup. The app replaces the logger with one that uses the
+ * Android log.
+ *
+ * @author Ben Wolsieffer
+ */
+public final class ProtocolLog {
+
+    /**
+     * Receives log messages.
+     */
+    public interface Logger {
+        void debug(String tag, String message);
+
+        void info(String tag, String message);
+
+        /**
+         * Logs a warning.
+         *
+         * @param tag the tag of the message
+         * @param message the message
+         * @param throwable the exception that caused the warning, or null
+         */
+        void warn(String tag, String message, Throwable throwable);
+
+        /**
+         * Logs an error.
+         *
+         * @param tag the tag of the message
+         * @param message the message
+         * @param throwable the exception that caused the error, or null
+         */
+        void error(String tag, String message, Throwable throwable);
+    }
+
+    /**
+     * Prints messages to {@link System#err}.
+     */
+    public static final Logger SYSTEM_ERR = new Logger() {
+        @Override
+        public void debug(String tag, String message) {
+            print("D", tag, message, null);
+        }
+
+        @Override
+        public void info(String tag, String message) {
+            print("I", tag, message, null);
+        }
+
+        @Override
+        public void warn(String tag, String message, Throwable throwable) {
+            print("W", tag, message, throwable);
+        }
+
+        @Override
+        public void error(String tag, String message, Throwable throwable) {
+            print("E", tag, message, throwable);
+        }
+
+        private void print(String level, String tag, String message, Throwable throwable) {
+            System.err.println(level + "/" + tag + ": " + message);
+            if (throwable != null) {
+                throwable.printStackTrace();
+            }
+        }
+    };
+
+    /**
+     * Ignores all messages.
+     */
+    public static final Logger NONE = new Logger() {
+        @Override
+        public void debug(String tag, String message) {
+        }
+
+        @Override
+        public void info(String tag, String message) {
+        }
+
+        @Override
+        public void warn(String tag, String message, Throwable throwable) {
+        }
+
+        @Override
+        public void error(String tag, String message, Throwable throwable) {
+        }
+    };
+
+    private static volatile Logger logger = SYSTEM_ERR;
+
+    private ProtocolLog() {
+    }
+
+    /**
+     * Sets where log messages are sent.
+     *
+     * @param logger the logger, or null to ignore all messages
+     */
+    public static void setLogger(Logger logger) {
+        ProtocolLog.logger = logger != null ? logger : NONE;
+    }
+
+    public static Logger getLogger() {
+        return logger;
+    }
+
+    public static void d(String tag, String message) {
+        logger.debug(tag, message);
+    }
+
+    public static void i(String tag, String message) {
+        logger.info(tag, message);
+    }
+
+    public static void w(String tag, String message) {
+        logger.warn(tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable throwable) {
+        logger.warn(tag, message, throwable);
+    }
+
+    public static void e(String tag, String message) {
+        logger.error(tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        logger.error(tag, message, throwable);
+    }
+}
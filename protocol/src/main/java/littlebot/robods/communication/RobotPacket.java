@@ -0,0 +1,253 @@
+package littlebot.robods.communication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes status packets sent from the robot to the driver station. This is a
+ * flyweight: it does not copy the packet, but reads directly from the buffer
+ * it was received into, so it must be wrapped around each new packet with
+ * {@link #wrap(ByteBuffer)} and is only valid until the buffer is reused.
+ * Nothing is allocated while decoding.
+ * <p/>
+ * The sections are walked using their offsets in the buffer:
+ * <pre>
+ * for (int s = packet.firstSection(); s &gt;= 0; s = packet.nextSection(s)) {
+ *     switch (packet.getSectionType(s)) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Ben Wolsieffer
+ */
+public class RobotPacket {
+
+    public static final int MAX_LENGTH = 51;
+
+    /**
+     * The length of the part of the packet before the sections.
+     */
+    public static final int HEADER_LENGTH = 8;
+
+    public static final int SECTION_04 = 0x04;
+    public static final int SECTION_05 = 0x05;
+    public static final int SECTION_06 = 0x06;
+    public static final int SECTION_0E = 0x0e;
+
+    private static final int FLAGS_OFFSET = 3;
+    private static final int VOLTAGE_OFFSET = 5;
+
+    private static final int MODE_MASK = 0x3;
+    private static final int ENABLED = 0x4;
+
+    /**
+     * Modes indexed by the value sent by the robot.
+     */
+    private static final DriverStationPacket.Mode[] MODES = {
+            DriverStationPacket.Mode.TELEOPERATED,
+            DriverStationPacket.Mode.TEST,
+            DriverStationPacket.Mode.AUTONOMOUS,
+            null
+    };
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Wraps this packet around the data between the position and limit of a
+     * buffer. The position and limit of the buffer are not changed.
+     *
+     * @param buffer the buffer containing the packet
+     * @return this packet
+     */
+    public RobotPacket wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        offset = buffer.position();
+        length = buffer.remaining();
+        return this;
+    }
+
+    /**
+     * Checks whether the packet is long enough to contain the header. The
+     * other methods of this class should not be used if this returns false.
+     *
+     * @return true if the packet has a complete header
+     */
+    public boolean isValid() {
+        return buffer != null && length >= HEADER_LENGTH;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the packet index, which the robot copies from the last driver
+     * station packet it received.
+     *
+     * @return the 16 bit packet index
+     */
+    public int getIndex() {
+        return (getUnsignedByte(0) << 8) | getUnsignedByte(1);
+    }
+
+    /**
+     * Gets the mode the robot is in.
+     *
+     * @return the mode, or null if the robot sent an unknown mode
+     */
+    public DriverStationPacket.Mode getMode() {
+        return MODES[getUnsignedByte(FLAGS_OFFSET) & MODE_MASK];
+    }
+
+    public boolean isEnabled() {
+        return (getUnsignedByte(FLAGS_OFFSET) & ENABLED) != 0;
+    }
+
+    /**
+     * Gets the battery voltage in hundredths of a volt, which is the precision
+     * it is normally displayed with. This does not use any floating point.
+     *
+     * @return the battery voltage in hundredths of a volt
+     */
+    public int getBatteryCentivolts() {
+        return getUnsignedByte(VOLTAGE_OFFSET) * 100
+                + (getUnsignedByte(VOLTAGE_OFFSET + 1) * 100 + 128) / 256;
+    }
+
+    /**
+     * Gets the battery voltage. The robot sends the whole number of volts in
+     * one byte and the fractional part in 256ths of a volt in the next.
+     *
+     * @return the battery voltage in volts
+     */
+    public float getBatteryVoltage() {
+        return getUnsignedByte(VOLTAGE_OFFSET) + getUnsignedByte(VOLTAGE_OFFSET + 1) / 256f;
+    }
+
+    /**
+     * Gets the offset of the first section in the packet.
+     *
+     * @return the offset of the first section, or -1 if there are no sections
+     */
+    public int firstSection() {
+        return checkSection(HEADER_LENGTH);
+    }
+
+    /**
+     * Gets the offset of the section after the specified one.
+     *
+     * @param section the offset of a section
+     * @return the offset of the next section, or -1 if there are no more
+     * sections
+     */
+    public int nextSection(int section) {
+        return checkSection(section + getSectionLength(section));
+    }
+
+    /**
+     * Finds the first section of the specified type.
+     *
+     * @param type the section type
+     * @return the offset of the section, or -1 if the packet does not contain
+     * one
+     */
+    public int findSection(int type) {
+        for (int s = firstSection(); s >= 0; s = nextSection(s)) {
+            if (getSectionType(s) == type) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    public int getSectionType(int section) {
+        return getUnsignedByte(section + 1);
+    }
+
+    /**
+     * Gets the length of a section, including its two byte header.
+     *
+     * @param section the offset of the section
+     * @return the length of the section
+     */
+    public int getSectionLength(int section) {
+        return getUnsignedByte(section) + 1;
+    }
+
+    /**
+     * Gets the offset of the data of a section, which comes after its header.
+     *
+     * @param section the offset of the section
+     * @return the offset of the section data
+     */
+    public int getSectionDataOffset(int section) {
+        return section + 2;
+    }
+
+    public int getSectionDataLength(int section) {
+        return getSectionLength(section) - 2;
+    }
+
+    /**
+     * Gets a byte of the packet.
+     *
+     * @param index the offset of the byte in the packet
+     * @return the byte
+     */
+    public byte getByte(int index) {
+        checkIndex(index, 1);
+        return buffer.get(offset + index);
+    }
+
+    /**
+     * Gets a big endian 32 bit integer from the packet.
+     *
+     * @param index the offset of the integer in the packet
+     * @return the integer
+     */
+    public int getInt(int index) {
+        return (getUnsignedByte(index) << 24) | (getUnsignedByte(index + 1) << 16)
+                | (getUnsignedByte(index + 2) << 8) | getUnsignedByte(index + 3);
+    }
+
+    /**
+     * Gets a big endian 32 bit float from the packet.
+     *
+     * @param index the offset of the float in the packet
+     * @return the float
+     */
+    public float getFloat(int index) {
+        return Float.intBitsToFloat(getInt(index));
+    }
+
+    private int getUnsignedByte(int index) {
+        checkIndex(index, 1);
+        return buffer.get(offset + index) & 0xFF;
+    }
+
+    /**
+     * Checks that a section starting at the specified offset fits in the
+     * packet.
+     *
+     * @param section the offset of the section
+     * @return the offset, or -1 if there is no complete section there
+     */
+    private int checkSection(int section) {
+        if (section + 2 > length) {
+            return -1;
+        }
+        int sectionLength = getSectionLength(section);
+        if (sectionLength < 2 || section + sectionLength > length) {
+            return -1;
+        }
+        return section;
+    }
+
+    private void checkIndex(int index, int size) {
+        if (index < 0 || index + size > length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+        }
+    }
+}
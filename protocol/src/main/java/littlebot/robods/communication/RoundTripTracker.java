@@ -0,0 +1,131 @@
+package littlebot.robods.communication;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures the round trip time between the driver station and the robot. The
+ * robot replies to each packet with the same index, so the time each packet
+ * was sent is remembered and matched against the replies. Only the most recent
+ * {@link #CAPACITY} packets are remembered, so replies that take longer than
+ * that many packets are not counted.
+ * <p/>
+ * Nothing is allocated when packets are sent or received. Packets can be sent
+ * from one thread and received from another, and the round trip times can be
+ * read from any thread.
+ *
+ * @author Ben Wolsieffer
+ */
+public class RoundTripTracker {
+
+    /**
+     * The number of sent packets that are remembered. This is a power of two
+     * so that the index can be masked to find the slot.
+     */
+    public static final int CAPACITY = 256;
+
+    private static final int INDEX_BITS = 16;
+    private static final long INDEX_MASK = (1 << INDEX_BITS) - 1;
+    /**
+     * Send times are stored in the bits that are left after the index, which
+     * is enough for differences of several days.
+     */
+    private static final long TIME_MASK = -1L >>> INDEX_BITS;
+    private static final long EMPTY = -1;
+
+    /**
+     * The send time of each packet in the upper bits and its index in the
+     * lower bits, so that both can be read and written atomically.
+     */
+    private final AtomicLongArray sendTimes = new AtomicLongArray(CAPACITY);
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private volatile long unmatchedCount;
+
+    public RoundTripTracker() {
+        clear();
+    }
+
+    /**
+     * Records that a packet was sent. This must be called right before the
+     * packet is sent, because the reply can arrive before sending returns.
+     *
+     * @param index the index of the packet
+     * @param now the current time from {@link System#nanoTime()}
+     */
+    public void packetSent(int index, long now) {
+        sendTimes.set(index & (CAPACITY - 1), ((now & TIME_MASK) << INDEX_BITS) | (index & INDEX_MASK));
+    }
+
+    /**
+     * Forgets a packet that was recorded with {@link #packetSent(int, long)}
+     * but could not be sent after all.
+     *
+     * @param index the index of the packet
+     */
+    public void packetNotSent(int index) {
+        int slot = index & (CAPACITY - 1);
+        long sent = sendTimes.get(slot);
+        if (sent != EMPTY && (sent & INDEX_MASK) == (index & INDEX_MASK)) {
+            sendTimes.compareAndSet(slot, sent, EMPTY);
+        }
+    }
+
+    /**
+     * Records that a reply was received from the robot, and if the packet it
+     * replies to is remembered, records the round trip time. Each packet is
+     * only counted once, even if the robot replies more than once.
+     *
+     * @param index the index of the reply
+     * @param now the current time from {@link System#nanoTime()}
+     * @return true if the round trip time was recorded
+     */
+    public boolean packetReceived(int index, long now) {
+        int slot = index & (CAPACITY - 1);
+        long sent = sendTimes.get(slot);
+        if (sent == EMPTY || (sent & INDEX_MASK) != (index & INDEX_MASK)
+                || !sendTimes.compareAndSet(slot, sent, EMPTY)) {
+            unmatchedCount++;
+            return false;
+        }
+        long elapsed = (now - (sent >>> INDEX_BITS)) & TIME_MASK;
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(elapsed));
+        return true;
+    }
+
+    /**
+     * Gets the histogram of round trip times in microseconds.
+     *
+     * @return the round trip time histogram
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Gets the number of replies that did not match a remembered packet, either
+     * because they took too long, or because they were duplicates.
+     *
+     * @return the number of unmatched replies
+     */
+    public long getUnmatchedCount() {
+        return unmatchedCount;
+    }
+
+    /**
+     * Forgets all sent packets and resets the statistics. This must not be
+     * called while packets are being sent or received.
+     */
+    public void reset() {
+        clear();
+        histogram.reset();
+        unmatchedCount = 0;
+    }
+
+    private void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sendTimes.set(i, EMPTY);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package littlebot.robods.communication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when packets should be sent so that they go out at a fixed rate.
+ * Ticks are scheduled on a fixed grid measured with {@link System#nanoTime()},
+ * so a late tick does not push back the ones after it. If the sender falls
+ * behind by a few ticks, they are sent immediately to catch up. If it falls
+ * further behind than that, the missed ticks are skipped instead, so that the
+ * robot does not get a burst of stale packets.
+ * <p/>
+ * Extra packets can also be sent between the regular ticks, for example right
+ * after a control changes, using {@link #tickImmediate(long)}. These do not
+ * move the regular ticks, but are never sent closer together than the minimum
+ * gap to any other packet, including the next regular tick. A change that
+ * comes in just before a regular tick waits for that tick instead.
+ * <p/>
+ * The scheduler also records how late each tick was. The statistics and the
+ * minimum gap can be accessed from any thread, but the scheduler itself must
+ * only be used by the thread that sends the packets.
+ *
+ * @author Ben Wolsieffer
+ */
+public class SendScheduler {
+
+    private final long period;
+    private final int maxCatchUpTicks;
+
+    private volatile long minimumGap;
+
+    private long nextTick;
+    private long lastSend;
+
+    private volatile long lastJitter;
+    private volatile long maxJitter;
+    private volatile long totalJitter;
+    private volatile long tickCount;
+    private volatile long skippedTickCount;
+    private volatile long immediateTickCount;
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param period the time between ticks
+     * @param unit the unit of the period
+     * @param maxCatchUpTicks the number of missed ticks that are sent late
+     * rather than skipped
+     */
+    public SendScheduler(long period, TimeUnit unit, int maxCatchUpTicks) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive, was given: " + period);
+        }
+        if (maxCatchUpTicks < 0) {
+            throw new IllegalArgumentException("Catch up ticks must not be negative, was given: " + maxCatchUpTicks);
+        }
+        this.period = unit.toNanos(period);
+        this.maxCatchUpTicks = maxCatchUpTicks;
+    }
+
+    /**
+     * Starts a new schedule with the first tick happening immediately.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     */
+    public void start(long now) {
+        nextTick = now;
+        lastSend = now - minimumGap;
+    }
+
+    /**
+     * Gets the time until the next tick.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     * @return the time until the next tick in nanoseconds, which is zero or
+     * negative if it is already due
+     */
+    public long getDelay(long now) {
+        return nextTick - now;
+    }
+
+    /**
+     * Gets the time until an immediate tick is allowed by the minimum gap. If
+     * the next regular tick will come first, because there is no time far
+     * enough from both the last packet and the next tick, this is the time
+     * until the next regular tick.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     * @return the time until an immediate tick is allowed in nanoseconds, which
+     * is zero or negative if it is allowed now
+     */
+    public long getImmediateDelay(long now) {
+        long allowed = Math.max(lastSend + minimumGap, now);
+        if (nextTick - allowed < minimumGap) {
+            return nextTick - now;
+        }
+        return allowed - now;
+    }
+
+    /**
+     * Checks whether a tick is due, and if so moves on to the next one. A
+     * packet should be sent every time this returns true.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     * @return true if a tick is due
+     */
+    public boolean tick(long now) {
+        long late = now - nextTick;
+        if (late < 0) {
+            return false;
+        }
+        if (late >= (maxCatchUpTicks + 1) * period) {
+            // Too far behind to catch up, so skip the missed ticks but stay on
+            // the same grid
+            long missed = late / period;
+            skippedTickCount += missed;
+            nextTick += missed * period;
+            late -= missed * period;
+        }
+        nextTick += period;
+        lastSend = now;
+
+        lastJitter = late;
+        if (late > maxJitter) {
+            maxJitter = late;
+        }
+        totalJitter += late;
+        tickCount++;
+        return true;
+    }
+
+    /**
+     * Checks whether an extra tick is allowed right now, which is the case if
+     * no packet has been sent within the minimum gap, and the next regular
+     * tick is at least the minimum gap away. A packet should be sent every
+     * time this returns true. The regular ticks are not affected.
+     *
+     * @param now the current time from {@link System#nanoTime()}
+     * @return true if an extra tick is allowed
+     */
+    public boolean tickImmediate(long now) {
+        if (now - lastSend < minimumGap || nextTick - now < minimumGap) {
+            return false;
+        }
+        lastSend = now;
+        immediateTickCount++;
+        return true;
+    }
+
+    /**
+     * Sets the minimum time between an extra tick and any other tick.
+     *
+     * @param minimumGap the minimum gap
+     * @param unit the unit of the minimum gap
+     */
+    public void setMinimumGap(long minimumGap, TimeUnit unit) {
+        if (minimumGap < 0) {
+            throw new IllegalArgumentException("Minimum gap must not be negative, was given: " + minimumGap);
+        }
+        this.minimumGap = unit.toNanos(minimumGap);
+    }
+
+    /**
+     * Gets the minimum time between an extra tick and any other tick.
+     *
+     * @param unit the unit to return the minimum gap in
+     * @return the minimum gap
+     */
+    public long getMinimumGap(TimeUnit unit) {
+        return unit.convert(minimumGap, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the time between ticks.
+     *
+     * @param unit the unit to return the period in
+     * @return the period
+     */
+    public long getPeriod(TimeUnit unit) {
+        return unit.convert(period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets how late the last tick was.
+     *
+     * @return the jitter in nanoseconds
+     */
+    public long getLastJitter() {
+        return lastJitter;
+    }
+
+    /**
+     * Gets how late the latest tick was since the statistics were reset.
+     *
+     * @return the jitter in nanoseconds
+     */
+    public long getMaxJitter() {
+        return maxJitter;
+    }
+
+    /**
+     * Gets how late ticks were on average since the statistics were reset.
+     *
+     * @return the jitter in nanoseconds
+     */
+    public long getAverageJitter() {
+        long count = tickCount;
+        return count != 0 ? totalJitter / count : 0;
+    }
+
+    /**
+     * Gets the number of ticks since the statistics were reset.
+     *
+     * @return the tick count
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Gets the number of ticks that were skipped because the sender fell too
+     * far behind, since the statistics were reset.
+     *
+     * @return the skipped tick count
+     */
+    public long getSkippedTickCount() {
+        return skippedTickCount;
+    }
+
+    /**
+     * Gets the number of extra ticks since the statistics were reset.
+     *
+     * @return the extra tick count
+     */
+    public long getImmediateTickCount() {
+        return immediateTickCount;
+    }
+
+    /**
+     * Resets the jitter statistics. This must be called from the thread that
+     * uses the scheduler, or while it is not running.
+     */
+    public void resetStatistics() {
+        lastJitter = 0;
+        maxJitter = 0;
+        totalJitter = 0;
+        tickCount = 0;
+        skippedTickCount = 0;
+        immediateTickCount = 0;
+    }
+}
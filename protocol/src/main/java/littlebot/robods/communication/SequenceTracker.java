@@ -0,0 +1,343 @@
+package littlebot.robods.communication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the indices of packets received from the robot to detect packets
+ * that were lost, arrived out of order or arrived more than once. Since the
+ * robot replies with the index of the driver station packet, a gap means that
+ * either the packet or its reply was lost.
+ * <p/>
+ * Besides running totals, the statistics are kept for a rolling window of
+ * recent time, which is split into buckets that are discarded as they get
+ * too old. The window is only moved forward when packets are received, so
+ * while no packets arrive it still describes the time before that.
+ * <p/>
+ * Packets must be recorded by one thread, but the statistics can be read from
+ * any thread. Reading them is cheap enough to do every frame, and nothing is
+ * allocated while tracking.
+ *
+ * @author Ben Wolsieffer
+ */
+public class SequenceTracker {
+
+    /**
+     * The number of packets before the highest index whose arrival is
+     * remembered, to tell reordered packets from duplicates.
+     */
+    private static final int HISTORY_LENGTH = 64;
+    /**
+     * Jumps forward in the index larger than this are not counted as lost
+     * packets, but start tracking again from the new index.
+     */
+    private static final int MAX_DROPOUT = 3000;
+    /**
+     * Packets that are older than this are not counted as reordered, but
+     * start tracking again from their index.
+     */
+    private static final int MAX_MISORDER = 100;
+
+    private static final int RECEIVED = 0;
+    private static final int LOST = 1;
+    private static final int REORDERED = 2;
+    private static final int DUPLICATES = 3;
+    private static final int GAPS = 4;
+    private static final int LONGEST_GAP = 5;
+    private static final int STAT_COUNT = 6;
+
+    private final long bucketPeriod;
+    private final int bucketCount;
+    /**
+     * The time period each bucket currently holds, counted in bucket periods.
+     */
+    private final long[] bucketEpochs;
+    /**
+     * The statistics of each bucket, {@link #STAT_COUNT} values per bucket.
+     */
+    private final int[] buckets;
+
+    private long currentEpoch;
+
+    private boolean started;
+    private int highestIndex;
+    /**
+     * Bit n is set if the packet n + 1 before the highest index was received.
+     */
+    private long history;
+    /**
+     * Bit n is set if the packet n + 1 before the highest index was counted
+     * as lost since tracking last started, so that only those are taken off
+     * the lost packets if they arrive late.
+     */
+    private long lostHistory;
+    /**
+     * The bucket period each packet in {@link #lostHistory} was counted as
+     * lost in, indexed by the low bits of the packet index.
+     */
+    private final long[] lostEpochs = new long[HISTORY_LENGTH];
+
+    private volatile long totalReceived;
+    private volatile long totalLost;
+    private volatile long totalReordered;
+    private volatile long totalDuplicates;
+    private volatile long resyncCount;
+
+    private volatile int windowReceived;
+    private volatile int windowLost;
+    private volatile int windowReordered;
+    private volatile int windowDuplicates;
+    private volatile int windowGaps;
+    private volatile int windowLongestGap;
+
+    /**
+     * Creates a new tracker with a window of the last 10 seconds, in 1 second
+     * buckets.
+     */
+    public SequenceTracker() {
+        this(10, TimeUnit.SECONDS, 10);
+    }
+
+    /**
+     * Creates a new tracker.
+     *
+     * @param windowLength the length of the rolling window
+     * @param unit the unit of the window length
+     * @param bucketCount the number of buckets the window is split into
+     */
+    public SequenceTracker(long windowLength, TimeUnit unit, int bucketCount) {
+        if (bucketCount <= 0) {
+            throw new IllegalArgumentException("Bucket count must be positive, was given: " + bucketCount);
+        }
+        if (unit.toNanos(windowLength) < bucketCount) {
+            throw new IllegalArgumentException("Window length is too short: " + windowLength + " " + unit);
+        }
+        this.bucketCount = bucketCount;
+        bucketPeriod = unit.toNanos(windowLength) / bucketCount;
+        bucketEpochs = new long[bucketCount];
+        buckets = new int[bucketCount * STAT_COUNT];
+    }
+
+    /**
+     * Records that a packet was received.
+     *
+     * @param index the 16 bit index of the packet
+     * @param now the current time from {@link System#nanoTime()}
+     */
+    public void packetReceived(int index, long now) {
+        int bucket = getBucket(now);
+        index &= 0xFFFF;
+
+        if (!started) {
+            resync(index);
+            started = true;
+        } else {
+            int delta = (short) (index - highestIndex);
+            if (delta > 0 && delta <= MAX_DROPOUT) {
+                int gap = delta - 1;
+                if (gap > 0) {
+                    // Assume the packets in between were lost, until they
+                    // show up late
+                    add(bucket, LOST, gap);
+                    add(bucket, GAPS, 1);
+                    if (gap > buckets[bucket + LONGEST_GAP]) {
+                        buckets[bucket + LONGEST_GAP] = gap;
+                    }
+                    totalLost += gap;
+                }
+                if (delta < HISTORY_LENGTH) {
+                    history = ((history << 1) | 1) << (delta - 1);
+                    lostHistory <<= delta;
+                } else {
+                    history = 0;
+                    lostHistory = 0;
+                }
+                int remembered = Math.min(gap, HISTORY_LENGTH);
+                if (remembered > 0) {
+                    lostHistory |= -1L >>> (HISTORY_LENGTH - remembered);
+                    for (int i = 1; i <= remembered; i++) {
+                        lostEpochs[(index - i) & (HISTORY_LENGTH - 1)] = currentEpoch;
+                    }
+                }
+                highestIndex = index;
+            } else if (delta <= 0 && -delta <= HISTORY_LENGTH
+                    && (delta == 0 || (history & (1L << (-delta - 1))) != 0)) {
+                add(bucket, DUPLICATES, 1);
+                totalDuplicates++;
+                publish();
+                return;
+            } else if (delta < 0 && -delta <= HISTORY_LENGTH) {
+                long bit = 1L << (-delta - 1);
+                history |= bit;
+                add(bucket, REORDERED, 1);
+                totalReordered++;
+                // Packets from before tracking started were never counted as
+                // lost
+                if ((lostHistory & bit) != 0) {
+                    lostHistory &= ~bit;
+                    uncountLost(lostEpochs[index & (HISTORY_LENGTH - 1)]);
+                    totalLost--;
+                }
+            } else if (delta < 0 && -delta <= MAX_MISORDER) {
+                // Too old to tell whether it is a duplicate, so it is counted
+                // as reordered but not taken off the lost packets
+                add(bucket, REORDERED, 1);
+                totalReordered++;
+            } else {
+                // The index jumped too far to be a network problem, such as
+                // when the driver station was restarted
+                resync(index);
+                resyncCount++;
+            }
+        }
+        add(bucket, RECEIVED, 1);
+        totalReceived++;
+        publish();
+    }
+
+    /**
+     * Starts tracking again from the next packet received, without counting
+     * the jump in the index. This should be called from the thread that
+     * records packets when a new connection is established. The statistics
+     * are not reset.
+     */
+    public void restart() {
+        started = false;
+    }
+
+    private void resync(int index) {
+        highestIndex = index;
+        history = 0;
+        lostHistory = 0;
+    }
+
+    /**
+     * Takes a packet off the lost packets of the bucket it was counted in,
+     * unless that bucket has since been reused for a newer period.
+     */
+    private void uncountLost(long epoch) {
+        int i = (int) (((epoch % bucketCount) + bucketCount) % bucketCount);
+        if (bucketEpochs[i] == epoch) {
+            add(i * STAT_COUNT, LOST, -1);
+        }
+    }
+
+    /**
+     * Finds the bucket for the specified time, and clears it if it was last
+     * used for an older period.
+     *
+     * @return the offset of the bucket in {@link #buckets}
+     */
+    private int getBucket(long now) {
+        long epoch = now / bucketPeriod;
+        currentEpoch = epoch;
+        int i = (int) (((epoch % bucketCount) + bucketCount) % bucketCount);
+        if (bucketEpochs[i] != epoch) {
+            bucketEpochs[i] = epoch;
+            for (int s = 0; s < STAT_COUNT; s++) {
+                buckets[i * STAT_COUNT + s] = 0;
+            }
+        }
+        return i * STAT_COUNT;
+    }
+
+    private void add(int bucket, int stat, int value) {
+        buckets[bucket + stat] += value;
+    }
+
+    /**
+     * Sums the buckets that are still in the window and makes the results
+     * visible to other threads.
+     */
+    private void publish() {
+        int received = 0, lost = 0, reordered = 0, duplicates = 0, gaps = 0, longestGap = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            if (currentEpoch - bucketEpochs[i] < bucketCount) {
+                int b = i * STAT_COUNT;
+                received += buckets[b + RECEIVED];
+                lost += buckets[b + LOST];
+                reordered += buckets[b + REORDERED];
+                duplicates += buckets[b + DUPLICATES];
+                gaps += buckets[b + GAPS];
+                longestGap = Math.max(longestGap, buckets[b + LONGEST_GAP]);
+            }
+        }
+        windowReceived = received;
+        windowLost = lost;
+        windowReordered = reordered;
+        windowDuplicates = duplicates;
+        windowGaps = gaps;
+        windowLongestGap = longestGap;
+    }
+
+    /**
+     * Gets the fraction of packets that were lost in the rolling window.
+     *
+     * @return the loss rate, between 0 and 1
+     */
+    public float getLossRate() {
+        int lost = windowLost;
+        int total = windowReceived + lost;
+        return total != 0 ? (float) lost / total : 0;
+    }
+
+    public int getWindowReceived() {
+        return windowReceived;
+    }
+
+    public int getWindowLost() {
+        return windowLost;
+    }
+
+    public int getWindowReordered() {
+        return windowReordered;
+    }
+
+    public int getWindowDuplicates() {
+        return windowDuplicates;
+    }
+
+    /**
+     * Gets the number of times one or more packets were skipped in the rolling
+     * window, including packets that arrived later out of order.
+     *
+     * @return the number of gaps
+     */
+    public int getWindowGaps() {
+        return windowGaps;
+    }
+
+    /**
+     * Gets the most packets that were skipped in a row in the rolling window.
+     *
+     * @return the longest gap
+     */
+    public int getWindowLongestGap() {
+        return windowLongestGap;
+    }
+
+    public long getTotalReceived() {
+        return totalReceived;
+    }
+
+    public long getTotalLost() {
+        return totalLost;
+    }
+
+    public long getTotalReordered() {
+        return totalReordered;
+    }
+
+    public long getTotalDuplicates() {
+        return totalDuplicates;
+    }
+
+    /**
+     * Gets the number of times the index jumped too far to be counted, and
+     * tracking was started again from the new index.
+     *
+     * @return the number of resynchronizations
+     */
+    public long getResyncCount() {
+        return resyncCount;
+    }
+}
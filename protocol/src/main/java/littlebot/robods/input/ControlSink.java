@@ -0,0 +1,63 @@
+package littlebot.robods.input;
+
+/**
+ * Where mapped input goes. This has the parts of the app's control database
+ * that an input source needs, so the mapping can be used and tested without
+ * the app. Components are registered once, and their values are then set by
+ * handle, which should not allocate anything.
+ *
+ * @author Ben Wolsieffer
+ */
+public interface ControlSink {
+
+    /**
+     * Returned instead of a handle when a component is not registered.
+     */
+    int NO_HANDLE = -1;
+
+    int getAxisHandle(int joystick, int axis);
+
+    int getButtonHandle(int joystick, int button);
+
+    int getPOVHatHandle(int joystick, int povHat);
+
+    /**
+     * Registers an axis, if it is not already registered.
+     *
+     * @param joystick the index of the joystick
+     * @param axis the index of the axis
+     * @return the handle of the axis
+     */
+    int registerAxis(int joystick, int axis);
+
+    int registerButton(int joystick, int button);
+
+    int registerPOVHat(int joystick, int povHat);
+
+    void unregisterAxis(int joystick, int axis);
+
+    void unregisterButton(int joystick, int button);
+
+    void unregisterPOVHat(int joystick, int povHat);
+
+    void setAxis(int handle, float value);
+
+    void setButton(int handle, boolean pressed);
+
+    /**
+     * Sets the angle of a POV hat.
+     *
+     * @param handle the handle of the POV hat
+     * @param angle the angle in degrees clockwise from up, or -1 if the hat
+     * is not pressed
+     */
+    void setPOVHat(int handle, int angle);
+
+    /**
+     * Starts a group of changes that should be sent together. Every call must
+     * be followed by a call to {@link #endBatch()}.
+     */
+    void beginBatch();
+
+    void endBatch();
+}
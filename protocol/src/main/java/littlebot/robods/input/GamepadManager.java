@@ -0,0 +1,167 @@
+package littlebot.robods.input;
+
+/**
+ * Keeps track of the connected gamepads, and gives each one its own joystick.
+ * Each joystick remembers the last gamepad that used it, so a gamepad that is
+ * disconnected and connected again with the same device ID gets its joystick
+ * back if nothing else took it in the meantime. Other gamepads get the lowest
+ * free joystick that no gamepad has used, or the lowest free one if they all
+ * have been.
+ * <p/>
+ * Finding the mapper for an event is a scan of a few array elements, so it
+ * can be done for every event without allocating anything. Like the mappers,
+ * a manager must only be used by one thread.
+ *
+ * @author Ben Wolsieffer
+ */
+public class GamepadManager {
+
+    private static final int NO_DEVICE = -1;
+
+    private final ControlSink sink;
+    private final int firstJoystick;
+
+    /*
+     * Indexed by joystick, starting at firstJoystick.
+     */
+    private final int[] deviceIds;
+    private final int[] lastDeviceIds;
+    private final GamepadMapper[] mappers;
+
+    /**
+     * Creates a manager.
+     *
+     * @param sink where to send the input
+     * @param firstJoystick the joystick to give the first gamepad
+     * @param maxGamepads how many gamepads can be used at once
+     */
+    public GamepadManager(ControlSink sink, int firstJoystick, int maxGamepads) {
+        if (firstJoystick < 0) {
+            throw new IllegalArgumentException("Invalid joystick index: " + firstJoystick);
+        }
+        if (maxGamepads < 1) {
+            throw new IllegalArgumentException("At least one gamepad must be allowed");
+        }
+        this.sink = sink;
+        this.firstJoystick = firstJoystick;
+        deviceIds = new int[maxGamepads];
+        lastDeviceIds = new int[maxGamepads];
+        mappers = new GamepadMapper[maxGamepads];
+        for (int i = 0; i < maxGamepads; i++) {
+            deviceIds[i] = NO_DEVICE;
+            lastDeviceIds[i] = NO_DEVICE;
+        }
+    }
+
+    /**
+     * Starts using a gamepad. If the gamepad is already in use, nothing
+     * changes.
+     *
+     * @param deviceId the ID of the gamepad, which must not be negative
+     * @param mapping the mapping to use for it
+     * @return the mapper for the gamepad, or null if all the joysticks are
+     * already in use
+     */
+    public GamepadMapper addDevice(int deviceId, GamepadMapping mapping) {
+        if (deviceId < 0) {
+            throw new IllegalArgumentException("Invalid device ID: " + deviceId);
+        }
+        GamepadMapper mapper = getMapper(deviceId);
+        if (mapper != null) {
+            return mapper;
+        }
+        int joystick = findFreeJoystick(deviceId);
+        if (joystick < 0) {
+            return null;
+        }
+        mapper = new GamepadMapper(mapping, sink, firstJoystick + joystick);
+        mapper.attach();
+        deviceIds[joystick] = deviceId;
+        lastDeviceIds[joystick] = deviceId;
+        mappers[joystick] = mapper;
+        return mapper;
+    }
+
+    /**
+     * Finds the joystick to give a gamepad: the one it used last if it is
+     * free, otherwise the lowest free one that no gamepad has used, otherwise
+     * the lowest free one.
+     *
+     * @param deviceId the ID of the gamepad
+     * @return the joystick, starting at zero, or -1 if none are free
+     */
+    private int findFreeJoystick(int deviceId) {
+        int lowestFree = -1;
+        int lowestUnused = -1;
+        for (int i = 0; i < deviceIds.length; i++) {
+            if (deviceIds[i] != NO_DEVICE) {
+                continue;
+            }
+            if (lastDeviceIds[i] == deviceId) {
+                return i;
+            }
+            if (lowestFree < 0) {
+                lowestFree = i;
+            }
+            if (lowestUnused < 0 && lastDeviceIds[i] == NO_DEVICE) {
+                lowestUnused = i;
+            }
+        }
+        return lowestUnused >= 0 ? lowestUnused : lowestFree;
+    }
+
+    /**
+     * Stops using a gamepad, releasing everything it was pressing.
+     *
+     * @param deviceId the ID of the gamepad
+     * @return true if the gamepad was in use
+     */
+    public boolean removeDevice(int deviceId) {
+        for (int i = 0; i < deviceIds.length; i++) {
+            if (deviceIds[i] == deviceId) {
+                GamepadMapper mapper = mappers[i];
+                deviceIds[i] = NO_DEVICE;
+                mappers[i] = null;
+                mapper.detach();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops using all the gamepads.
+     */
+    public void removeAllDevices() {
+        for (int deviceId : deviceIds) {
+            if (deviceId != NO_DEVICE) {
+                removeDevice(deviceId);
+            }
+        }
+    }
+
+    /**
+     * Gets the mapper for a gamepad.
+     *
+     * @param deviceId the ID of the gamepad
+     * @return the mapper, or null if the gamepad is not in use
+     */
+    public GamepadMapper getMapper(int deviceId) {
+        for (int i = 0; i < deviceIds.length; i++) {
+            if (deviceIds[i] == deviceId) {
+                return mappers[i];
+            }
+        }
+        return null;
+    }
+
+    public int getDeviceCount() {
+        int count = 0;
+        for (int deviceId : deviceIds) {
+            if (deviceId != NO_DEVICE) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,334 @@
+package littlebot.robods.input;
+
+import java.util.Arrays;
+
+/**
+ * Applies the input of one gamepad to a joystick in a {@link ControlSink},
+ * through a {@link GamepadMapping}. The joystick's components are registered
+ * when the mapper is attached, and after that each event is a few array
+ * lookups and a call to the sink, without allocating anything.
+ * <p/>
+ * Every sample of every axis should be passed to
+ * {@link #axisChanged(int, float)}, including the older samples that are
+ * batched into one event, so the robot sees the gamepad at the rate the
+ * device reports it rather than the rate events are delivered. Samples that
+ * do not change an axis are dropped here. The samples of one event can be
+ * grouped with {@link #beginEvent()} and {@link #endEvent()}, so they are
+ * sent together.
+ * <p/>
+ * A mapper must only be used by one thread.
+ *
+ * @author Ben Wolsieffer
+ */
+public class GamepadMapper {
+
+    /**
+     * How far a hat axis must be pushed to count as pressed.
+     */
+    private static final float HAT_THRESHOLD = 0.5f;
+
+    /**
+     * POV hat angles, indexed by (y + 1) * 3 + x + 1, where x and y are -1, 0
+     * or 1, and -1 is left or up.
+     */
+    private static final int[] HAT_ANGLES = {
+            315, 0, 45,
+            270, -1, 90,
+            225, 180, 135
+    };
+
+    private static final int DPAD_UP_BIT = 1;
+    private static final int DPAD_RIGHT_BIT = 2;
+    private static final int DPAD_DOWN_BIT = 4;
+    private static final int DPAD_LEFT_BIT = 8;
+
+    private final GamepadMapping mapping;
+    private final ControlSink sink;
+    private final int joystick;
+
+    /*
+     * Indexed by the index of the target component.
+     */
+    private final int[] axisHandles;
+    private final int[] buttonHandles;
+    private final int[] povHatHandles;
+    /**
+     * Whether each target component was registered by this mapper, rather
+     * than already being used by something else, so that it is only
+     * unregistered if nothing else is using it.
+     */
+    private final boolean[] ownedAxes;
+    private final boolean[] ownedButtons;
+    private final boolean[] ownedPOVHats;
+
+    /*
+     * The state of the gamepad.
+     */
+    private final float[] sourceValues = new float[GamepadMapping.MAX_AXIS_CODE];
+    private final boolean[] keysPressed = new boolean[GamepadMapping.MAX_KEY_CODE];
+    /**
+     * The number of keys that are pressing each button.
+     */
+    private final int[] buttonPressCounts;
+    private final int[] hatXs;
+    private final int[] hatYs;
+    private final int[] dpadBits;
+    private final int[] povHatAngles;
+
+    private boolean attached;
+
+    /**
+     * Creates a mapper. It does nothing until it is attached.
+     *
+     * @param mapping the mapping
+     * @param sink where to send the input
+     * @param joystick the index of the joystick to map the gamepad to
+     */
+    public GamepadMapper(GamepadMapping mapping, ControlSink sink, int joystick) {
+        if (joystick < 0) {
+            throw new IllegalArgumentException("Invalid joystick index: " + joystick);
+        }
+        this.mapping = mapping;
+        this.sink = sink;
+        this.joystick = joystick;
+        int axisCount = max(mapping.getTargetAxes()) + 1;
+        int buttonCount = max(mapping.getTargetButtons()) + 1;
+        int povHatCount = max(mapping.getTargetPOVHats()) + 1;
+        axisHandles = new int[axisCount];
+        buttonHandles = new int[buttonCount];
+        povHatHandles = new int[povHatCount];
+        ownedAxes = new boolean[axisCount];
+        ownedButtons = new boolean[buttonCount];
+        ownedPOVHats = new boolean[povHatCount];
+        buttonPressCounts = new int[buttonCount];
+        hatXs = new int[povHatCount];
+        hatYs = new int[povHatCount];
+        dpadBits = new int[povHatCount];
+        povHatAngles = new int[povHatCount];
+        reset();
+    }
+
+    private static int max(int[] array) {
+        int max = -1;
+        for (int value : array) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    public GamepadMapping getMapping() {
+        return mapping;
+    }
+
+    public int getJoystickIndex() {
+        return joystick;
+    }
+
+    public boolean isAttached() {
+        return attached;
+    }
+
+    private void reset() {
+        Arrays.fill(sourceValues, 0);
+        Arrays.fill(keysPressed, false);
+        Arrays.fill(buttonPressCounts, 0);
+        Arrays.fill(hatXs, 0);
+        Arrays.fill(hatYs, 0);
+        Arrays.fill(dpadBits, 0);
+        Arrays.fill(povHatAngles, -1);
+    }
+
+    /**
+     * Registers the components of the joystick that the mapping uses. Any
+     * that are already registered are shared with whatever registered them.
+     */
+    public void attach() {
+        if (attached) {
+            return;
+        }
+        for (int axis : mapping.getTargetAxes()) {
+            axisHandles[axis] = sink.getAxisHandle(joystick, axis);
+            ownedAxes[axis] = axisHandles[axis] == ControlSink.NO_HANDLE;
+            if (ownedAxes[axis]) {
+                axisHandles[axis] = sink.registerAxis(joystick, axis);
+            }
+        }
+        for (int button : mapping.getTargetButtons()) {
+            buttonHandles[button] = sink.getButtonHandle(joystick, button);
+            ownedButtons[button] = buttonHandles[button] == ControlSink.NO_HANDLE;
+            if (ownedButtons[button]) {
+                buttonHandles[button] = sink.registerButton(joystick, button);
+            }
+        }
+        for (int povHat : mapping.getTargetPOVHats()) {
+            povHatHandles[povHat] = sink.getPOVHatHandle(joystick, povHat);
+            ownedPOVHats[povHat] = povHatHandles[povHat] == ControlSink.NO_HANDLE;
+            if (ownedPOVHats[povHat]) {
+                povHatHandles[povHat] = sink.registerPOVHat(joystick, povHat);
+            }
+        }
+        reset();
+        attached = true;
+    }
+
+    /**
+     * Releases everything the gamepad was pressing, and unregisters the
+     * components that were registered by {@link #attach()}. This should be
+     * called when the gamepad is disconnected.
+     */
+    public void detach() {
+        if (!attached) {
+            return;
+        }
+        attached = false;
+        sink.beginBatch();
+        try {
+            for (int axis : mapping.getTargetAxes()) {
+                sink.setAxis(axisHandles[axis], 0);
+            }
+            for (int button : mapping.getTargetButtons()) {
+                sink.setButton(buttonHandles[button], false);
+            }
+            for (int povHat : mapping.getTargetPOVHats()) {
+                sink.setPOVHat(povHatHandles[povHat], -1);
+            }
+        } finally {
+            sink.endBatch();
+        }
+        for (int axis : mapping.getTargetAxes()) {
+            if (ownedAxes[axis]) {
+                sink.unregisterAxis(joystick, axis);
+            }
+        }
+        for (int button : mapping.getTargetButtons()) {
+            if (ownedButtons[button]) {
+                sink.unregisterButton(joystick, button);
+            }
+        }
+        for (int povHat : mapping.getTargetPOVHats()) {
+            if (ownedPOVHats[povHat]) {
+                sink.unregisterPOVHat(joystick, povHat);
+            }
+        }
+        reset();
+    }
+
+    /**
+     * Starts the samples of one event. Must be followed by
+     * {@link #endEvent()}, in a finally block.
+     */
+    public void beginEvent() {
+        sink.beginBatch();
+    }
+
+    public void endEvent() {
+        sink.endBatch();
+    }
+
+    /**
+     * Handles a sample of a gamepad axis.
+     *
+     * @param axisCode the code of the axis
+     * @param value the value of the axis
+     * @return true if the axis is mapped
+     */
+    public boolean axisChanged(int axisCode, float value) {
+        byte kind = mapping.getAxisKind(axisCode);
+        if (!attached || kind == GamepadMapping.NONE) {
+            return false;
+        }
+        if (value == sourceValues[axisCode]) {
+            return true;
+        }
+        sourceValues[axisCode] = value;
+        int target = mapping.getAxisTarget(axisCode);
+        switch (kind) {
+            case GamepadMapping.AXIS:
+                float scaled = value * mapping.getAxisScale(axisCode);
+                sink.setAxis(axisHandles[target], Math.max(-1, Math.min(1, scaled)));
+                break;
+            case GamepadMapping.HAT_X:
+                hatXs[target] = hatDirection(value);
+                updatePOVHat(target);
+                break;
+            case GamepadMapping.HAT_Y:
+                hatYs[target] = hatDirection(value);
+                updatePOVHat(target);
+                break;
+        }
+        return true;
+    }
+
+    private static int hatDirection(float value) {
+        return value >= HAT_THRESHOLD ? 1 : value <= -HAT_THRESHOLD ? -1 : 0;
+    }
+
+    /**
+     * Handles a gamepad key being pressed or released. Repeated presses of a
+     * key that is already pressed are ignored.
+     *
+     * @param keyCode the code of the key
+     * @param pressed true if the key was pressed
+     * @return true if the key is mapped
+     */
+    public boolean keyChanged(int keyCode, boolean pressed) {
+        byte kind = mapping.getKeyKind(keyCode);
+        if (!attached || kind == GamepadMapping.NONE) {
+            return false;
+        }
+        if (pressed == keysPressed[keyCode]) {
+            return true;
+        }
+        keysPressed[keyCode] = pressed;
+        int target = mapping.getKeyTarget(keyCode);
+        switch (kind) {
+            case GamepadMapping.BUTTON:
+                int count = buttonPressCounts[target] += pressed ? 1 : -1;
+                // Only the first key to press the button and the last to
+                // release it change anything
+                if (count == (pressed ? 1 : 0)) {
+                    sink.setButton(buttonHandles[target], pressed);
+                }
+                break;
+            case GamepadMapping.DPAD_UP:
+                setDPadBit(target, DPAD_UP_BIT, pressed);
+                break;
+            case GamepadMapping.DPAD_RIGHT:
+                setDPadBit(target, DPAD_RIGHT_BIT, pressed);
+                break;
+            case GamepadMapping.DPAD_DOWN:
+                setDPadBit(target, DPAD_DOWN_BIT, pressed);
+                break;
+            case GamepadMapping.DPAD_LEFT:
+                setDPadBit(target, DPAD_LEFT_BIT, pressed);
+                break;
+        }
+        return true;
+    }
+
+    private void setDPadBit(int povHat, int bit, boolean pressed) {
+        if (pressed) {
+            dpadBits[povHat] |= bit;
+        } else {
+            dpadBits[povHat] &= ~bit;
+        }
+        updatePOVHat(povHat);
+    }
+
+    /**
+     * Combines the hat axes and directional pad keys of a POV hat, and sends
+     * the angle if it changed.
+     */
+    private void updatePOVHat(int povHat) {
+        int bits = dpadBits[povHat];
+        int x = hatXs[povHat] + ((bits & DPAD_RIGHT_BIT) != 0 ? 1 : 0) - ((bits & DPAD_LEFT_BIT) != 0 ? 1 : 0);
+        int y = hatYs[povHat] + ((bits & DPAD_DOWN_BIT) != 0 ? 1 : 0) - ((bits & DPAD_UP_BIT) != 0 ? 1 : 0);
+        x = Math.max(-1, Math.min(1, x));
+        y = Math.max(-1, Math.min(1, y));
+        int angle = HAT_ANGLES[(y + 1) * 3 + x + 1];
+        if (angle != povHatAngles[povHat]) {
+            povHatAngles[povHat] = angle;
+            sink.setPOVHat(povHatHandles[povHat], angle);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package littlebot.robods.input;
+
+import java.util.Arrays;
+
+/**
+ * Maps the axes and keys of a gamepad to the axes, buttons and POV hats of a
+ * driver station joystick. The axis and key codes are the ones Android uses in
+ * <code>MotionEvent</code> and <code>KeyEvent</code>, and the most common ones
+ * are defined here so that this does not depend on Android.
+ * <p/>
+ * The mapping is kept as tables indexed by axis code and key code, which are
+ * filled in as things are mapped, so looking up where an event goes is a
+ * single array access. A mapping must not be changed once a
+ * {@link GamepadMapper} is using it.
+ *
+ * @author Ben Wolsieffer
+ */
+public class GamepadMapping {
+
+    /*
+     * Axis codes, from android.view.MotionEvent.
+     */
+    public static final int AXIS_X = 0;
+    public static final int AXIS_Y = 1;
+    public static final int AXIS_Z = 11;
+    public static final int AXIS_RX = 12;
+    public static final int AXIS_RY = 13;
+    public static final int AXIS_RZ = 14;
+    public static final int AXIS_HAT_X = 15;
+    public static final int AXIS_HAT_Y = 16;
+    public static final int AXIS_LTRIGGER = 17;
+    public static final int AXIS_RTRIGGER = 18;
+    public static final int AXIS_GAS = 22;
+    public static final int AXIS_BRAKE = 23;
+
+    /**
+     * Axis codes must be less than this.
+     */
+    public static final int MAX_AXIS_CODE = 64;
+
+    /*
+     * Key codes, from android.view.KeyEvent.
+     */
+    public static final int KEYCODE_BACK = 4;
+    public static final int KEYCODE_DPAD_UP = 19;
+    public static final int KEYCODE_DPAD_DOWN = 20;
+    public static final int KEYCODE_DPAD_LEFT = 21;
+    public static final int KEYCODE_DPAD_RIGHT = 22;
+    public static final int KEYCODE_BUTTON_A = 96;
+    public static final int KEYCODE_BUTTON_B = 97;
+    public static final int KEYCODE_BUTTON_X = 99;
+    public static final int KEYCODE_BUTTON_Y = 100;
+    public static final int KEYCODE_BUTTON_L1 = 102;
+    public static final int KEYCODE_BUTTON_R1 = 103;
+    public static final int KEYCODE_BUTTON_L2 = 104;
+    public static final int KEYCODE_BUTTON_R2 = 105;
+    public static final int KEYCODE_BUTTON_THUMBL = 106;
+    public static final int KEYCODE_BUTTON_THUMBR = 107;
+    public static final int KEYCODE_BUTTON_START = 108;
+    public static final int KEYCODE_BUTTON_SELECT = 109;
+
+    /**
+     * Key codes must be less than this.
+     */
+    public static final int MAX_KEY_CODE = 512;
+
+    /*
+     * What a source axis or key is mapped to.
+     */
+    static final byte NONE = 0;
+    static final byte AXIS = 1;
+    static final byte BUTTON = 2;
+    static final byte HAT_X = 3;
+    static final byte HAT_Y = 4;
+    static final byte DPAD_UP = 5;
+    static final byte DPAD_RIGHT = 6;
+    static final byte DPAD_DOWN = 7;
+    static final byte DPAD_LEFT = 8;
+
+    private final byte[] axisKinds = new byte[MAX_AXIS_CODE];
+    private final int[] axisTargets = new int[MAX_AXIS_CODE];
+    private final float[] axisScales = new float[MAX_AXIS_CODE];
+    private final byte[] keyKinds = new byte[MAX_KEY_CODE];
+    private final int[] keyTargets = new int[MAX_KEY_CODE];
+
+    /*
+     * The distinct source axes and targets, in the order they were mapped.
+     */
+    private int[] sourceAxes = new int[0];
+    private int[] targetAxes = new int[0];
+    private int[] targetButtons = new int[0];
+    private int[] targetPOVHats = new int[0];
+
+    /**
+     * Creates the mapping that the FRC driver station uses for an Xbox
+     * controller, which most Android gamepads report the same way:
+     * <ul>
+     * <li>axes 0 and 1 are the left stick, 2 and 3 are the left and right
+     * triggers, and 4 and 5 are the right stick</li>
+     * <li>buttons 0 to 9 are A, B, X, Y, left and right bumper, back, start,
+     * and the left and right stick buttons</li>
+     * <li>POV hat 0 is the directional pad, whether it is reported as axes or
+     * keys</li>
+     * </ul>
+     *
+     * @return a new mapping
+     */
+    public static GamepadMapping createStandard() {
+        GamepadMapping mapping = new GamepadMapping();
+        mapping.mapAxis(AXIS_X, 0, 1);
+        mapping.mapAxis(AXIS_Y, 1, 1);
+        mapping.mapAxis(AXIS_LTRIGGER, 2, 1);
+        mapping.mapAxis(AXIS_BRAKE, 2, 1);
+        mapping.mapAxis(AXIS_RTRIGGER, 3, 1);
+        mapping.mapAxis(AXIS_GAS, 3, 1);
+        mapping.mapAxis(AXIS_Z, 4, 1);
+        mapping.mapAxis(AXIS_RZ, 5, 1);
+        mapping.mapButton(KEYCODE_BUTTON_A, 0);
+        mapping.mapButton(KEYCODE_BUTTON_B, 1);
+        mapping.mapButton(KEYCODE_BUTTON_X, 2);
+        mapping.mapButton(KEYCODE_BUTTON_Y, 3);
+        mapping.mapButton(KEYCODE_BUTTON_L1, 4);
+        mapping.mapButton(KEYCODE_BUTTON_R1, 5);
+        mapping.mapButton(KEYCODE_BUTTON_SELECT, 6);
+        mapping.mapButton(KEYCODE_BACK, 6);
+        mapping.mapButton(KEYCODE_BUTTON_START, 7);
+        mapping.mapButton(KEYCODE_BUTTON_THUMBL, 8);
+        mapping.mapButton(KEYCODE_BUTTON_THUMBR, 9);
+        mapping.mapPOVHatAxes(AXIS_HAT_X, AXIS_HAT_Y, 0);
+        mapping.mapPOVHatKeys(0);
+        return mapping;
+    }
+
+    private static void checkAxisCode(int axisCode) {
+        if (axisCode < 0 || axisCode >= MAX_AXIS_CODE) {
+            throw new IllegalArgumentException("Invalid axis code: " + axisCode);
+        }
+    }
+
+    private static void checkKeyCode(int keyCode) {
+        if (keyCode < 0 || keyCode >= MAX_KEY_CODE) {
+            throw new IllegalArgumentException("Invalid key code: " + keyCode);
+        }
+    }
+
+    private static void checkTarget(String name, int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Invalid " + name + " index: " + index);
+        }
+    }
+
+    private static int[] addDistinct(int[] array, int value) {
+        for (int element : array) {
+            if (element == value) {
+                return array;
+            }
+        }
+        int[] newArray = Arrays.copyOf(array, array.length + 1);
+        newArray[array.length] = value;
+        return newArray;
+    }
+
+    private void setAxis(int axisCode, byte kind, int target, float scale) {
+        if (axisKinds[axisCode] != NONE) {
+            throw new IllegalArgumentException("Axis " + axisCode + " is already mapped");
+        }
+        axisKinds[axisCode] = kind;
+        axisTargets[axisCode] = target;
+        axisScales[axisCode] = scale;
+        sourceAxes = addDistinct(sourceAxes, axisCode);
+    }
+
+    private void setKey(int keyCode, byte kind, int target) {
+        if (keyKinds[keyCode] != NONE) {
+            throw new IllegalArgumentException("Key " + keyCode + " is already mapped");
+        }
+        keyKinds[keyCode] = kind;
+        keyTargets[keyCode] = target;
+    }
+
+    /**
+     * Maps a gamepad axis to a joystick axis. Several gamepad axes can be
+     * mapped to the same joystick axis, in which case the one that changed
+     * last is used.
+     *
+     * @param axisCode the code of the gamepad axis
+     * @param axis the index of the joystick axis
+     * @param scale what to multiply the value by, such as -1 to invert it
+     * @throws IllegalArgumentException if the gamepad axis is already mapped
+     */
+    public void mapAxis(int axisCode, int axis, float scale) {
+        checkAxisCode(axisCode);
+        checkTarget("axis", axis);
+        setAxis(axisCode, AXIS, axis, scale);
+        targetAxes = addDistinct(targetAxes, axis);
+    }
+
+    /**
+     * Maps a gamepad key to a joystick button. Several keys can be mapped to
+     * the same button, which is pressed while any of them are.
+     *
+     * @param keyCode the code of the key
+     * @param button the index of the joystick button
+     * @throws IllegalArgumentException if the key is already mapped
+     */
+    public void mapButton(int keyCode, int button) {
+        checkKeyCode(keyCode);
+        checkTarget("button", button);
+        setKey(keyCode, BUTTON, button);
+        targetButtons = addDistinct(targetButtons, button);
+    }
+
+    /**
+     * Maps a pair of gamepad axes that report a hat, where -1 is left or up
+     * and 1 is right or down, to a joystick POV hat.
+     *
+     * @param xAxisCode the code of the horizontal axis
+     * @param yAxisCode the code of the vertical axis
+     * @param povHat the index of the joystick POV hat
+     */
+    public void mapPOVHatAxes(int xAxisCode, int yAxisCode, int povHat) {
+        checkAxisCode(xAxisCode);
+        checkAxisCode(yAxisCode);
+        checkTarget("POV hat", povHat);
+        setAxis(xAxisCode, HAT_X, povHat, 1);
+        setAxis(yAxisCode, HAT_Y, povHat, 1);
+        targetPOVHats = addDistinct(targetPOVHats, povHat);
+    }
+
+    /**
+     * Maps the directional pad keys to a joystick POV hat. A hat can be mapped
+     * to both keys and axes, because some gamepads report both.
+     *
+     * @param povHat the index of the joystick POV hat
+     */
+    public void mapPOVHatKeys(int povHat) {
+        checkTarget("POV hat", povHat);
+        setKey(KEYCODE_DPAD_UP, DPAD_UP, povHat);
+        setKey(KEYCODE_DPAD_RIGHT, DPAD_RIGHT, povHat);
+        setKey(KEYCODE_DPAD_DOWN, DPAD_DOWN, povHat);
+        setKey(KEYCODE_DPAD_LEFT, DPAD_LEFT, povHat);
+        targetPOVHats = addDistinct(targetPOVHats, povHat);
+    }
+
+    /**
+     * Gets the codes of the gamepad axes that are mapped, which are the ones
+     * that need to be read from each motion event.
+     *
+     * @return the axis codes, which must not be modified
+     */
+    public int[] getSourceAxes() {
+        return sourceAxes;
+    }
+
+    /**
+     * Checks whether a key is mapped to something.
+     *
+     * @param keyCode the code of the key
+     * @return true if the key is mapped
+     */
+    public boolean isKeyMapped(int keyCode) {
+        return keyCode >= 0 && keyCode < MAX_KEY_CODE && keyKinds[keyCode] != NONE;
+    }
+
+    /*
+     * Used by GamepadMapper.
+     */
+
+    byte getAxisKind(int axisCode) {
+        return axisCode >= 0 && axisCode < MAX_AXIS_CODE ? axisKinds[axisCode] : NONE;
+    }
+
+    int getAxisTarget(int axisCode) {
+        return axisTargets[axisCode];
+    }
+
+    float getAxisScale(int axisCode) {
+        return axisScales[axisCode];
+    }
+
+    byte getKeyKind(int keyCode) {
+        return keyCode >= 0 && keyCode < MAX_KEY_CODE ? keyKinds[keyCode] : NONE;
+    }
+
+    int getKeyTarget(int keyCode) {
+        return keyTargets[keyCode];
+    }
+
+    int[] getTargetAxes() {
+        return targetAxes;
+    }
+
+    int[] getTargetButtons() {
+        return targetButtons;
+    }
+
+    int[] getTargetPOVHats() {
+        return targetPOVHats;
+    }
+}
@@ -0,0 +1,253 @@
+package littlebot.robods.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import littlebot.robods.communication.DriverStationPacket;
+
+/**
+ * Records what the driver does, as fixed size binary records in a memory
+ * mapped file. The file is allocated to its full size when the journal is
+ * opened, and when it is full the oldest records are overwritten, so it
+ * always holds the most recent changes. Recording a change only writes a few
+ * values into the mapped memory, which does not allocate anything or make
+ * any system calls, so it can be done from the touch path.
+ * <p/>
+ * The file starts with a header:
+ * <pre>
+ * offset  size  contents
+ *      0     4  magic number, {@link #MAGIC}
+ *      4     4  format version, {@link #VERSION}
+ *      8     4  capacity in records
+ *     12     4  record length, {@link #RECORD_LENGTH}
+ *     16     8  wall clock time when the journal was opened, in milliseconds
+ *     24     8  total number of records written, including overwritten ones
+ * </pre>
+ * It is followed by the records, each of which is:
+ * <pre>
+ * offset  size  contents
+ *      0     8  nanoseconds since the journal was opened, always increasing
+ *      8     1  {@link RecordType} code
+ *      9     1  joystick index
+ *     10     2  axis, button or POV hat index
+ *     12     4  value: float bits of an axis, 1 if a button is pressed, POV
+ *               hat angle, mode ordinal, or 1 if the robot is enabled
+ * </pre>
+ * All values are big endian. The records are a ring, and the oldest one is at
+ * the total count modulo the capacity.
+ * <p/>
+ * Once the ring is full, each record is written over the oldest one before
+ * it is counted. The timestamp is written first and the type last, so if the
+ * app dies in between, the oldest record has a timestamp later than the
+ * newest one, and {@link InputJournalReader} skips it.
+ * <p/>
+ * Several threads can record at the same time. Each one reserves a record by
+ * incrementing a counter, and then the records are written and counted in
+ * the order they were reserved. A thread only waits for threads that reserved
+ * a record before it to finish writing theirs, which is only a few values.
+ * Use {@link InputJournalReader} to read it back.
+ *
+ * @author Ben Wolsieffer
+ */
+public class InputJournal implements Closeable {
+
+    public static final int MAGIC = 0x52444a4c; // "RDJL"
+    public static final int VERSION = 1;
+
+    public static final int HEADER_LENGTH = 32;
+    public static final int RECORD_LENGTH = 16;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int CAPACITY_OFFSET = 8;
+    static final int RECORD_LENGTH_OFFSET = 12;
+    static final int START_TIME_OFFSET = 16;
+    static final int COUNT_OFFSET = 24;
+
+    /**
+     * The page size assumed when touching the file to allocate it.
+     */
+    private static final int PAGE_SIZE = 4096;
+
+    static final int TYPE_OFFSET = 8;
+    static final int JOYSTICK_OFFSET = 9;
+    static final int INDEX_OFFSET = 10;
+    static final int VALUE_OFFSET = 12;
+
+    /**
+     * The kinds of records.
+     */
+    public enum RecordType {
+        AXIS(1),
+        BUTTON(2),
+        POV_HAT(3),
+        MODE(4),
+        ENABLED(5);
+
+        private static final RecordType[] BY_CODE = new RecordType[6];
+
+        static {
+            for (RecordType type : values()) {
+                BY_CODE[type.code] = type;
+            }
+        }
+
+        private final byte code;
+
+        RecordType(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * Gets the type with a certain code.
+         *
+         * @param code the code stored in a record
+         * @return the type, or null if the code is unknown
+         */
+        static RecordType fromCode(int code) {
+            return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long startNanos;
+    /**
+     * The number of records that have been reserved by a thread.
+     */
+    private final AtomicLong reservedCount = new AtomicLong();
+    /**
+     * The number of records that are complete. Records are committed in
+     * order, so this is also the number of the next record to commit.
+     */
+    private final AtomicLong count = new AtomicLong();
+    /**
+     * Only used by the thread that is committing a record.
+     */
+    private long lastTimestamp;
+    private volatile boolean closed;
+
+    /**
+     * Opens a new journal, replacing the file if it exists.
+     *
+     * @param file the file to write to
+     * @param capacity the number of records to keep
+     * @throws IOException if the file could not be created
+     */
+    public InputJournal(File file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_LENGTH) / RECORD_LENGTH) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        int length = HEADER_LENGTH + capacity * RECORD_LENGTH;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(length);
+            // The mapping stays valid after the file is closed
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } finally {
+            randomAccessFile.close();
+        }
+        // The file starts out sparse, so write to every page to make the file
+        // system allocate it now instead of on the first record of each page
+        for (int i = 0; i < length; i += PAGE_SIZE) {
+            buffer.put(i, (byte) 0);
+        }
+        startNanos = System.nanoTime();
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(RECORD_LENGTH_OFFSET, RECORD_LENGTH);
+        buffer.putLong(START_TIME_OFFSET, System.currentTimeMillis());
+        buffer.putLong(COUNT_OFFSET, 0);
+    }
+
+    public void recordAxis(int joystick, int axis, float value) {
+        record(RecordType.AXIS, joystick, axis, Float.floatToRawIntBits(value));
+    }
+
+    public void recordButton(int joystick, int button, boolean pressed) {
+        record(RecordType.BUTTON, joystick, button, pressed ? 1 : 0);
+    }
+
+    public void recordPOVHat(int joystick, int povHat, int angle) {
+        record(RecordType.POV_HAT, joystick, povHat, angle);
+    }
+
+    public void recordMode(DriverStationPacket.Mode mode) {
+        record(RecordType.MODE, 0, 0, mode.ordinal());
+    }
+
+    public void recordEnabled(boolean enabled) {
+        record(RecordType.ENABLED, 0, 0, enabled ? 1 : 0);
+    }
+
+    private void record(RecordType type, int joystick, int index, int value) {
+        if (closed) {
+            return;
+        }
+        long record = reservedCount.getAndIncrement();
+        int position = HEADER_LENGTH + (int) (record % capacity) * RECORD_LENGTH;
+
+        // Wait for the threads that reserved the previous records, which
+        // only have a few values to write. The slot may still hold the oldest
+        // counted record, so it is only written once this record is next.
+        while (count.get() != record) {
+            Thread.yield();
+        }
+        long timestamp = System.nanoTime() - startNanos;
+        if (timestamp <= lastTimestamp) {
+            timestamp = lastTimestamp + 1;
+        }
+        lastTimestamp = timestamp;
+        // The timestamp marks the slot as torn until the record is counted
+        buffer.putLong(position, timestamp);
+        buffer.put(position + JOYSTICK_OFFSET, (byte) joystick);
+        buffer.putShort(position + INDEX_OFFSET, (short) index);
+        buffer.putInt(position + VALUE_OFFSET, value);
+        buffer.put(position + TYPE_OFFSET, type.code);
+        // Only count the record once it is complete
+        buffer.putLong(COUNT_OFFSET, record + 1);
+        count.set(record + 1);
+    }
+
+    /**
+     * Gets the total number of records written, including any that were
+     * overwritten.
+     *
+     * @return the record count
+     */
+    public long getRecordCount() {
+        return count.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes the records to the storage device. This is slow, so it should
+     * not be done while driving.
+     */
+    public void flush() {
+        if (!closed) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Flushes the journal and stops recording. Anything recorded after this
+     * is ignored.
+     */
+    @Override
+    public void close() {
+        flush();
+        closed = true;
+    }
+}
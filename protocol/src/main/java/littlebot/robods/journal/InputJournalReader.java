@@ -0,0 +1,244 @@
+package littlebot.robods.journal;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import littlebot.robods.communication.DriverStationPacket;
+
+/**
+ * Reads the records of an {@link InputJournal} from oldest to newest. The
+ * file is read in small chunks, so a journal of any size can be read without
+ * loading it into memory. The reader is a cursor: {@link #next()} moves to the
+ * next record, whose fields are then available from the getters, so nothing
+ * is allocated per record.
+ * <p/>
+ * If the journal is still being written, only the records that were written
+ * when the reader was opened are read, but the oldest of them may be
+ * overwritten before they are read, so it should be closed first. If the app
+ * died while it was overwriting the oldest record, that record is skipped.
+ *
+ * @author Ben Wolsieffer
+ */
+public class InputJournalReader implements Closeable {
+
+    private static final int CHUNK_RECORDS = 1024;
+
+    private static final DriverStationPacket.Mode[] MODES = DriverStationPacket.Mode.values();
+
+    private final FileInputStream input;
+    private final FileChannel channel;
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_RECORDS * InputJournal.RECORD_LENGTH);
+
+    private final int capacity;
+    private final long startTime;
+    private final long totalCount;
+    private long recordCount;
+    /**
+     * The slot of the oldest record in the ring.
+     */
+    private int firstSlot;
+
+    private long readCount;
+
+    private long timestamp;
+    private InputJournal.RecordType type;
+    private int joystick;
+    private int index;
+    private int value;
+
+    /**
+     * Opens a journal for reading.
+     *
+     * @param file the journal file
+     * @throws IOException if the file could not be read or is not a journal
+     */
+    public InputJournalReader(File file) throws IOException {
+        input = new FileInputStream(file);
+        try {
+            channel = input.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(InputJournal.HEADER_LENGTH);
+            readFully(header, 0);
+            if (header.getInt(InputJournal.MAGIC_OFFSET) != InputJournal.MAGIC) {
+                throw new IOException(file + " is not an input journal");
+            }
+            int version = header.getInt(InputJournal.VERSION_OFFSET);
+            if (version != InputJournal.VERSION) {
+                throw new IOException("Unsupported journal version: " + version);
+            }
+            if (header.getInt(InputJournal.RECORD_LENGTH_OFFSET) != InputJournal.RECORD_LENGTH) {
+                throw new IOException("Unsupported record length: " + header.getInt(InputJournal.RECORD_LENGTH_OFFSET));
+            }
+            capacity = header.getInt(InputJournal.CAPACITY_OFFSET);
+            if (capacity <= 0 || channel.size() < InputJournal.HEADER_LENGTH + (long) capacity * InputJournal.RECORD_LENGTH) {
+                throw new IOException("Journal is truncated");
+            }
+            startTime = header.getLong(InputJournal.START_TIME_OFFSET);
+            totalCount = header.getLong(InputJournal.COUNT_OFFSET);
+            recordCount = Math.min(totalCount, capacity);
+            firstSlot = (int) (totalCount > capacity ? totalCount % capacity : 0);
+            if (totalCount >= capacity && capacity > 1 && isFirstRecordTorn()) {
+                recordCount--;
+                firstSlot = (firstSlot + 1) % capacity;
+            }
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        chunk.limit(0);
+    }
+
+    /**
+     * Checks whether the oldest record was being overwritten by a record that
+     * was never counted. Timestamps always increase, and the new record's
+     * timestamp is written first, so it is then later than the newest record.
+     */
+    private boolean isFirstRecordTorn() throws IOException {
+        int newestSlot = (int) ((totalCount - 1) % capacity);
+        return readTimestamp(firstSlot) > readTimestamp(newestSlot);
+    }
+
+    private long readTimestamp(int slot) throws IOException {
+        ByteBuffer timestamp = ByteBuffer.allocate(8);
+        readFully(timestamp, InputJournal.HEADER_LENGTH + (long) slot * InputJournal.RECORD_LENGTH);
+        return timestamp.getLong(0);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Gets the wall clock time when the journal was opened.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Gets the number of records that can be read.
+     *
+     * @return the record count
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Gets the number of records that were overwritten because the journal
+     * was full.
+     *
+     * @return the overwritten record count
+     */
+    public long getOverwrittenRecordCount() {
+        return totalCount - recordCount;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return true if there was another record, or false if all records have
+     * been read
+     * @throws IOException if the file could not be read
+     */
+    public boolean next() throws IOException {
+        if (readCount == recordCount) {
+            return false;
+        }
+        if (!chunk.hasRemaining()) {
+            // Read up to the end of the ring, and continue from the start of
+            // it with the next chunk
+            int slot = (int) ((firstSlot + readCount) % capacity);
+            long records = Math.min(Math.min(CHUNK_RECORDS, capacity - slot), recordCount - readCount);
+            chunk.clear();
+            chunk.limit((int) records * InputJournal.RECORD_LENGTH);
+            readFully(chunk, InputJournal.HEADER_LENGTH + (long) slot * InputJournal.RECORD_LENGTH);
+        }
+        int position = chunk.position();
+        timestamp = chunk.getLong(position);
+        type = InputJournal.RecordType.fromCode(chunk.get(position + InputJournal.TYPE_OFFSET));
+        joystick = chunk.get(position + InputJournal.JOYSTICK_OFFSET) & 0xFF;
+        index = chunk.getShort(position + InputJournal.INDEX_OFFSET) & 0xFFFF;
+        value = chunk.getInt(position + InputJournal.VALUE_OFFSET);
+        chunk.position(position + InputJournal.RECORD_LENGTH);
+        readCount++;
+        if (type == null) {
+            throw new IOException("Unknown record type: " + chunk.get(position + InputJournal.TYPE_OFFSET));
+        }
+        return true;
+    }
+
+    /**
+     * Gets the time of the current record.
+     *
+     * @return the time in nanoseconds since the journal was opened
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public InputJournal.RecordType getType() {
+        return type;
+    }
+
+    public int getJoystick() {
+        return joystick;
+    }
+
+    /**
+     * Gets the index of the axis, button or POV hat of the current record.
+     *
+     * @return the component index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the raw value of the current record, which is interpreted
+     * depending on its type.
+     *
+     * @return the raw value
+     */
+    public int getValue() {
+        return value;
+    }
+
+    public float getAxisValue() {
+        return Float.intBitsToFloat(value);
+    }
+
+    public boolean isButtonPressed() {
+        return value != 0;
+    }
+
+    public int getPOVHatAngle() {
+        return value;
+    }
+
+    public DriverStationPacket.Mode getMode() {
+        return value >= 0 && value < MODES.length ? MODES[value] : null;
+    }
+
+    public boolean isEnabled() {
+        return value != 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
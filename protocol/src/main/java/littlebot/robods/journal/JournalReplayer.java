@@ -0,0 +1,319 @@
+package littlebot.robods.journal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import littlebot.robods.communication.DriverStationPacket;
+import littlebot.robods.communication.PacketManager;
+import littlebot.robods.communication.RobotPacket;
+
+/**
+ * Replays an {@link InputJournal} by applying its records to a
+ * {@link DriverStationPacket}, the same way the app does when the controls
+ * change.
+ * <p/>
+ * {@link #replay(InputJournalReader, long, TimeUnit, PacketSink)} runs on a
+ * simulated clock as fast as possible, and encodes a packet at every tick of
+ * the send period, after applying the records up to that time. Given the same
+ * journal, it always produces the same packets, so the output of two builds
+ * can be compared to find changes in encoding or in which packet a change is
+ * sent in. {@link #replayRealTime(InputJournalReader, PacketManager, double)}
+ * instead applies the records at their original times, optionally sped up,
+ * while a {@link PacketManager} sends the packet to a robot.
+ * <p/>
+ * Only changes are recorded in the journal, so a joystick only appears in the
+ * packet when one of its components first changes, and it only has as many
+ * components as have changed.
+ *
+ * @author Ben Wolsieffer
+ */
+public class JournalReplayer {
+
+    /**
+     * The send period of the app, which is used by {@link #main(String[])}.
+     */
+    public static final int SEND_PERIOD = 20;
+
+    /**
+     * The port that the robot receives driver station packets on.
+     */
+    private static final int DS_PORT = 1110;
+
+    /**
+     * Receives the packets encoded by a simulated replay.
+     */
+    public interface PacketSink {
+        /**
+         * Called for each packet.
+         *
+         * @param time the simulated time that the packet is sent at, in
+         * nanoseconds since the journal was opened
+         * @param packet the encoded packet, which is only valid until this
+         * method returns
+         * @throws IOException if the packet could not be handled
+         */
+        void packetEncoded(long time, ByteBuffer packet) throws IOException;
+    }
+
+    private final DriverStationPacket packet;
+    private final ByteBuffer buffer = ByteBuffer.allocate(DriverStationPacket.MAX_LENGTH);
+
+    private long appliedCount;
+
+    /**
+     * Creates a replayer that changes a packet.
+     *
+     * @param packet the packet to apply the journal to
+     */
+    public JournalReplayer(DriverStationPacket packet) {
+        this.packet = packet;
+    }
+
+    public DriverStationPacket getPacket() {
+        return packet;
+    }
+
+    /**
+     * Gets the number of records that have been applied to the packet.
+     *
+     * @return the applied record count
+     */
+    public long getAppliedCount() {
+        return appliedCount;
+    }
+
+    private DriverStationPacket.Joystick getJoystick(int index) {
+        DriverStationPacket.Joystick j;
+        if ((j = packet.getJoystick(index)) == null) {
+            j = new DriverStationPacket.Joystick();
+            packet.addJoystick(index, j);
+        }
+        return j;
+    }
+
+    /**
+     * Applies the current record of a reader to the packet.
+     *
+     * @param reader the reader, positioned on a record
+     */
+    public void apply(InputJournalReader reader) {
+        DriverStationPacket.Joystick j;
+        int index = reader.getIndex();
+        switch (reader.getType()) {
+            case AXIS:
+                j = getJoystick(reader.getJoystick());
+                if (j.getAxisCount() <= index) {
+                    j.setAxisCount(index + 1);
+                }
+                j.setAxisValue(index, reader.getAxisValue());
+                break;
+            case BUTTON:
+                j = getJoystick(reader.getJoystick());
+                if (j.getButtonCount() <= index) {
+                    j.setButtonCount(index + 1);
+                }
+                j.setButtonPressed(index, reader.isButtonPressed());
+                break;
+            case POV_HAT:
+                j = getJoystick(reader.getJoystick());
+                if (j.getPOVHatCount() <= index) {
+                    j.setPOVHatCount(index + 1);
+                }
+                j.setPOVHatAngle(index, reader.getPOVHatAngle());
+                break;
+            case MODE:
+                if (reader.getMode() != null) {
+                    packet.setMode(reader.getMode());
+                }
+                break;
+            case ENABLED:
+                packet.setEnabled(reader.isEnabled());
+                break;
+        }
+        appliedCount++;
+    }
+
+    /**
+     * Replays a journal on a simulated clock, as fast as possible. Starting at
+     * time zero, a packet is encoded and passed to the sink at every tick of
+     * the period, after applying every record up to and including that time.
+     * This continues until the tick after the last record.
+     *
+     * @param reader the reader, which is read until the end
+     * @param period the time between packets
+     * @param unit the unit of the period
+     * @param sink receives the packets
+     * @return the number of packets encoded
+     * @throws IOException if the journal could not be read, or the sink
+     * failed
+     */
+    public long replay(InputJournalReader reader, long period, TimeUnit unit, PacketSink sink) throws IOException {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive, was given: " + period);
+        }
+        long periodNanos = unit.toNanos(period);
+        long tick = 0;
+        long packetCount = 0;
+        boolean pending = reader.next();
+        while (true) {
+            while (pending && reader.getTimestamp() <= tick) {
+                apply(reader);
+                pending = reader.next();
+            }
+            packet.toByteBuffer(buffer);
+            sink.packetEncoded(tick, buffer);
+            packetCount++;
+            if (!pending) {
+                return packetCount;
+            }
+            tick += periodNanos;
+        }
+    }
+
+    /**
+     * Replays a journal in real time, applying each record at its original
+     * time divided by the speed. The packet manager should already be sending
+     * the packet. A send is requested after each record, which only has an
+     * effect in low latency mode.
+     *
+     * @param reader the reader, which is read until the end
+     * @param packetManager the packet manager that sends the packet
+     * @param speed how many times faster than the original to replay
+     * @throws IOException if the journal could not be read
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void replayRealTime(InputJournalReader reader, PacketManager packetManager, double speed)
+            throws IOException, InterruptedException {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive, was given: " + speed);
+        }
+        long start = System.nanoTime();
+        while (reader.next()) {
+            long due = start + (long) (reader.getTimestamp() / speed);
+            long delay;
+            while ((delay = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            apply(reader);
+            packetManager.requestSend();
+        }
+    }
+
+    /**
+     * Replays a journal from the command line. By default, the journal is
+     * replayed on a simulated clock, and each packet is printed as a line
+     * with the time in milliseconds and the packet in hex, which can be
+     * compared with <code>diff</code>. The options are:
+     * <ul>
+     * <li><code>--output=file</code> prints the packets to a file instead of
+     * standard output</li>
+     * <li><code>--robot=address</code> also sends each packet to a robot or
+     * robot simulator, as fast as possible</li>
+     * <li><code>--speed=factor</code> replays in real time at the given speed
+     * through a {@link PacketManager} connected to the robot instead, which
+     * requires <code>--robot</code></li>
+     * </ul>
+     *
+     * @param args the journal file followed by the options
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: JournalReplayer <journal> [--output=file] [--robot=address] [--speed=factor]");
+            System.exit(1);
+        }
+        File output = null;
+        InetAddress robot = null;
+        double speed = 0;
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Invalid option: " + args[i]);
+            }
+            switch (option[0]) {
+                case "--output":
+                    output = new File(option[1]);
+                    break;
+                case "--robot":
+                    robot = InetAddress.getByName(option[1]);
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(option[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option[0]);
+            }
+        }
+
+        DriverStationPacket packet = new DriverStationPacket();
+        JournalReplayer replayer = new JournalReplayer(packet);
+        InputJournalReader reader = new InputJournalReader(new File(args[0]));
+        try {
+            if (speed > 0) {
+                if (robot == null) {
+                    throw new IllegalArgumentException("Replaying in real time requires --robot");
+                }
+                PacketManager packetManager = new PacketManager(packet, new RobotPacket());
+                packetManager.start(robot);
+                try {
+                    replayer.replayRealTime(reader, packetManager, speed);
+                } finally {
+                    packetManager.stop();
+                }
+                System.err.println("Replayed " + replayer.getAppliedCount() + " records");
+            } else {
+                replaySimulated(replayer, reader, output, robot);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void replaySimulated(JournalReplayer replayer, InputJournalReader reader,
+                                        File output, InetAddress robot) throws IOException {
+        OutputStream outputStream = output != null ? new FileOutputStream(output) : null;
+        final PrintStream printStream = outputStream != null ? new PrintStream(outputStream, false, "US-ASCII") : System.out;
+        final DatagramChannel channel = robot != null ? DatagramChannel.open() : null;
+        try {
+            if (channel != null) {
+                channel.connect(new InetSocketAddress(robot, DS_PORT));
+            }
+            final StringBuilder line = new StringBuilder();
+            long packetCount = replayer.replay(reader, SEND_PERIOD, TimeUnit.MILLISECONDS, new PacketSink() {
+                @Override
+                public void packetEncoded(long time, ByteBuffer packet) throws IOException {
+                    line.setLength(0);
+                    line.append(TimeUnit.NANOSECONDS.toMillis(time)).append(' ');
+                    for (int i = packet.position(); i < packet.limit(); i++) {
+                        int b = packet.get(i) & 0xFF;
+                        line.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xF, 16));
+                    }
+                    printStream.println(line);
+                    if (channel != null) {
+                        channel.write(packet);
+                    }
+                }
+            });
+            printStream.flush();
+            System.err.println("Replayed " + replayer.getAppliedCount() + " records in " + packetCount + " packets");
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+            if (outputStream != null) {
+                printStream.close();
+            }
+        }
+    }
+}
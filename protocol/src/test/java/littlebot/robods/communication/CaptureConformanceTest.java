@@ -0,0 +1,183 @@
+package littlebot.robods.communication;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Replays the packets sent by the official driver station in
+ * <code>capture/official_ds</code> through {@link DriverStationPacket}, and
+ * checks that the packets it encodes are identical. The state of each captured
+ * packet (mode, alliance, joysticks and so on) is decoded and applied to the
+ * packet by {@link CaptureReplayer}, the same way the app would as the user
+ * changes controls.
+ * <p/>
+ * The packet indices are not compared, because the captures do not start at
+ * zero. The contents of the time and timezone sections are not compared
+ * either, because they depend on when and where the packet is encoded, but
+ * they must be sent in the same packets as in the captures.
+ *
+ * @author Ben Wolsieffer
+ */
+public class CaptureConformanceTest {
+
+    private static List<File> findCaptures() {
+        File dir = CaptureReplayer.findCaptureDir();
+        List<File> captures = CaptureReplayer.findCaptures(dir);
+        assumeTrue("No captures found in " + dir, !captures.isEmpty());
+        return captures;
+    }
+
+    @Test
+    public void testEncodingMatchesCaptures() throws IOException {
+        for (File capture : findCaptures()) {
+            List<byte[]> packets = PcapngReader.readPayloads(capture.getPath(), CaptureReplayer.DS_PORT);
+            assertTrue("No driver station packets in " + capture, !packets.isEmpty());
+
+            CaptureReplayer replayer = new CaptureReplayer();
+            DriverStationPacketReader encodedReader = new DriverStationPacketReader();
+            for (int i = 0; i < packets.size(); i++) {
+                byte[] expected = packets.get(i);
+                replayer.replay(ByteBuffer.wrap(expected));
+                byte[] actual = replayer.getEncoded();
+                assertSame(capture.getName() + " packet " + i, expected, actual, encodedReader);
+            }
+        }
+    }
+
+    /**
+     * First packet of <code>ds_2.pcapng</code>, decoded by hand:
+     * <pre>
+     * 2e dd             index
+     * 01                always 1
+     * 00                disabled, teleoperated
+     * 10                connected to the robot
+     * 05                blue 3
+     * 0c 0c             joystick 0
+     *   04 01 00 00 7f  4 axes
+     *   0c 08 00        12 buttons, button 12 pressed
+     *   01 ff ff        1 POV hat, centered
+     * 0c 0c             joystick 1
+     *   04 00 00 00 00  4 axes
+     *   0c 00 00        12 buttons, none pressed
+     *   01 ff ff        1 POV hat, centered
+     * </pre>
+     */
+    private static final String CONNECTED_PACKET =
+            "2edd010010050c0c040100007f0c080001ffff0c0c04000000000c000001ffff";
+
+    /**
+     * First packet of <code>ds_1.pcapng</code>, sent before the robot replied:
+     * index 1, disabled in test mode, not connected, blue 3 and no joysticks.
+     */
+    private static final String NOT_CONNECTED_PACKET = "000101010005";
+
+    /**
+     * Encodes the state of a captured packet, set up by hand rather than
+     * decoded with {@link DriverStationPacketReader}, so that a mistake
+     * shared by the encoder and the reader (like the order of the buttons)
+     * is caught.
+     */
+    @Test
+    public void testEncodingMatchesHandDecodedPacket() {
+        DriverStationPacket packet = new DriverStationPacket();
+        packet.setMode(DriverStationPacket.Mode.TELEOPERATED);
+        packet.setEnabled(false);
+        packet.setConnected(true);
+        packet.setAlliance(DriverStationPacket.Alliance.BLUE);
+        packet.setPosition(3);
+
+        DriverStationPacket.Joystick joystick0 = createJoystick();
+        joystick0.setAxisValue(0, CaptureReplayer.toAxisValue((byte) 0x01));
+        joystick0.setAxisValue(3, 1.0f);
+        joystick0.setButtonPressed(11, true);
+        packet.addJoystick(0, joystick0);
+        packet.addJoystick(1, createJoystick());
+
+        assertEncoded(CONNECTED_PACKET, packet);
+    }
+
+    @Test
+    public void testEncodingMatchesHandDecodedNotConnectedPacket() {
+        DriverStationPacket packet = new DriverStationPacket();
+        packet.setMode(DriverStationPacket.Mode.TEST);
+        packet.setEnabled(false);
+        packet.setConnected(false);
+        packet.setAlliance(DriverStationPacket.Alliance.BLUE);
+        packet.setPosition(3);
+
+        assertEncoded(NOT_CONNECTED_PACKET, packet);
+    }
+
+    private static DriverStationPacket.Joystick createJoystick() {
+        DriverStationPacket.Joystick joystick = new DriverStationPacket.Joystick();
+        joystick.setAxisCount(4);
+        joystick.setButtonCount(12);
+        joystick.setPOVHatCount(1);
+        joystick.setPOVHatAngle(0, -1);
+        return joystick;
+    }
+
+    /**
+     * Checks that a packet encodes to a captured packet, except for the
+     * index.
+     */
+    private static void assertEncoded(String expectedHex, DriverStationPacket packet) {
+        byte[] expected = fromHex(expectedHex);
+        DatagramPacket datagram = new DatagramPacket(new byte[0], 0);
+        packet.toDatagramPacket(datagram);
+        byte[] actual = Arrays.copyOfRange(datagram.getData(), datagram.getOffset(),
+                datagram.getOffset() + datagram.getLength());
+        assertArrayEquals(expectedHex, Arrays.copyOfRange(expected, 2, expected.length),
+                Arrays.copyOfRange(actual, 2, actual.length));
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Checks that two packets are the same, except for the index and the
+     * contents of the time and timezone sections.
+     */
+    private static void assertSame(String name, byte[] expected, byte[] actual,
+                                   DriverStationPacketReader actualReader) {
+        int header = DriverStationPacketReader.HEADER_LENGTH;
+        assertTrue(name + " is too short", actual.length >= header);
+        assertArrayEquals(name + " header", Arrays.copyOfRange(expected, 2, header),
+                Arrays.copyOfRange(actual, 2, header));
+
+        DriverStationPacketReader expectedReader = new DriverStationPacketReader().wrap(ByteBuffer.wrap(expected));
+        actualReader.wrap(ByteBuffer.wrap(actual));
+        int e = expectedReader.firstSection();
+        int a = actualReader.firstSection();
+        while (e >= 0 && a >= 0) {
+            int type = expectedReader.getSectionType(e);
+            assertEquals(name + " section type at " + e, type, actualReader.getSectionType(a));
+            if (type == DriverStationPacketReader.SECTION_JOYSTICK) {
+                assertEquals(name + " section offset", e, a);
+                int length = expectedReader.getSectionLength(e);
+                assertArrayEquals(name + " joystick at " + e, Arrays.copyOfRange(expected, e, e + length),
+                        Arrays.copyOfRange(actual, a, a + actualReader.getSectionLength(a)));
+            }
+            e = expectedReader.nextSection(e);
+            a = actualReader.nextSection(a);
+        }
+        assertTrue(name + " has missing sections", e < 0);
+        assertTrue(name + " has extra sections", a < 0);
+    }
+}
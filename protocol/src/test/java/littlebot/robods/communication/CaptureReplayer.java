@@ -0,0 +1,167 @@
+package littlebot.robods.communication;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Applies the state of packets captured from the official driver station to
+ * a {@link DriverStationPacket} and encodes a new packet, the same way the app
+ * would as the user changes controls. This is used by the conformance test
+ * and the capture replay benchmark.
+ * <p/>
+ * The captures are found using the <code>robods.captureDir</code> system
+ * property, or in the <code>capture/official_ds</code> directory of the
+ * project.
+ *
+ * @author Ben Wolsieffer
+ */
+public class CaptureReplayer {
+
+    /**
+     * The port the driver station sends its packets to.
+     */
+    public static final int DS_PORT = 1110;
+
+    private final DriverStationPacket packet = new DriverStationPacket();
+    private final DatagramPacket datagram = new DatagramPacket(new byte[0], 0);
+    private final DriverStationPacketReader reader = new DriverStationPacketReader();
+    private final List<DriverStationPacket.Joystick> joysticks = new ArrayList<>();
+
+    /**
+     * Applies the state of a captured packet and encodes a new packet.
+     *
+     * @param captured the captured packet
+     * @return the reader, wrapped around the captured packet
+     */
+    public DriverStationPacketReader replay(ByteBuffer captured) {
+        DriverStationPacketReader reader = this.reader.wrap(captured);
+
+        packet.setMode(reader.getMode());
+        packet.setEmergencyStopped(reader.isEmergencyStopped());
+        packet.setEnabled(reader.isEnabled());
+        int station = reader.getAllianceStation();
+        packet.setAlliance(station < 3 ? DriverStationPacket.Alliance.RED : DriverStationPacket.Alliance.BLUE);
+        packet.setPosition(station % 3 + 1);
+        packet.setConnected(reader.getByte(4) == 0x10);
+
+        int joystickCount = reader.getJoystickCount();
+        while (joysticks.size() > joystickCount) {
+            packet.removeJoystick(joysticks.remove(joysticks.size() - 1));
+        }
+        while (joysticks.size() < joystickCount) {
+            DriverStationPacket.Joystick joystick = new DriverStationPacket.Joystick();
+            packet.addJoystick(joysticks.size(), joystick);
+            joysticks.add(joystick);
+        }
+
+        boolean time = false;
+        int j = 0;
+        for (int s = reader.firstSection(); s >= 0; s = reader.nextSection(s)) {
+            switch (reader.getSectionType(s)) {
+                case DriverStationPacketReader.SECTION_JOYSTICK:
+                    applyJoystick(reader, s, joysticks.get(j++));
+                    break;
+                case DriverStationPacketReader.SECTION_TIME:
+                    time = true;
+                    break;
+            }
+        }
+        if (time) {
+            packet.addTime();
+        }
+
+        packet.toDatagramPacket(datagram);
+        return reader;
+    }
+
+    private static void applyJoystick(DriverStationPacketReader reader, int section,
+                                      DriverStationPacket.Joystick joystick) {
+        int axisCount = reader.getAxisCount(section);
+        joystick.setAxisCount(axisCount);
+        for (int a = 0; a < axisCount; a++) {
+            joystick.setAxisValue(a, toAxisValue(reader.getAxis(section, a)));
+        }
+        int buttonCount = reader.getButtonCount(section);
+        joystick.setButtonCount(buttonCount);
+        for (int b = 0; b < buttonCount; b++) {
+            joystick.setButtonPressed(b, reader.isButtonPressed(section, b));
+        }
+        int povHatCount = reader.getPOVHatCount(section);
+        joystick.setPOVHatCount(povHatCount);
+        for (int p = 0; p < povHatCount; p++) {
+            joystick.setPOVHatAngle(p, reader.getPOVHat(section, p));
+        }
+    }
+
+    /**
+     * Gets the datagram the last packet was encoded into.
+     *
+     * @return the datagram
+     */
+    public DatagramPacket getDatagram() {
+        return datagram;
+    }
+
+    /**
+     * Gets a copy of the last packet that was encoded.
+     *
+     * @return the packet
+     */
+    public byte[] getEncoded() {
+        return Arrays.copyOfRange(datagram.getData(), datagram.getOffset(),
+                datagram.getOffset() + datagram.getLength());
+    }
+
+    /**
+     * Finds an axis value that is quantized to the specified byte. Dividing
+     * the byte is not always enough, because the division rounds and
+     * quantizing truncates.
+     *
+     * @param axis the quantized value
+     * @return the axis value
+     */
+    public static float toAxisValue(byte axis) {
+        float value = axis > 0 ? axis / 127.0f : axis / 128.0f;
+        while (DriverStationPacket.Joystick.quantizeAxis(value) != axis) {
+            value = axis > 0 ? Math.nextUp(value) : -Math.nextUp(-value);
+        }
+        return value;
+    }
+
+    public static File findCaptureDir() {
+        String property = System.getProperty("robods.captureDir");
+        if (property != null) {
+            return new File(property);
+        }
+        // Gradle runs the tests and benchmarks from the module directory
+        File dir = new File("../capture/official_ds");
+        return dir.isDirectory() ? dir : new File("capture/official_ds");
+    }
+
+    /**
+     * Lists the captures in a directory.
+     *
+     * @param dir the directory
+     * @return the captures in order of their names, which is empty if there
+     * are none
+     */
+    public static List<File> findCaptures(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".pcapng");
+            }
+        });
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+}
@@ -0,0 +1,171 @@
+package littlebot.robods.communication;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks when a {@link ConnectionWatchdog} with the settings used by
+ * {@link PacketManager} connects and loses the connection, and that each
+ * change is only reported once.
+ *
+ * @author Ben Wolsieffer
+ */
+public class ConnectionWatchdogTest {
+
+    private final ConnectionWatchdog watchdog = new ConnectionWatchdog(5, 3);
+
+    private int connectedCount;
+    private int connectionLostCount;
+
+    private void count(ConnectionWatchdog.Event event) {
+        switch (event) {
+            case CONNECTED:
+                connectedCount++;
+                break;
+            case CONNECTION_LOST:
+                connectionLostCount++;
+                break;
+        }
+    }
+
+    /**
+     * Sends packets that each get a reply.
+     */
+    private void exchange(int count) {
+        for (int i = 0; i < count; i++) {
+            count(watchdog.packetSent());
+            count(watchdog.packetReceived());
+        }
+    }
+
+    /**
+     * Sends packets that do not get a reply.
+     */
+    private void miss(int count) {
+        for (int i = 0; i < count; i++) {
+            count(watchdog.packetSent());
+        }
+    }
+
+    @Test
+    public void testConnect() {
+        assertFalse(watchdog.isConnected());
+        exchange(2);
+        assertFalse(watchdog.isConnected());
+        assertEquals(0, connectedCount);
+
+        assertEquals(ConnectionWatchdog.Event.NONE, watchdog.packetSent());
+        assertEquals(ConnectionWatchdog.Event.CONNECTED, watchdog.packetReceived());
+        assertTrue(watchdog.isConnected());
+
+        exchange(100);
+        assertEquals(0, connectedCount);
+        assertEquals(0, connectionLostCount);
+    }
+
+    @Test
+    public void testLostAfterFiveMisses() {
+        exchange(3);
+        assertEquals(1, connectedCount);
+
+        miss(5);
+        assertTrue(watchdog.isConnected());
+        assertEquals(5, watchdog.getMissedPackets());
+        assertEquals(0, connectionLostCount);
+
+        assertEquals(ConnectionWatchdog.Event.CONNECTION_LOST, watchdog.packetSent());
+        assertFalse(watchdog.isConnected());
+
+        // Only reported once however long the robot is gone
+        miss(1000);
+        assertEquals(0, connectionLostCount);
+        assertEquals(1, connectedCount);
+    }
+
+    @Test
+    public void testLateReplyKeepsConnection() {
+        exchange(3);
+        miss(5);
+        count(watchdog.packetReceived());
+        assertEquals(0, watchdog.getMissedPackets());
+        miss(5);
+        assertTrue(watchdog.isConnected());
+        assertEquals(0, connectionLostCount);
+    }
+
+    @Test
+    public void testRecoveryAfterThreeReplies() {
+        exchange(3);
+        miss(6);
+        assertEquals(1, connectionLostCount);
+
+        exchange(2);
+        assertFalse(watchdog.isConnected());
+        assertEquals(1, connectedCount);
+        exchange(1);
+        assertTrue(watchdog.isConnected());
+        assertEquals(2, connectedCount);
+
+        exchange(10);
+        assertEquals(2, connectedCount);
+        assertEquals(1, connectionLostCount);
+    }
+
+    @Test
+    public void testRecoveryStartsOverWhenRepliesStop() {
+        exchange(3);
+        miss(6);
+        exchange(2);
+        // Lost again before the third reply
+        miss(6);
+        exchange(2);
+        assertFalse(watchdog.isConnected());
+        exchange(1);
+        assertTrue(watchdog.isConnected());
+        assertEquals(2, connectedCount);
+        assertEquals(1, connectionLostCount);
+    }
+
+    @Test
+    public void testReset() {
+        exchange(3);
+        miss(3);
+        watchdog.reset();
+        assertFalse(watchdog.isConnected());
+        assertEquals(0, watchdog.getMissedPackets());
+        // Not reported, because the connection was lost some other way
+        miss(10);
+        assertEquals(0, connectionLostCount);
+        exchange(3);
+        assertTrue(watchdog.isConnected());
+        assertEquals(2, connectedCount);
+    }
+
+    @Test
+    public void testSettings() {
+        watchdog.setMaxMissedPackets(1);
+        watchdog.setRecoveryPackets(1);
+        assertEquals(ConnectionWatchdog.Event.CONNECTED, watchdog.packetReceived());
+        assertEquals(ConnectionWatchdog.Event.NONE, watchdog.packetSent());
+        assertEquals(ConnectionWatchdog.Event.CONNECTION_LOST, watchdog.packetSent());
+
+        try {
+            watchdog.setMaxMissedPackets(0);
+            fail("Accepted zero missed packets");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            watchdog.setRecoveryPackets(0);
+            fail("Accepted zero recovery packets");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(1, watchdog.getMaxMissedPackets());
+        assertEquals(1, watchdog.getRecoveryPackets());
+    }
+}
@@ -0,0 +1,254 @@
+package littlebot.robods.communication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes packets sent from the driver station to the robot, the same way as
+ * <code>capture/frc_ds_2015_dissector.lua</code>. Like {@link RobotPacket},
+ * this reads directly from the buffer the packet was received into, and the
+ * sections are walked using their offsets in the buffer.
+ *
+ * @author Ben Wolsieffer
+ */
+public class DriverStationPacketReader {
+
+    public static final int HEADER_LENGTH = 6;
+
+    public static final int SECTION_JOYSTICK = 0x0c;
+    public static final int SECTION_TIME = 0x0f;
+    public static final int SECTION_TIMEZONE = 0x10;
+
+    private static final int FLAGS_OFFSET = 3;
+    private static final int POSITION_OFFSET = 5;
+
+    private static final int MODE_MASK = 0x3;
+    private static final int ENABLED = 0x4;
+    private static final int EMERGENCY_STOPPED = 0x80;
+
+    private static final DriverStationPacket.Mode[] MODES = {
+            DriverStationPacket.Mode.TELEOPERATED,
+            DriverStationPacket.Mode.TEST,
+            DriverStationPacket.Mode.AUTONOMOUS,
+            null
+    };
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Wraps this reader around the data between the position and limit of a
+     * buffer. The position and limit of the buffer are not changed.
+     *
+     * @param buffer the buffer containing the packet
+     * @return this reader
+     */
+    public DriverStationPacketReader wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        offset = buffer.position();
+        length = buffer.remaining();
+        return this;
+    }
+
+    public boolean isValid() {
+        return buffer != null && length >= HEADER_LENGTH;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getIndex() {
+        return (getUnsignedByte(0) << 8) | getUnsignedByte(1);
+    }
+
+    /**
+     * Gets the raw flags byte, which contains the mode, enabled and emergency
+     * stopped flags.
+     *
+     * @return the flags
+     */
+    public int getFlags() {
+        return getUnsignedByte(FLAGS_OFFSET);
+    }
+
+    /**
+     * Gets the mode the driver station wants the robot to be in.
+     *
+     * @return the mode, or null if the mode is unknown
+     */
+    public DriverStationPacket.Mode getMode() {
+        return MODES[getFlags() & MODE_MASK];
+    }
+
+    public boolean isEnabled() {
+        return (getFlags() & ENABLED) != 0;
+    }
+
+    public boolean isEmergencyStopped() {
+        return (getFlags() & EMERGENCY_STOPPED) != 0;
+    }
+
+    /**
+     * Gets the alliance station, where 0 to 2 are red 1 to 3 and 3 to 5 are
+     * blue 1 to 3.
+     *
+     * @return the alliance station
+     */
+    public int getAllianceStation() {
+        return getUnsignedByte(POSITION_OFFSET);
+    }
+
+    /**
+     * Gets the offset of the first section in the packet.
+     *
+     * @return the offset of the first section, or -1 if there are no sections
+     */
+    public int firstSection() {
+        return checkSection(HEADER_LENGTH);
+    }
+
+    /**
+     * Gets the offset of the section after the specified one.
+     *
+     * @param section the offset of a section
+     * @return the offset of the next section, or -1 if there are no more
+     * sections
+     */
+    public int nextSection(int section) {
+        return checkSection(section + getSectionLength(section));
+    }
+
+    /**
+     * Finds a joystick section by its position among the joystick sections.
+     *
+     * @param joystick the index of the joystick
+     * @return the offset of the section, or -1 if there is no such joystick
+     */
+    public int findJoystick(int joystick) {
+        for (int s = firstSection(); s >= 0; s = nextSection(s)) {
+            if (getSectionType(s) == SECTION_JOYSTICK && joystick-- == 0) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    public int getJoystickCount() {
+        int count = 0;
+        for (int s = firstSection(); s >= 0; s = nextSection(s)) {
+            if (getSectionType(s) == SECTION_JOYSTICK) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getSectionType(int section) {
+        return getUnsignedByte(section + 1);
+    }
+
+    /**
+     * Gets the length of a section, including its two byte header.
+     *
+     * @param section the offset of the section
+     * @return the length of the section
+     */
+    public int getSectionLength(int section) {
+        return getUnsignedByte(section) + 1;
+    }
+
+    public int getAxisCount(int joystick) {
+        return getUnsignedByte(joystick + 2);
+    }
+
+    /**
+     * Gets the quantized value of an axis of a joystick section.
+     *
+     * @param joystick the offset of the joystick section
+     * @param axis the index of the axis
+     * @return the axis value
+     */
+    public byte getAxis(int joystick, int axis) {
+        checkIndex(axis, getAxisCount(joystick));
+        return getByte(joystick + 3 + axis);
+    }
+
+    public int getButtonCount(int joystick) {
+        return getUnsignedByte(getButtonCountOffset(joystick));
+    }
+
+    /**
+     * Checks whether a button of a joystick section is pressed. The buttons
+     * are a big endian bit field, so the first button is the lowest bit of
+     * the last byte.
+     *
+     * @param joystick the offset of the joystick section
+     * @param button the index of the button
+     * @return true if the button is pressed
+     */
+    public boolean isButtonPressed(int joystick, int button) {
+        int buttonCount = getButtonCount(joystick);
+        checkIndex(button, buttonCount);
+        int lastByte = getButtonCountOffset(joystick) + getButtonBytes(buttonCount);
+        return (getUnsignedByte(lastByte - (button >> 3)) & (1 << (button & 7))) != 0;
+    }
+
+    public int getPOVHatCount(int joystick) {
+        return getUnsignedByte(getPOVHatCountOffset(joystick));
+    }
+
+    /**
+     * Gets the angle of a POV hat of a joystick section.
+     *
+     * @param joystick the offset of the joystick section
+     * @param povHat the index of the POV hat
+     * @return the angle, or -1 if the hat is not pressed
+     */
+    public int getPOVHat(int joystick, int povHat) {
+        checkIndex(povHat, getPOVHatCount(joystick));
+        int hat = getPOVHatCountOffset(joystick) + 1 + povHat * 2;
+        return (short) ((getUnsignedByte(hat) << 8) | getUnsignedByte(hat + 1));
+    }
+
+    public byte getByte(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+        }
+        return buffer.get(offset + index);
+    }
+
+    private int getButtonCountOffset(int joystick) {
+        return joystick + 3 + getAxisCount(joystick);
+    }
+
+    private int getPOVHatCountOffset(int joystick) {
+        int buttonCountOffset = getButtonCountOffset(joystick);
+        return buttonCountOffset + 1 + getButtonBytes(getUnsignedByte(buttonCountOffset));
+    }
+
+    private static int getButtonBytes(int buttonCount) {
+        return (buttonCount + 7) / 8;
+    }
+
+    private int getUnsignedByte(int index) {
+        return getByte(index) & 0xFF;
+    }
+
+    private int checkSection(int section) {
+        if (section + 2 > length) {
+            return -1;
+        }
+        int sectionLength = getSectionLength(section);
+        if (sectionLength < 2 || section + sectionLength > length) {
+            return -1;
+        }
+        return section;
+    }
+
+    private static void checkIndex(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", count is " + count);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package littlebot.robods.communication;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the statistics of {@link LatencyHistogram}, including where the
+ * bucket boundaries fall.
+ *
+ * @author Ben Wolsieffer
+ */
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getMedian());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(0, histogram.getPercentile(12.5));
+        assertEquals(1, histogram.getPercentile(12.6));
+        assertEquals(3, histogram.getMedian());
+        assertEquals(7, histogram.getPercentile(100));
+        assertEquals(3, histogram.getMean());
+    }
+
+    @Test
+    public void testPercentiles() {
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getMean());
+        assertEquals(100, histogram.getMax());
+        assertEquals(100, histogram.getLast());
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(1, histogram.getPercentile(1));
+        // 50 is counted with 48 to 51
+        assertEquals(51, histogram.getMedian());
+        // 90 is counted with 88 to 95
+        assertEquals(95, histogram.getPercentile(90));
+        // Capped at the largest value rather than the end of its bucket
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(100, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        // Each power of two is split into eight buckets
+        histogram.record(64);
+        histogram.record(71);
+        histogram.record(72);
+        histogram.record(1000);
+        assertEquals(71, histogram.getPercentile(25));
+        assertEquals(71, histogram.getPercentile(50));
+        assertEquals(79, histogram.getPercentile(75));
+    }
+
+    @Test
+    public void testLargeValues() {
+        // Past about 33 seconds, everything goes in the last bucket
+        long large = 1L << 40;
+        histogram.record(large);
+        histogram.record(large / 2);
+        assertEquals(large, histogram.getPercentile(100));
+        assertEquals(large, histogram.getMedian());
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void testReset() {
+        histogram.record(500);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+        histogram.record(5);
+        assertEquals(5, histogram.getMax());
+        assertEquals(5, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void testInvalidPercentile() {
+        try {
+            histogram.getPercentile(100.5);
+            fail("Accepted a percentile above 100");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            histogram.getPercentile(-1);
+            fail("Accepted a negative percentile");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
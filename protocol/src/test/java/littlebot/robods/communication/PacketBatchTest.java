@@ -0,0 +1,193 @@
+package littlebot.robods.communication;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that batches of changes on several threads can overlap without
+ * waiting for each other, and that a packet never contains part of a batch.
+ *
+ * @author Ben Wolsieffer
+ */
+public class PacketBatchTest {
+
+    private static final int ITERATIONS = 20000;
+
+    private final DriverStationPacket packet = new DriverStationPacket();
+    private final ByteBuffer buffer = ByteBuffer.allocate(DriverStationPacket.MAX_LENGTH);
+    private final DriverStationPacketReader reader = new DriverStationPacketReader();
+
+    private DriverStationPacket.Joystick addJoystick(int index) {
+        DriverStationPacket.Joystick joystick = new DriverStationPacket.Joystick();
+        joystick.setAxisCount(2);
+        packet.addJoystick(index, joystick);
+        return joystick;
+    }
+
+    private DriverStationPacketReader encode() {
+        packet.toByteBuffer(buffer);
+        return reader.wrap(buffer);
+    }
+
+    private static float valueOf(int step) {
+        return (step % 200 - 100) / 100f;
+    }
+
+    @Test
+    public void testOverlappingBatches() throws InterruptedException {
+        final DriverStationPacket.Joystick first = addJoystick(0);
+        final DriverStationPacket.Joystick second = addJoystick(1);
+        encode();
+
+        // The first producer stays in its batch until the second one is done
+        // with a whole batch of its own
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch secondFinished = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread firstProducer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                packet.beginBatch();
+                try {
+                    first.setAxisValue(0, 0.5f);
+                    firstStarted.countDown();
+                    if (!secondFinished.await(5, TimeUnit.SECONDS)) {
+                        error.set(new AssertionError("The second batch waited for the first"));
+                    }
+                    first.setAxisValue(1, 0.5f);
+                } catch (InterruptedException e) {
+                    error.set(e);
+                } finally {
+                    packet.endBatch();
+                }
+            }
+        });
+        firstProducer.start();
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+
+        packet.beginBatch();
+        try {
+            second.setAxisValue(0, -0.5f);
+            second.setAxisValue(1, -0.5f);
+        } finally {
+            packet.endBatch();
+        }
+
+        // Nothing from either batch is sent while the first is unfinished
+        DriverStationPacketReader reader = encode();
+        assertEquals(0, reader.getAxis(reader.findJoystick(0), 0));
+        assertEquals(0, reader.getAxis(reader.findJoystick(1), 0));
+
+        secondFinished.countDown();
+        firstProducer.join(5000);
+        assertFalse(firstProducer.isAlive());
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        reader = encode();
+        byte half = DriverStationPacket.Joystick.quantizeAxis(0.5f);
+        assertEquals(half, reader.getAxis(reader.findJoystick(0), 0));
+        assertEquals(half, reader.getAxis(reader.findJoystick(0), 1));
+        byte negativeHalf = DriverStationPacket.Joystick.quantizeAxis(-0.5f);
+        assertEquals(negativeHalf, reader.getAxis(reader.findJoystick(1), 0));
+        assertEquals(negativeHalf, reader.getAxis(reader.findJoystick(1), 1));
+    }
+
+    @Test
+    public void testConcurrentProducersKeepBatchesTogether() throws InterruptedException {
+        final DriverStationPacket.Joystick[] joysticks = {addJoystick(0), addJoystick(1)};
+        // Until there is a consistent packet, there is nothing to send again
+        encode();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] producers = new Thread[joysticks.length];
+        for (int i = 0; i < producers.length; i++) {
+            final DriverStationPacket.Joystick joystick = joysticks[i];
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int step = 0; step < ITERATIONS; step++) {
+                            float value = valueOf(step);
+                            packet.beginBatch();
+                            try {
+                                joystick.setAxisValue(0, value);
+                                joystick.setAxisValue(1, value);
+                            } finally {
+                                packet.endBatch();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            });
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+
+        // Both axes of a joystick are always changed in the same batch, so
+        // they must be equal in every packet
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        DriverStationPacketReader reader = encode();
+                        for (int j = 0; j < joysticks.length; j++) {
+                            int joystick = reader.findJoystick(j);
+                            assertEquals(reader.getAxis(joystick, 0), reader.getAxis(joystick, 1));
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        sender.start();
+
+        for (Thread producer : producers) {
+            producer.join(30000);
+            assertFalse(producer.isAlive());
+        }
+        done.set(true);
+        sender.join(5000);
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        DriverStationPacketReader reader = encode();
+        byte last = DriverStationPacket.Joystick.quantizeAxis(valueOf(ITERATIONS - 1));
+        for (int j = 0; j < joysticks.length; j++) {
+            assertEquals(last, reader.getAxis(reader.findJoystick(j), 0));
+        }
+    }
+
+    @Test
+    public void testEndWithoutBegin() {
+        try {
+            packet.endBatch();
+            fail("Ended a batch that was never started");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        // The packet can still be batched and sent afterwards
+        addJoystick(0).setAxisValue(0, 1);
+        packet.beginBatch();
+        packet.endBatch();
+        DriverStationPacketReader reader = encode();
+        assertEquals(DriverStationPacket.Joystick.quantizeAxis(1), reader.getAxis(reader.findJoystick(0), 0));
+    }
+}
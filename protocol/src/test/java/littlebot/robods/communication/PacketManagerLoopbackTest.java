@@ -0,0 +1,154 @@
+package littlebot.robods.communication;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a {@link PacketManager} against a {@link RobotSimulator} over the
+ * loopback interface, with both transports, and checks that packets get to
+ * the robot, that the replies are matched to them, and that the watchdog
+ * notices when the robot stops replying and when it comes back.
+ *
+ * @author Ben Wolsieffer
+ */
+public class PacketManagerLoopbackTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private final RobotSimulator simulator = new RobotSimulator();
+    private final DriverStationPacket driverStationPacket = new DriverStationPacket();
+    private final PacketManager packetManager = new PacketManager(driverStationPacket, new RobotPacket());
+
+    private final AtomicInteger connectCount = new AtomicInteger();
+    private final AtomicInteger connectionLostCount = new AtomicInteger();
+    private volatile CountDownLatch connected = new CountDownLatch(1);
+    private volatile CountDownLatch connectionLost = new CountDownLatch(1);
+
+    private volatile int robotAxis;
+    private volatile float batteryVoltage;
+    private volatile boolean robotEnabled;
+
+    @After
+    public void tearDown() {
+        packetManager.stop();
+        simulator.stop();
+    }
+
+    /**
+     * Waits until enough round trips have been measured.
+     */
+    private void awaitRoundTrips(long count) throws InterruptedException {
+        LatencyHistogram histogram = packetManager.getRoundTripTracker().getHistogram();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (histogram.getCount() < count) {
+            assertTrue("Only " + histogram.getCount() + " round trips were measured",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void runLoopback(PacketManager.Transport transport) throws IOException, InterruptedException {
+        simulator.setBatteryVoltage(12.5f);
+        simulator.setLatency(2, TimeUnit.MILLISECONDS);
+        simulator.setPacketListener(new RobotSimulator.PacketListener() {
+            @Override
+            public void onPacketReceived(DriverStationPacketReader packet) {
+                int joystick = packet.findJoystick(0);
+                if (joystick >= 0) {
+                    robotAxis = packet.getAxis(joystick, 0);
+                }
+            }
+        });
+        simulator.start();
+
+        DriverStationPacket.Joystick joystick = new DriverStationPacket.Joystick();
+        joystick.setAxisCount(1);
+        joystick.setAxisValue(0, 0.5f);
+        driverStationPacket.addJoystick(0, joystick);
+        driverStationPacket.setMode(DriverStationPacket.Mode.AUTONOMOUS);
+        driverStationPacket.setEnabled(true);
+
+        packetManager.setConnectionListener(new PacketManager.ConnectionListener() {
+            @Override
+            public void onConnect() {
+                connectCount.incrementAndGet();
+                connected.countDown();
+            }
+
+            @Override
+            public void onConnectionLost() {
+                connectionLostCount.incrementAndGet();
+                connectionLost.countDown();
+            }
+
+            @Override
+            public void onConnectionFailed() {
+            }
+        });
+        packetManager.setPacketListener(new PacketManager.PacketListener() {
+            @Override
+            public void onPacketReceived(RobotPacket packet) {
+                batteryVoltage = packet.getBatteryVoltage();
+                robotEnabled = packet.isEnabled();
+            }
+
+            @Override
+            public void onPacketSent(DriverStationPacket packet) {
+            }
+        });
+        packetManager.setTransport(transport);
+        packetManager.start(InetAddress.getByName("127.0.0.1"));
+
+        // Packets arrive and the replies connect the driver station
+        assertTrue("Never connected", connected.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(packetManager.isConnected());
+        assertEquals(1, connectCount.get());
+        awaitRoundTrips(10);
+        assertTrue(simulator.getReceivedCount() >= 10);
+        assertEquals(DriverStationPacket.Mode.AUTONOMOUS, simulator.getMode());
+        assertTrue(simulator.isEnabled());
+        assertEquals(DriverStationPacket.Joystick.quantizeAxis(0.5f), robotAxis);
+        assertEquals(12.5f, batteryVoltage, 0.01f);
+        assertTrue(robotEnabled);
+
+        // Every reply matches a packet that was sent
+        RoundTripTracker roundTripTracker = packetManager.getRoundTripTracker();
+        assertEquals(0, roundTripTracker.getUnmatchedCount());
+        assertEquals(0, packetManager.getSequenceTracker().getTotalLost());
+
+        // The watchdog notices when the robot stops replying
+        simulator.setLossRate(1);
+        assertTrue("Connection loss not detected", connectionLost.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertFalse(packetManager.isConnected());
+        assertEquals(1, connectionLostCount.get());
+
+        // And when it starts replying again
+        connected = new CountDownLatch(1);
+        simulator.setLossRate(0);
+        assertTrue("Never reconnected", connected.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(packetManager.isConnected());
+        assertEquals(2, connectCount.get());
+        assertEquals(1, connectionLostCount.get());
+        assertEquals(0, roundTripTracker.getUnmatchedCount());
+    }
+
+    @Test
+    public void testSocket() throws IOException, InterruptedException {
+        runLoopback(PacketManager.Transport.SOCKET);
+    }
+
+    @Test
+    public void testChannel() throws IOException, InterruptedException {
+        runLoopback(PacketManager.Transport.CHANNEL);
+    }
+}
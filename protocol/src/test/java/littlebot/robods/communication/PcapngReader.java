@@ -0,0 +1,268 @@
+package littlebot.robods.communication;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads UDP datagrams from a pcapng capture file, one block at a time, so that
+ * large captures do not have to be loaded into memory. Only IPv4 over Ethernet
+ * is supported, which is what Wireshark captures on the driver station laptop
+ * contain. Other packets are skipped.
+ *
+ * @author Ben Wolsieffer
+ */
+public class PcapngReader implements Closeable {
+
+    private static final int SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+    private static final int INTERFACE_DESCRIPTION_BLOCK = 0x00000001;
+    private static final int SIMPLE_PACKET_BLOCK = 0x00000003;
+    private static final int ENHANCED_PACKET_BLOCK = 0x00000006;
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int PROTOCOL_UDP = 17;
+
+    /**
+     * A UDP datagram from the capture.
+     */
+    public static class Datagram {
+        private long timestamp;
+        private int sourcePort;
+        private int destinationPort;
+        private final ByteBuffer payload;
+
+        private Datagram(ByteBuffer payload) {
+            this.payload = payload;
+        }
+
+        /**
+         * Gets the time the datagram was captured, in the units of the
+         * interface it was captured on, which is microseconds by default.
+         *
+         * @return the timestamp
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getSourcePort() {
+            return sourcePort;
+        }
+
+        public int getDestinationPort() {
+            return destinationPort;
+        }
+
+        /**
+         * Gets the UDP payload. The buffer is reused for the next datagram.
+         *
+         * @return the payload, between the position and limit of the buffer
+         */
+        public ByteBuffer getPayload() {
+            return payload;
+        }
+    }
+
+    private final DataInputStream in;
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+    private final List<Integer> linkTypes = new ArrayList<>();
+
+    private byte[] block = new byte[2048];
+    private final Datagram datagram = new Datagram(ByteBuffer.allocate(65536));
+
+    public PcapngReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    public PcapngReader(String fileName) throws IOException {
+        this(new FileInputStream(fileName));
+    }
+
+    /**
+     * Reads up to the next UDP datagram in the capture.
+     *
+     * @return the datagram, which is reused by the next call, or null at the
+     * end of the file
+     * @throws IOException if the file could not be read or is not a valid
+     * pcapng file
+     */
+    public Datagram next() throws IOException {
+        while (true) {
+            int type;
+            try {
+                type = readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (type == SECTION_HEADER_BLOCK) {
+                readSectionHeader();
+                continue;
+            }
+
+            int length = readInt();
+            if (length < 12 || length % 4 != 0) {
+                throw new IOException("Invalid block length: " + length);
+            }
+            // The body, without the type and the length at the start and end
+            int bodyLength = length - 12;
+            if (bodyLength > block.length) {
+                block = new byte[bodyLength];
+            }
+            in.readFully(block, 0, bodyLength);
+            readInt();
+            ByteBuffer body = ByteBuffer.wrap(block, 0, bodyLength).order(order);
+
+            switch (type) {
+                case INTERFACE_DESCRIPTION_BLOCK:
+                    linkTypes.add(body.getShort(0) & 0xFFFF);
+                    break;
+                case ENHANCED_PACKET_BLOCK: {
+                    int interfaceId = body.getInt(0);
+                    long timestamp = ((body.getInt(4) & 0xFFFFFFFFL) << 32) | (body.getInt(8) & 0xFFFFFFFFL);
+                    int capturedLength = body.getInt(12);
+                    if (decode(interfaceId, block, 20, capturedLength, timestamp)) {
+                        return datagram;
+                    }
+                    break;
+                }
+                case SIMPLE_PACKET_BLOCK: {
+                    int capturedLength = Math.min(body.getInt(0), bodyLength - 4);
+                    if (decode(0, block, 4, capturedLength, 0)) {
+                        return datagram;
+                    }
+                    break;
+                }
+                default:
+                    // Statistics, name resolution and other blocks
+                    break;
+            }
+        }
+    }
+
+    private void readSectionHeader() throws IOException {
+        // The block length comes before the byte order magic, so it can only
+        // be decoded afterwards
+        byte[] lengthBytes = new byte[4];
+        in.readFully(lengthBytes);
+        int magic = in.readInt();
+        if (magic == BYTE_ORDER_MAGIC) {
+            order = ByteOrder.BIG_ENDIAN;
+        } else if (Integer.reverseBytes(magic) == BYTE_ORDER_MAGIC) {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else {
+            throw new IOException("Invalid byte order magic: " + Integer.toHexString(magic));
+        }
+        int length = ByteBuffer.wrap(lengthBytes).order(order).getInt();
+        // Skip the rest of the block, including the trailing length
+        skipFully(length - 12);
+        // Interface IDs are numbered per section
+        linkTypes.clear();
+    }
+
+    private boolean decode(int interfaceId, byte[] data, int offset, int length, long timestamp) {
+        if (interfaceId >= linkTypes.size() || linkTypes.get(interfaceId) != LINKTYPE_ETHERNET) {
+            return false;
+        }
+        ByteBuffer frame = ByteBuffer.wrap(data, offset, length).slice();
+        int position = 12;
+        if (frame.limit() < position + 2) {
+            return false;
+        }
+        int etherType = frame.getShort(position) & 0xFFFF;
+        if (etherType == ETHERTYPE_VLAN) {
+            position += 4;
+            if (frame.limit() < position + 2) {
+                return false;
+            }
+            etherType = frame.getShort(position) & 0xFFFF;
+        }
+        position += 2;
+        if (etherType != ETHERTYPE_IPV4 || frame.limit() < position + 20) {
+            return false;
+        }
+
+        int headerLength = (frame.get(position) & 0xF) * 4;
+        int fragment = frame.getShort(position + 6) & 0x3FFF;
+        if (frame.get(position + 9) != PROTOCOL_UDP || fragment != 0) {
+            return false;
+        }
+        position += headerLength;
+        if (frame.limit() < position + 8) {
+            return false;
+        }
+        int sourcePort = frame.getShort(position) & 0xFFFF;
+        int destinationPort = frame.getShort(position + 2) & 0xFFFF;
+        // The UDP length is used because Ethernet frames can be padded
+        int payloadLength = (frame.getShort(position + 4) & 0xFFFF) - 8;
+        position += 8;
+        if (payloadLength < 0 || frame.limit() < position + payloadLength) {
+            return false;
+        }
+
+        datagram.timestamp = timestamp;
+        datagram.sourcePort = sourcePort;
+        datagram.destinationPort = destinationPort;
+        datagram.payload.clear();
+        datagram.payload.put(data, offset + position, payloadLength);
+        datagram.payload.flip();
+        return true;
+    }
+
+    private int readInt() throws IOException {
+        int value = in.readInt();
+        return order == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value);
+    }
+
+    private void skipFully(int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Reads all the UDP payloads sent to the specified port from a capture.
+     *
+     * @param fileName the capture file
+     * @param destinationPort the port the datagrams were sent to
+     * @return the payloads
+     * @throws IOException if the file could not be read
+     */
+    public static List<byte[]> readPayloads(String fileName, int destinationPort) throws IOException {
+        List<byte[]> payloads = new ArrayList<>();
+        PcapngReader reader = new PcapngReader(fileName);
+        try {
+            Datagram d;
+            while ((d = reader.next()) != null) {
+                if (d.getDestinationPort() == destinationPort) {
+                    ByteBuffer payload = d.getPayload();
+                    payloads.add(Arrays.copyOfRange(payload.array(), payload.arrayOffset() + payload.position(),
+                            payload.arrayOffset() + payload.limit()));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return payloads;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
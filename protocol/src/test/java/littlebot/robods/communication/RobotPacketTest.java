@@ -0,0 +1,187 @@
+package littlebot.robods.communication;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Decodes hand made robot status packets, including truncated and malformed
+ * ones, with {@link RobotPacket}.
+ *
+ * @author Ben Wolsieffer
+ */
+public class RobotPacketTest {
+
+    private final RobotPacket packet = new RobotPacket();
+
+    private static byte[] header(int index, int flags, int volts, int fraction) {
+        return new byte[]{
+                (byte) (index >> 8), (byte) index, 0x01, (byte) flags, 0x30,
+                (byte) volts, (byte) fraction, 0x00
+        };
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, data, offset, part.length);
+            offset += part.length;
+        }
+        return data;
+    }
+
+    private RobotPacket wrap(byte[] data) {
+        return packet.wrap(ByteBuffer.wrap(data));
+    }
+
+    @Test
+    public void testHeader() {
+        wrap(header(0x1234, 0x06, 12, 0x80));
+        assertTrue(packet.isValid());
+        assertEquals(RobotPacket.HEADER_LENGTH, packet.getLength());
+        assertEquals(0x1234, packet.getIndex());
+        assertEquals(DriverStationPacket.Mode.AUTONOMOUS, packet.getMode());
+        assertTrue(packet.isEnabled());
+        assertEquals(12.5f, packet.getBatteryVoltage(), 0);
+        assertEquals(1250, packet.getBatteryCentivolts());
+        assertEquals(-1, packet.firstSection());
+    }
+
+    @Test
+    public void testStatusFlags() {
+        wrap(header(0xFFFF, 0x00, 0, 0));
+        assertEquals(0xFFFF, packet.getIndex());
+        assertEquals(DriverStationPacket.Mode.TELEOPERATED, packet.getMode());
+        assertFalse(packet.isEnabled());
+
+        wrap(header(0, 0x05, 0, 0));
+        assertEquals(DriverStationPacket.Mode.TEST, packet.getMode());
+        assertTrue(packet.isEnabled());
+
+        wrap(header(0, 0x03, 0, 0));
+        assertNull(packet.getMode());
+    }
+
+    @Test
+    public void testBatteryVoltage() {
+        wrap(header(0, 0, 12, 0x40));
+        assertEquals(12.25f, packet.getBatteryVoltage(), 0);
+        assertEquals(1225, packet.getBatteryCentivolts());
+
+        // Rounded to the nearest hundredth, even into the next volt
+        wrap(header(0, 0, 12, 0xFF));
+        assertEquals(1300, packet.getBatteryCentivolts());
+        wrap(header(0, 0, 255, 0x01));
+        assertEquals(25500, packet.getBatteryCentivolts());
+    }
+
+    @Test
+    public void testSections() {
+        int bits = Float.floatToIntBits(1.5f);
+        byte[] data = concat(header(1, 0, 12, 0),
+                new byte[]{5, RobotPacket.SECTION_04, (byte) (bits >> 24), (byte) (bits >> 16), (byte) (bits >> 8), (byte) bits},
+                new byte[]{1, RobotPacket.SECTION_0E});
+        wrap(data);
+
+        int section = packet.firstSection();
+        assertEquals(RobotPacket.HEADER_LENGTH, section);
+        assertEquals(RobotPacket.SECTION_04, packet.getSectionType(section));
+        assertEquals(6, packet.getSectionLength(section));
+        assertEquals(4, packet.getSectionDataLength(section));
+        assertEquals(1.5f, packet.getFloat(packet.getSectionDataOffset(section)), 0);
+        assertEquals(bits, packet.getInt(packet.getSectionDataOffset(section)));
+
+        section = packet.nextSection(section);
+        assertEquals(RobotPacket.HEADER_LENGTH + 6, section);
+        assertEquals(RobotPacket.SECTION_0E, packet.getSectionType(section));
+        assertEquals(0, packet.getSectionDataLength(section));
+        assertEquals(-1, packet.nextSection(section));
+
+        assertEquals(RobotPacket.HEADER_LENGTH + 6, packet.findSection(RobotPacket.SECTION_0E));
+        assertEquals(-1, packet.findSection(RobotPacket.SECTION_05));
+    }
+
+    @Test
+    public void testWrapInsideBuffer() {
+        byte[] data = concat(new byte[]{0x7F, 0x7F, 0x7F}, header(0x0102, 0x04, 11, 0), new byte[]{0x7F});
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(3);
+        buffer.limit(3 + RobotPacket.HEADER_LENGTH);
+        packet.wrap(buffer);
+        assertTrue(packet.isValid());
+        assertEquals(0x0102, packet.getIndex());
+        assertEquals(1100, packet.getBatteryCentivolts());
+        // Nothing past the limit is read
+        assertEquals(-1, packet.firstSection());
+        assertEquals(3, buffer.position());
+        assertEquals(3 + RobotPacket.HEADER_LENGTH, buffer.limit());
+    }
+
+    @Test
+    public void testTruncatedHeader() {
+        assertFalse(packet.isValid());
+        wrap(new byte[0]);
+        assertFalse(packet.isValid());
+        byte[] header = header(1, 0, 12, 0);
+        byte[] truncated = new byte[RobotPacket.HEADER_LENGTH - 1];
+        System.arraycopy(header, 0, truncated, 0, truncated.length);
+        wrap(truncated);
+        assertFalse(packet.isValid());
+    }
+
+    @Test
+    public void testMalformedSections() {
+        // Longer than the rest of the packet
+        wrap(concat(header(1, 0, 12, 0), new byte[]{5, RobotPacket.SECTION_04, 0, 0}));
+        assertEquals(-1, packet.firstSection());
+
+        // Too short to hold its own header
+        wrap(concat(header(1, 0, 12, 0), new byte[]{0, RobotPacket.SECTION_04}));
+        assertEquals(-1, packet.firstSection());
+
+        // Only the length of a section
+        wrap(concat(header(1, 0, 12, 0), new byte[]{1}));
+        assertEquals(-1, packet.firstSection());
+
+        // A complete section followed by a truncated one
+        wrap(concat(header(1, 0, 12, 0), new byte[]{1, RobotPacket.SECTION_0E, 3, RobotPacket.SECTION_06}));
+        int section = packet.firstSection();
+        assertEquals(RobotPacket.SECTION_0E, packet.getSectionType(section));
+        assertEquals(-1, packet.nextSection(section));
+        assertEquals(-1, packet.findSection(RobotPacket.SECTION_06));
+    }
+
+    @Test
+    public void testReadsAreBoundsChecked() {
+        wrap(header(1, 0, 12, 0));
+        try {
+            packet.getByte(RobotPacket.HEADER_LENGTH);
+            fail("Read past the end of the packet");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            packet.getInt(RobotPacket.HEADER_LENGTH - 2);
+            fail("Read an integer past the end of the packet");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            packet.getByte(-1);
+            fail("Read before the start of the packet");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package littlebot.robods.communication;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pretends to be a roboRIO, so that the driver station can be tested without a
+ * robot. It receives driver station packets on UDP port 1110 and replies to
+ * each one on port 1150 of the sender with a status packet that echoes the
+ * packet index, mode and enabled state, like a real robot. Network problems
+ * can be simulated by delaying replies by a fixed latency plus a random
+ * jitter, which can reorder them, and by dropping a fraction of the packets
+ * the robot receives.
+ * <p/>
+ * This only uses plain Java, so tests can run it on a development machine or
+ * a build server, as {@link PacketManagerLoopbackTest} does.
+ *
+ * @author Ben Wolsieffer
+ */
+public class RobotSimulator {
+
+    public static final int DS_PORT = 1110;
+    public static final int ROBOT_PORT = 1150;
+
+    /**
+     * The length of the status packets sent by the simulator, which do not
+     * contain any sections.
+     */
+    private static final int REPLY_LENGTH = RobotPacket.HEADER_LENGTH;
+
+    private static final DriverStationPacket.Mode[] MODES = {
+            DriverStationPacket.Mode.TELEOPERATED,
+            DriverStationPacket.Mode.TEST,
+            DriverStationPacket.Mode.AUTONOMOUS,
+            null
+    };
+
+    public interface PacketListener {
+        /**
+         * Called on the receiving thread when a packet from the driver station
+         * is received and not dropped. The reader is only valid until this
+         * method returns.
+         *
+         * @param packet the received packet
+         */
+        void onPacketReceived(DriverStationPacketReader packet);
+    }
+
+    private final int listenPort;
+    private final int replyPort;
+
+    private volatile long latency;
+    private volatile long jitter;
+    private volatile double lossRate;
+    private volatile int batteryCentivolts = 1250;
+    private volatile PacketListener packetListener;
+
+    private final Random random = new Random();
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong repliedCount = new AtomicLong();
+    private volatile int lastIndex;
+    private volatile int lastFlags;
+
+    private DatagramSocket socket;
+    private Thread receiveThread;
+    private ScheduledExecutorService replyExecutor;
+
+    /**
+     * Creates a simulator that uses the standard ports.
+     */
+    public RobotSimulator() {
+        this(DS_PORT, ROBOT_PORT);
+    }
+
+    /**
+     * Creates a simulator that uses the specified ports.
+     *
+     * @param listenPort the port to receive driver station packets on
+     * @param replyPort the port to send status packets to
+     */
+    public RobotSimulator(int listenPort, int replyPort) {
+        this.listenPort = listenPort;
+        this.replyPort = replyPort;
+    }
+
+    /**
+     * Starts receiving packets.
+     *
+     * @throws IOException if the socket could not be opened
+     */
+    public synchronized void start() throws IOException {
+        if (socket != null) {
+            return;
+        }
+        socket = new DatagramSocket(null);
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(listenPort));
+
+        replyExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RobotSimulator reply");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final DatagramSocket socket = this.socket;
+        receiveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive(socket);
+            }
+        }, "RobotSimulator receive");
+        receiveThread.setDaemon(true);
+        receiveThread.start();
+    }
+
+    /**
+     * Stops receiving packets and waits for the receiving thread to finish.
+     * Replies that are still delayed are not sent.
+     */
+    public synchronized void stop() {
+        if (socket == null) {
+            return;
+        }
+        socket.close();
+        replyExecutor.shutdownNow();
+        while (receiveThread.isAlive()) {
+            try {
+                receiveThread.join();
+            } catch (InterruptedException e) {
+            }
+        }
+        socket = null;
+        receiveThread = null;
+        replyExecutor = null;
+    }
+
+    private void receive(DatagramSocket socket) {
+        byte[] data = new byte[DriverStationPacket.MAX_LENGTH];
+        DatagramPacket datagram = new DatagramPacket(data, data.length);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        DriverStationPacketReader reader = new DriverStationPacketReader();
+
+        while (!socket.isClosed()) {
+            try {
+                datagram.setLength(data.length);
+                socket.receive(datagram);
+            } catch (IOException e) {
+                // Closed by stop()
+                break;
+            }
+            buffer.limit(datagram.getLength());
+            if (!reader.wrap(buffer).isValid()) {
+                continue;
+            }
+            receivedCount.incrementAndGet();
+            if (random.nextDouble() < lossRate) {
+                droppedCount.incrementAndGet();
+                continue;
+            }
+
+            lastIndex = reader.getIndex();
+            lastFlags = reader.getFlags();
+            PacketListener listener = packetListener;
+            if (listener != null) {
+                listener.onPacketReceived(reader);
+            }
+
+            reply(socket, createReply(reader), datagram.getAddress());
+        }
+    }
+
+    /**
+     * Creates a status packet in reply to a driver station packet.
+     */
+    private byte[] createReply(DriverStationPacketReader packet) {
+        int index = packet.getIndex();
+        int flags = packet.getFlags() & 0x3;
+        // An emergency stopped robot stays disabled
+        if (packet.isEnabled() && !packet.isEmergencyStopped()) {
+            flags |= 0x4;
+        }
+        int centivolts = batteryCentivolts;
+
+        byte[] reply = new byte[REPLY_LENGTH];
+        reply[0] = (byte) (index >> 8);
+        reply[1] = (byte) index;
+        reply[2] = 0x01;
+        reply[3] = (byte) flags;
+        // Same as the status byte of a real robot with code running
+        reply[4] = 0x30;
+        reply[5] = (byte) (centivolts / 100);
+        reply[6] = (byte) ((centivolts % 100) * 256 / 100);
+        return reply;
+    }
+
+    private void reply(final DatagramSocket socket, byte[] reply, InetAddress address) {
+        final DatagramPacket datagram = new DatagramPacket(reply, reply.length, address, replyPort);
+        long delay = latency;
+        long jitter = this.jitter;
+        if (jitter > 0) {
+            delay += (long) ((random.nextDouble() * 2 - 1) * jitter);
+        }
+        Runnable send = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    socket.send(datagram);
+                    repliedCount.incrementAndGet();
+                } catch (IOException e) {
+                    // The socket was closed, or the driver station went away
+                }
+            }
+        };
+        if (delay > 0) {
+            replyExecutor.schedule(send, delay, TimeUnit.NANOSECONDS);
+        } else {
+            send.run();
+        }
+    }
+
+    /**
+     * Sets how long each reply is delayed.
+     *
+     * @param latency the delay
+     * @param unit the unit of the delay
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latency = unit.toNanos(latency);
+    }
+
+    /**
+     * Sets the largest random amount that is added to or subtracted from the
+     * latency of each reply.
+     *
+     * @param jitter the jitter
+     * @param unit the unit of the jitter
+     */
+    public void setJitter(long jitter, TimeUnit unit) {
+        this.jitter = unit.toNanos(jitter);
+    }
+
+    /**
+     * Sets the fraction of driver station packets that are ignored, as if
+     * they or their replies were lost.
+     *
+     * @param lossRate the loss rate, between 0 and 1
+     */
+    public void setLossRate(double lossRate) {
+        if (lossRate < 0 || lossRate > 1) {
+            throw new IllegalArgumentException("Loss rate must be between 0 and 1, was given: " + lossRate);
+        }
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * Sets the battery voltage reported to the driver station.
+     *
+     * @param voltage the voltage
+     */
+    public void setBatteryVoltage(float voltage) {
+        batteryCentivolts = Math.round(voltage * 100);
+    }
+
+    public void setPacketListener(PacketListener listener) {
+        packetListener = listener;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getRepliedCount() {
+        return repliedCount.get();
+    }
+
+    /**
+     * Gets the index of the last packet that was not dropped.
+     *
+     * @return the packet index
+     */
+    public int getLastIndex() {
+        return lastIndex;
+    }
+
+    /**
+     * Gets the mode of the last packet that was not dropped.
+     *
+     * @return the mode, or null if the mode is unknown
+     */
+    public DriverStationPacket.Mode getMode() {
+        return MODES[lastFlags & 0x3];
+    }
+
+    /**
+     * Checks whether the last packet that was not dropped enabled the robot.
+     *
+     * @return true if the robot is enabled
+     */
+    public boolean isEnabled() {
+        return (lastFlags & 0x4) != 0 && (lastFlags & 0x80) == 0;
+    }
+}
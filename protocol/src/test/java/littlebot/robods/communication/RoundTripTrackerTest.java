@@ -0,0 +1,103 @@
+package littlebot.robods.communication;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link RoundTripTracker} matches replies to the packets they
+ * answer, and only counts each packet once.
+ *
+ * @author Ben Wolsieffer
+ */
+public class RoundTripTrackerTest {
+
+    private static final long START = TimeUnit.SECONDS.toNanos(10);
+
+    private final RoundTripTracker tracker = new RoundTripTracker();
+
+    private static long micros(long micros) {
+        return START + TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    @Test
+    public void testReplyMatchesSend() {
+        tracker.packetSent(5, micros(0));
+        tracker.packetSent(6, micros(20000));
+        assertTrue(tracker.packetReceived(6, micros(21500)));
+        assertTrue(tracker.packetReceived(5, micros(22000)));
+
+        LatencyHistogram histogram = tracker.getHistogram();
+        assertEquals(2, histogram.getCount());
+        assertEquals(22000, histogram.getMax());
+        assertEquals(22000, histogram.getLast());
+        assertEquals(0, tracker.getUnmatchedCount());
+    }
+
+    @Test
+    public void testUnmatchedReplies() {
+        // Never sent
+        assertFalse(tracker.packetReceived(7, micros(1000)));
+
+        // Duplicate
+        tracker.packetSent(8, micros(0));
+        assertTrue(tracker.packetReceived(8, micros(1000)));
+        assertFalse(tracker.packetReceived(8, micros(2000)));
+
+        // Forgotten because a newer packet uses the same slot
+        tracker.packetSent(9, micros(0));
+        tracker.packetSent(9 + RoundTripTracker.CAPACITY, micros(1000));
+        assertFalse(tracker.packetReceived(9, micros(2000)));
+        assertTrue(tracker.packetReceived(9 + RoundTripTracker.CAPACITY, micros(3000)));
+
+        assertEquals(3, tracker.getUnmatchedCount());
+        assertEquals(2, tracker.getHistogram().getCount());
+    }
+
+    @Test
+    public void testIndexWraparound() {
+        tracker.packetSent(0xFFFF, micros(0));
+        tracker.packetSent(0, micros(20000));
+        assertTrue(tracker.packetReceived(0xFFFF, micros(1000)));
+        assertTrue(tracker.packetReceived(0, micros(21000)));
+        assertEquals(1000, tracker.getHistogram().getMax());
+        assertEquals(0, tracker.getUnmatchedCount());
+    }
+
+    @Test
+    public void testTimeWraparound() {
+        // System.nanoTime() can be negative
+        tracker.packetSent(1, -TimeUnit.MICROSECONDS.toNanos(1000));
+        assertTrue(tracker.packetReceived(1, TimeUnit.MICROSECONDS.toNanos(500)));
+        assertEquals(1500, tracker.getHistogram().getLast());
+    }
+
+    @Test
+    public void testPacketNotSent() {
+        tracker.packetSent(3, micros(0));
+        tracker.packetNotSent(3);
+        assertFalse(tracker.packetReceived(3, micros(1000)));
+
+        // A newer packet in the same slot is kept
+        tracker.packetSent(4 + RoundTripTracker.CAPACITY, micros(0));
+        tracker.packetNotSent(4);
+        assertTrue(tracker.packetReceived(4 + RoundTripTracker.CAPACITY, micros(1000)));
+    }
+
+    @Test
+    public void testReset() {
+        tracker.packetSent(1, micros(0));
+        tracker.packetSent(2, micros(0));
+        assertTrue(tracker.packetReceived(1, micros(1000)));
+        assertFalse(tracker.packetReceived(3, micros(1000)));
+
+        tracker.reset();
+        assertFalse(tracker.packetReceived(2, micros(2000)));
+        assertEquals(1, tracker.getUnmatchedCount());
+        assertEquals(0, tracker.getHistogram().getCount());
+    }
+}
@@ -0,0 +1,210 @@
+package littlebot.robods.communication;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Steps a {@link SendScheduler} with made up times, using the same settings
+ * as {@link PacketManager}.
+ *
+ * @author Ben Wolsieffer
+ */
+public class SendSchedulerTest {
+
+    private static final long START = -TimeUnit.SECONDS.toNanos(3);
+
+    private final SendScheduler scheduler = new SendScheduler(20, TimeUnit.MILLISECONDS, 2);
+
+    public SendSchedulerTest() {
+        scheduler.setMinimumGap(5, TimeUnit.MILLISECONDS);
+    }
+
+    private static long ms(double ms) {
+        return START + (long) (ms * 1000000);
+    }
+
+    @Test
+    public void testGrid() {
+        scheduler.start(ms(0));
+        assertTrue(scheduler.tick(ms(0)));
+        assertFalse(scheduler.tick(ms(1)));
+        assertEquals(ms(20) - ms(1), scheduler.getDelay(ms(1)));
+        assertFalse(scheduler.tick(ms(19.999)));
+        assertTrue(scheduler.tick(ms(20)));
+        assertFalse(scheduler.tick(ms(20)));
+
+        // A late tick does not move the ones after it
+        assertTrue(scheduler.tick(ms(47)));
+        assertEquals(ms(60) - ms(47), scheduler.getDelay(ms(47)));
+        assertFalse(scheduler.tick(ms(59)));
+        assertTrue(scheduler.tick(ms(60)));
+
+        assertEquals(4, scheduler.getTickCount());
+        assertEquals(0, scheduler.getSkippedTickCount());
+        assertEquals(0, scheduler.getLastJitter());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(7), scheduler.getMaxJitter());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(7) / 4, scheduler.getAverageJitter());
+    }
+
+    @Test
+    public void testCatchUp() {
+        scheduler.start(ms(0));
+        assertTrue(scheduler.tick(ms(0)));
+        // Two missed ticks are sent right away
+        assertTrue(scheduler.tick(ms(65)));
+        assertTrue(scheduler.tick(ms(65)));
+        assertTrue(scheduler.tick(ms(65)));
+        assertFalse(scheduler.tick(ms(65)));
+        assertEquals(0, scheduler.getSkippedTickCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(45), scheduler.getMaxJitter());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), scheduler.getLastJitter());
+        assertTrue(scheduler.tick(ms(80)));
+    }
+
+    @Test
+    public void testSkip() {
+        scheduler.start(ms(0));
+        assertTrue(scheduler.tick(ms(0)));
+        // Three missed ticks are too many, so they are skipped, but the
+        // schedule stays on the same grid
+        assertTrue(scheduler.tick(ms(85)));
+        assertFalse(scheduler.tick(ms(85)));
+        assertEquals(3, scheduler.getSkippedTickCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), scheduler.getLastJitter());
+        assertEquals(ms(100) - ms(85), scheduler.getDelay(ms(85)));
+        assertTrue(scheduler.tick(ms(100)));
+        assertEquals(3, scheduler.getTickCount());
+    }
+
+    @Test
+    public void testMinimumGap() {
+        assertEquals(5, scheduler.getMinimumGap(TimeUnit.MILLISECONDS));
+        scheduler.start(ms(0));
+        // The first regular tick is due
+        assertFalse(scheduler.tickImmediate(ms(0)));
+        assertTrue(scheduler.tick(ms(0)));
+
+        assertFalse(scheduler.tickImmediate(ms(4)));
+        assertEquals(ms(5) - ms(4), scheduler.getImmediateDelay(ms(4)));
+        assertTrue(scheduler.tickImmediate(ms(5)));
+        assertFalse(scheduler.tickImmediate(ms(9.999)));
+        assertTrue(scheduler.tickImmediate(ms(10)));
+        assertTrue(scheduler.tickImmediate(ms(15)));
+
+        // Regular ticks are not moved or held back by extra ones, and extra
+        // ones are not sent too close before them
+        assertFalse(scheduler.tickImmediate(ms(18)));
+        assertEquals(ms(20) - ms(18), scheduler.getImmediateDelay(ms(18)));
+        assertEquals(ms(20) - ms(18), scheduler.getDelay(ms(18)));
+        assertTrue(scheduler.tick(ms(20)));
+        assertFalse(scheduler.tickImmediate(ms(24)));
+        assertTrue(scheduler.tickImmediate(ms(25)));
+
+        assertEquals(4, scheduler.getImmediateTickCount());
+        assertEquals(2, scheduler.getTickCount());
+        assertEquals(0, scheduler.getMaxJitter());
+    }
+
+    /**
+     * Runs the scheduler the same way as the send loop in {@link PacketManager},
+     * with changes requested at random times, and checks that no two packets
+     * are ever closer together than the minimum gap, that the regular ticks
+     * stay on the grid and that every change goes out within a period.
+     */
+    @Test
+    public void testSimulatedClock() {
+        Random random = new Random(42);
+        long period = scheduler.getPeriod(TimeUnit.NANOSECONDS);
+        long minimumGap = scheduler.getMinimumGap(TimeUnit.NANOSECONDS);
+        long end = ms(10000);
+
+        long now = ms(0);
+        scheduler.start(now);
+        long nextRequest = now + random.nextInt((int) period);
+        boolean pending = false;
+        long requested = 0;
+        long lastSend = 0;
+        boolean sent = false;
+        while (now < end) {
+            if (!pending && now >= nextRequest) {
+                pending = true;
+                requested = now;
+            }
+
+            boolean tick = scheduler.tick(now);
+            if (tick || (pending && scheduler.tickImmediate(now))) {
+                if (sent) {
+                    assertTrue("Packets " + (now - lastSend) + " ns apart", now - lastSend >= minimumGap);
+                }
+                if (tick) {
+                    assertEquals("Tick off the grid", 0, (now - ms(0)) % period);
+                }
+                if (pending) {
+                    assertTrue("Change waited " + (now - requested) + " ns", now - requested <= period);
+                    pending = false;
+                    nextRequest = now + random.nextInt((int) (2 * period));
+                }
+                lastSend = now;
+                sent = true;
+                continue;
+            }
+
+            long delay = scheduler.getDelay(now);
+            if (pending) {
+                delay = Math.min(delay, scheduler.getImmediateDelay(now));
+            } else {
+                delay = Math.min(delay, nextRequest - now);
+            }
+            assertTrue("Busy waiting at " + now, delay > 0);
+            now += delay;
+        }
+        assertTrue(scheduler.getImmediateTickCount() > 0);
+        assertEquals(0, scheduler.getMaxJitter());
+    }
+
+    @Test
+    public void testResetStatistics() {
+        scheduler.start(ms(0));
+        assertTrue(scheduler.tick(ms(3)));
+        assertTrue(scheduler.tick(ms(90)));
+        assertTrue(scheduler.tickImmediate(ms(95)));
+        scheduler.resetStatistics();
+        assertEquals(0, scheduler.getTickCount());
+        assertEquals(0, scheduler.getSkippedTickCount());
+        assertEquals(0, scheduler.getImmediateTickCount());
+        assertEquals(0, scheduler.getMaxJitter());
+        assertEquals(0, scheduler.getAverageJitter());
+        // The schedule itself is kept
+        assertFalse(scheduler.tick(ms(99)));
+        assertTrue(scheduler.tick(ms(100)));
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        try {
+            new SendScheduler(0, TimeUnit.MILLISECONDS, 2);
+            fail("Accepted a period of zero");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new SendScheduler(20, TimeUnit.MILLISECONDS, -1);
+            fail("Accepted a negative number of catch up ticks");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            scheduler.setMinimumGap(-1, TimeUnit.MILLISECONDS);
+            fail("Accepted a negative minimum gap");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package littlebot.robods.communication;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Feeds packet indices to a {@link SequenceTracker} and checks what it counts
+ * as lost, reordered and duplicated.
+ *
+ * @author Ben Wolsieffer
+ */
+public class SequenceTrackerTest {
+
+    private final SequenceTracker tracker = new SequenceTracker();
+
+    private long now = TimeUnit.SECONDS.toNanos(100);
+
+    private void receive(int... indices) {
+        for (int index : indices) {
+            tracker.packetReceived(index, now);
+            now += TimeUnit.MILLISECONDS.toNanos(20);
+        }
+    }
+
+    private void assertTotals(long received, long lost, long reordered, long duplicates) {
+        assertEquals("received", received, tracker.getTotalReceived());
+        assertEquals("lost", lost, tracker.getTotalLost());
+        assertEquals("reordered", reordered, tracker.getTotalReordered());
+        assertEquals("duplicates", duplicates, tracker.getTotalDuplicates());
+    }
+
+    @Test
+    public void testInOrder() {
+        for (int i = 0; i < 100; i++) {
+            receive(i);
+        }
+        assertTotals(100, 0, 0, 0);
+        assertEquals(100, tracker.getWindowReceived());
+        assertEquals(0, tracker.getWindowGaps());
+        assertEquals(0, tracker.getLossRate(), 0);
+    }
+
+    @Test
+    public void testGap() {
+        receive(0, 1, 2, 5, 6, 8);
+        assertTotals(6, 3, 0, 0);
+        assertEquals(3, tracker.getWindowLost());
+        assertEquals(2, tracker.getWindowGaps());
+        assertEquals(2, tracker.getWindowLongestGap());
+        assertEquals(3 / 9f, tracker.getLossRate(), 1e-6f);
+    }
+
+    @Test
+    public void testLateArrival() {
+        receive(0, 1, 4, 2, 5, 3);
+        assertTotals(6, 0, 2, 0);
+        assertEquals(0, tracker.getWindowLost());
+        assertEquals(2, tracker.getWindowReordered());
+        // The gap still happened
+        assertEquals(1, tracker.getWindowGaps());
+    }
+
+    @Test
+    public void testLateArrivalInLaterBucket() {
+        receive(0, 3);
+        now += TimeUnit.SECONDS.toNanos(1);
+        receive(1);
+        assertTotals(3, 1, 1, 0);
+        assertEquals(1, tracker.getWindowLost());
+
+        // Once the bucket of the gap leaves the window, so does the loss
+        now += TimeUnit.SECONDS.toNanos(15);
+        receive(2, 4);
+        assertTotals(5, 0, 2, 0);
+        assertEquals(0, tracker.getWindowLost());
+        assertEquals(1, tracker.getWindowReordered());
+    }
+
+    @Test
+    public void testDuplicates() {
+        receive(0, 1, 2, 2, 1, 3);
+        assertTotals(4, 0, 0, 2);
+        assertEquals(2, tracker.getWindowDuplicates());
+
+        // A late packet that shows up twice is only reordered once
+        receive(6, 5, 5, 4);
+        assertTotals(7, 0, 2, 3);
+    }
+
+    @Test
+    public void testWraparound() {
+        receive(0xFFFD, 0xFFFE, 0xFFFF, 0, 1);
+        assertTotals(5, 0, 0, 0);
+
+        receive(4, 0xFFFF, 2);
+        assertTotals(7, 1, 1, 1);
+        assertEquals(0, tracker.getResyncCount());
+    }
+
+    @Test
+    public void testRestart() {
+        receive(0, 1, 2, 3);
+        tracker.restart();
+        // The jump is not counted as lost, or as a resync
+        receive(1000, 1001);
+        assertTotals(6, 0, 0, 0);
+        assertEquals(0, tracker.getResyncCount());
+
+        // A packet from before the restart was never counted as lost
+        receive(998);
+        assertTotals(7, 0, 1, 0);
+        assertEquals(0, tracker.getWindowLost());
+
+        // The first packet after starting is the same
+        SequenceTracker tracker = new SequenceTracker();
+        tracker.packetReceived(50, now);
+        tracker.packetReceived(49, now);
+        assertEquals(0, tracker.getTotalLost());
+        assertEquals(0, tracker.getWindowLost());
+    }
+
+    @Test
+    public void testResync() {
+        receive(10, 12);
+        assertTotals(2, 1, 0, 0);
+        // Too far to be lost packets
+        receive(10000, 10001);
+        assertEquals(1, tracker.getResyncCount());
+        assertTotals(4, 1, 0, 0);
+
+        // Before the resync, so it was never counted as lost
+        receive(9999);
+        assertTotals(5, 1, 1, 0);
+        assertEquals(1, tracker.getWindowLost());
+
+        receive(10003, 10002);
+        assertTotals(7, 1, 2, 0);
+    }
+}
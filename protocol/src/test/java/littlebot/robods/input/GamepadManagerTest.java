@@ -0,0 +1,342 @@
+package littlebot.robods.input;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds synthetic gamepad events through a {@link GamepadManager} and checks
+ * what reaches the joysticks.
+ *
+ * @author Ben Wolsieffer
+ */
+public class GamepadManagerTest {
+
+    /**
+     * Records registrations and values, keyed by strings such as "a0.1" for
+     * axis 1 of joystick 0.
+     */
+    private static class RecordingSink implements ControlSink {
+
+        private final Map<String, Integer> handles = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<Object> values = new ArrayList<>();
+        private int setCount;
+        private int batchDepth;
+
+        private int getHandle(String name) {
+            Integer handle = handles.get(name);
+            return handle != null ? handle : NO_HANDLE;
+        }
+
+        private int register(String name, Object rest) {
+            int handle = getHandle(name);
+            if (handle == NO_HANDLE) {
+                handle = names.size();
+                handles.put(name, handle);
+                names.add(name);
+                values.add(rest);
+            }
+            return handle;
+        }
+
+        private void set(int handle, Object value) {
+            assertTrue(handles.containsKey(names.get(handle)));
+            values.set(handle, value);
+            setCount++;
+        }
+
+        boolean isRegistered(String name) {
+            return handles.containsKey(name);
+        }
+
+        Object getValue(String name) {
+            int handle = names.indexOf(name);
+            return handle >= 0 ? values.get(handle) : null;
+        }
+
+        @Override
+        public int getAxisHandle(int joystick, int axis) {
+            return getHandle("a" + joystick + "." + axis);
+        }
+
+        @Override
+        public int getButtonHandle(int joystick, int button) {
+            return getHandle("b" + joystick + "." + button);
+        }
+
+        @Override
+        public int getPOVHatHandle(int joystick, int povHat) {
+            return getHandle("p" + joystick + "." + povHat);
+        }
+
+        @Override
+        public int registerAxis(int joystick, int axis) {
+            return register("a" + joystick + "." + axis, 0f);
+        }
+
+        @Override
+        public int registerButton(int joystick, int button) {
+            return register("b" + joystick + "." + button, false);
+        }
+
+        @Override
+        public int registerPOVHat(int joystick, int povHat) {
+            return register("p" + joystick + "." + povHat, -1);
+        }
+
+        @Override
+        public void unregisterAxis(int joystick, int axis) {
+            handles.remove("a" + joystick + "." + axis);
+        }
+
+        @Override
+        public void unregisterButton(int joystick, int button) {
+            handles.remove("b" + joystick + "." + button);
+        }
+
+        @Override
+        public void unregisterPOVHat(int joystick, int povHat) {
+            handles.remove("p" + joystick + "." + povHat);
+        }
+
+        @Override
+        public void setAxis(int handle, float value) {
+            set(handle, value);
+        }
+
+        @Override
+        public void setButton(int handle, boolean pressed) {
+            set(handle, pressed);
+        }
+
+        @Override
+        public void setPOVHat(int handle, int angle) {
+            set(handle, angle);
+        }
+
+        @Override
+        public void beginBatch() {
+            batchDepth++;
+        }
+
+        @Override
+        public void endBatch() {
+            batchDepth--;
+        }
+    }
+
+    @Test
+    public void testStandardMapping() {
+        RecordingSink sink = new RecordingSink();
+        GamepadManager manager = new GamepadManager(sink, 0, 4);
+        GamepadMapper mapper = manager.addDevice(7, GamepadMapping.createStandard());
+        assertNotNull(mapper);
+        assertEquals(0, mapper.getJoystickIndex());
+        for (int axis = 0; axis < 6; axis++) {
+            assertTrue(sink.isRegistered("a0." + axis));
+        }
+        for (int button = 0; button < 10; button++) {
+            assertTrue(sink.isRegistered("b0." + button));
+        }
+        assertTrue(sink.isRegistered("p0.0"));
+
+        // Several samples of one event, where only the last one of each axis
+        // should be left
+        mapper.beginEvent();
+        assertTrue(mapper.axisChanged(GamepadMapping.AXIS_X, 0.25f));
+        assertTrue(mapper.axisChanged(GamepadMapping.AXIS_X, 0.5f));
+        assertTrue(mapper.axisChanged(GamepadMapping.AXIS_Y, -1));
+        assertTrue(mapper.axisChanged(GamepadMapping.AXIS_BRAKE, 0.75f));
+        assertTrue(mapper.axisChanged(GamepadMapping.AXIS_RZ, 0.125f));
+        assertFalse(mapper.axisChanged(GamepadMapping.AXIS_RX, 1));
+        mapper.endEvent();
+        assertEquals(0, sink.batchDepth);
+        assertEquals(0.5f, sink.getValue("a0.0"));
+        assertEquals(-1f, sink.getValue("a0.1"));
+        assertEquals(0.75f, sink.getValue("a0.2"));
+        assertEquals(0.125f, sink.getValue("a0.5"));
+
+        // The back and select keys both press button 6
+        assertTrue(mapper.keyChanged(GamepadMapping.KEYCODE_BUTTON_A, true));
+        assertTrue(mapper.keyChanged(GamepadMapping.KEYCODE_BUTTON_SELECT, true));
+        assertTrue(mapper.keyChanged(GamepadMapping.KEYCODE_BACK, true));
+        assertEquals(true, sink.getValue("b0.0"));
+        assertEquals(true, sink.getValue("b0.6"));
+        assertTrue(mapper.keyChanged(GamepadMapping.KEYCODE_BUTTON_SELECT, false));
+        assertEquals(true, sink.getValue("b0.6"));
+        assertTrue(mapper.keyChanged(GamepadMapping.KEYCODE_BACK, false));
+        assertEquals(false, sink.getValue("b0.6"));
+        assertFalse(mapper.keyChanged(GamepadMapping.KEYCODE_BUTTON_L2, true));
+    }
+
+    @Test
+    public void testPOVHat() {
+        RecordingSink sink = new RecordingSink();
+        GamepadManager manager = new GamepadManager(sink, 0, 1);
+        GamepadMapper mapper = manager.addDevice(1, GamepadMapping.createStandard());
+
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_Y, -1);
+        assertEquals(0, sink.getValue("p0.0"));
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_X, 1);
+        assertEquals(45, sink.getValue("p0.0"));
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_Y, 0);
+        assertEquals(90, sink.getValue("p0.0"));
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_X, 0.2f);
+        assertEquals(-1, sink.getValue("p0.0"));
+
+        mapper.keyChanged(GamepadMapping.KEYCODE_DPAD_DOWN, true);
+        assertEquals(180, sink.getValue("p0.0"));
+        mapper.keyChanged(GamepadMapping.KEYCODE_DPAD_LEFT, true);
+        assertEquals(225, sink.getValue("p0.0"));
+        // Gamepads that report the pad both ways should not go past the
+        // corner
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_X, -1);
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_Y, 1);
+        assertEquals(225, sink.getValue("p0.0"));
+        mapper.keyChanged(GamepadMapping.KEYCODE_DPAD_DOWN, false);
+        mapper.keyChanged(GamepadMapping.KEYCODE_DPAD_LEFT, false);
+        assertEquals(225, sink.getValue("p0.0"));
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_X, 0);
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_Y, 0);
+        assertEquals(-1, sink.getValue("p0.0"));
+    }
+
+    @Test
+    public void testUnchangedValuesAreDropped() {
+        RecordingSink sink = new RecordingSink();
+        GamepadManager manager = new GamepadManager(sink, 0, 1);
+        GamepadMapper mapper = manager.addDevice(1, GamepadMapping.createStandard());
+
+        mapper.axisChanged(GamepadMapping.AXIS_X, 0.5f);
+        mapper.axisChanged(GamepadMapping.AXIS_X, 0.5f);
+        // Already at rest
+        mapper.axisChanged(GamepadMapping.AXIS_Y, 0);
+        mapper.keyChanged(GamepadMapping.KEYCODE_BUTTON_B, true);
+        // Key repeat
+        mapper.keyChanged(GamepadMapping.KEYCODE_BUTTON_B, true);
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_X, 1);
+        mapper.axisChanged(GamepadMapping.AXIS_HAT_X, 0.9f);
+        assertEquals(3, sink.setCount);
+    }
+
+    @Test
+    public void testHotPlug() {
+        RecordingSink sink = new RecordingSink();
+        GamepadManager manager = new GamepadManager(sink, 1, 2);
+        GamepadMapping mapping = GamepadMapping.createStandard();
+        GamepadMapper first = manager.addDevice(10, mapping);
+        GamepadMapper second = manager.addDevice(11, mapping);
+        assertEquals(1, first.getJoystickIndex());
+        assertEquals(2, second.getJoystickIndex());
+        assertSame(first, manager.addDevice(10, mapping));
+        assertNull(manager.addDevice(12, mapping));
+        assertEquals(2, manager.getDeviceCount());
+
+        first.axisChanged(GamepadMapping.AXIS_X, -0.5f);
+        first.keyChanged(GamepadMapping.KEYCODE_BUTTON_Y, true);
+        first.keyChanged(GamepadMapping.KEYCODE_DPAD_UP, true);
+        second.axisChanged(GamepadMapping.AXIS_X, 0.5f);
+        assertEquals(-0.5f, sink.getValue("a1.0"));
+        assertEquals(0.5f, sink.getValue("a2.0"));
+
+        // Everything the first gamepad was pressing is released before its
+        // joystick goes away
+        assertTrue(manager.removeDevice(10));
+        assertFalse(manager.removeDevice(10));
+        assertFalse(first.isAttached());
+        assertNull(manager.getMapper(10));
+        assertEquals(0f, sink.getValue("a1.0"));
+        assertEquals(false, sink.getValue("b1.3"));
+        assertEquals(-1, sink.getValue("p1.0"));
+        assertFalse(sink.isRegistered("a1.0"));
+        assertFalse(sink.isRegistered("b1.3"));
+        assertFalse(sink.isRegistered("p1.0"));
+        assertFalse(first.axisChanged(GamepadMapping.AXIS_X, 1));
+        assertTrue(sink.isRegistered("a2.0"));
+
+        // The free joystick is reused
+        GamepadMapper third = manager.addDevice(12, mapping);
+        assertEquals(1, third.getJoystickIndex());
+        assertSame(third, manager.getMapper(12));
+        assertSame(second, manager.getMapper(11));
+
+        manager.removeAllDevices();
+        assertEquals(0, manager.getDeviceCount());
+        assertFalse(sink.isRegistered("a1.0"));
+        assertFalse(sink.isRegistered("a2.0"));
+    }
+
+    @Test
+    public void testReconnectedGamepadGetsItsJoystickBack() {
+        RecordingSink sink = new RecordingSink();
+        GamepadManager manager = new GamepadManager(sink, 0, 3);
+        GamepadMapping mapping = GamepadMapping.createStandard();
+        assertEquals(0, manager.addDevice(10, mapping).getJoystickIndex());
+        assertEquals(1, manager.addDevice(11, mapping).getJoystickIndex());
+
+        // A new gamepad does not take the joystick of one that went away
+        manager.removeDevice(10);
+        assertEquals(2, manager.addDevice(12, mapping).getJoystickIndex());
+        assertEquals(0, manager.addDevice(10, mapping).getJoystickIndex());
+
+        // Even if a lower joystick is free
+        manager.removeDevice(10);
+        manager.removeDevice(11);
+        assertEquals(1, manager.addDevice(11, mapping).getJoystickIndex());
+        assertEquals(0, manager.addDevice(10, mapping).getJoystickIndex());
+
+        // Once every joystick has been used, the lowest free one is taken
+        manager.removeDevice(10);
+        assertEquals(0, manager.addDevice(13, mapping).getJoystickIndex());
+        manager.removeDevice(12);
+        assertEquals(2, manager.addDevice(10, mapping).getJoystickIndex());
+    }
+
+    @Test
+    public void testSharedComponentsStayRegistered() {
+        RecordingSink sink = new RecordingSink();
+        // Registered by something else, such as a touch control
+        sink.registerAxis(0, 1);
+        sink.registerButton(0, 0);
+        GamepadManager manager = new GamepadManager(sink, 0, 1);
+        GamepadMapper mapper = manager.addDevice(3, GamepadMapping.createStandard());
+        mapper.axisChanged(GamepadMapping.AXIS_Y, 1);
+        assertEquals(1f, sink.getValue("a0.1"));
+
+        manager.removeDevice(3);
+        assertTrue(sink.isRegistered("a0.1"));
+        assertTrue(sink.isRegistered("b0.0"));
+        assertFalse(sink.isRegistered("a0.0"));
+        assertEquals(0f, sink.getValue("a0.1"));
+    }
+
+    @Test
+    public void testScaleIsClamped() {
+        GamepadMapping mapping = new GamepadMapping();
+        mapping.mapAxis(GamepadMapping.AXIS_Y, 1, -2);
+        try {
+            mapping.mapAxis(GamepadMapping.AXIS_Y, 2, 1);
+            throw new AssertionError("Mapped the same axis twice");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        RecordingSink sink = new RecordingSink();
+        GamepadMapper mapper = new GamepadMapper(mapping, sink, 0);
+        mapper.attach();
+        mapper.axisChanged(GamepadMapping.AXIS_Y, 0.25f);
+        assertEquals(-0.5f, sink.getValue("a0.1"));
+        mapper.axisChanged(GamepadMapping.AXIS_Y, -0.75f);
+        assertEquals(1f, sink.getValue("a0.1"));
+    }
+}
@@ -0,0 +1,235 @@
+package littlebot.robods.journal;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import littlebot.robods.communication.DriverStationPacket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes journals and checks that {@link InputJournalReader} reads back the
+ * same records, in order, including after the ring wraps around.
+ *
+ * @author Ben Wolsieffer
+ */
+public class InputJournalTest {
+
+    private static File createJournalFile() throws IOException {
+        File file = File.createTempFile("input", ".journal");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testAllRecordTypes() throws IOException {
+        File file = createJournalFile();
+        InputJournal journal = new InputJournal(file, 16);
+        journal.recordMode(DriverStationPacket.Mode.AUTONOMOUS);
+        journal.recordEnabled(true);
+        journal.recordAxis(1, 3, -0.25f);
+        journal.recordButton(2, 11, true);
+        journal.recordPOVHat(5, 0, 270);
+        journal.recordEnabled(false);
+        journal.close();
+        // Ignored once closed
+        journal.recordButton(0, 0, true);
+
+        InputJournalReader reader = new InputJournalReader(file);
+        try {
+            assertEquals(6, reader.getRecordCount());
+            assertEquals(0, reader.getOverwrittenRecordCount());
+
+            assertTrue(reader.next());
+            assertEquals(InputJournal.RecordType.MODE, reader.getType());
+            assertEquals(DriverStationPacket.Mode.AUTONOMOUS, reader.getMode());
+            long lastTimestamp = reader.getTimestamp();
+
+            assertTrue(reader.next());
+            assertEquals(InputJournal.RecordType.ENABLED, reader.getType());
+            assertTrue(reader.isEnabled());
+            assertTrue(reader.getTimestamp() >= lastTimestamp);
+            lastTimestamp = reader.getTimestamp();
+
+            assertTrue(reader.next());
+            assertEquals(InputJournal.RecordType.AXIS, reader.getType());
+            assertEquals(1, reader.getJoystick());
+            assertEquals(3, reader.getIndex());
+            assertEquals(-0.25f, reader.getAxisValue(), 0);
+            assertTrue(reader.getTimestamp() >= lastTimestamp);
+
+            assertTrue(reader.next());
+            assertEquals(InputJournal.RecordType.BUTTON, reader.getType());
+            assertEquals(2, reader.getJoystick());
+            assertEquals(11, reader.getIndex());
+            assertTrue(reader.isButtonPressed());
+
+            assertTrue(reader.next());
+            assertEquals(InputJournal.RecordType.POV_HAT, reader.getType());
+            assertEquals(5, reader.getJoystick());
+            assertEquals(270, reader.getPOVHatAngle());
+
+            assertTrue(reader.next());
+            assertEquals(InputJournal.RecordType.ENABLED, reader.getType());
+            assertFalse(reader.isEnabled());
+
+            assertFalse(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRingWrapsAround() throws IOException {
+        // Larger than a read chunk, and not a multiple of it, so that reads
+        // are split at the end of the ring
+        int capacity = 2500;
+        int written = 7 * capacity + 123;
+        File file = createJournalFile();
+        InputJournal journal = new InputJournal(file, capacity);
+        for (int i = 0; i < written; i++) {
+            journal.recordPOVHat(0, i & 0xFFFF, i);
+        }
+        assertEquals(written, journal.getRecordCount());
+        journal.close();
+
+        InputJournalReader reader = new InputJournalReader(file);
+        try {
+            assertEquals(capacity, reader.getRecordCount());
+            assertEquals(written - capacity, reader.getOverwrittenRecordCount());
+            long lastTimestamp = 0;
+            for (int i = written - capacity; i < written; i++) {
+                assertTrue(reader.next());
+                assertEquals(i, reader.getPOVHatAngle());
+                assertEquals(i & 0xFFFF, reader.getIndex());
+                assertTrue(reader.getTimestamp() > lastTimestamp);
+                lastTimestamp = reader.getTimestamp();
+            }
+            assertFalse(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Simulates the app dying after it wrote the timestamp and value of a new
+     * record over the oldest one, but before it wrote the type and counted
+     * the record.
+     */
+    @Test
+    public void testTornOldestRecordIsSkipped() throws IOException {
+        int capacity = 16;
+        int written = 2 * capacity + 8;
+        File file = createJournalFile();
+        InputJournal journal = new InputJournal(file, capacity);
+        for (int i = 0; i < written; i++) {
+            journal.recordPOVHat(0, 0, i);
+        }
+        journal.close();
+
+        long newestTimestamp;
+        InputJournalReader reader = new InputJournalReader(file);
+        try {
+            while (reader.next()) {
+                // Find the newest timestamp
+            }
+            newestTimestamp = reader.getTimestamp();
+        } finally {
+            reader.close();
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            long position = InputJournal.HEADER_LENGTH + (written % capacity) * InputJournal.RECORD_LENGTH;
+            randomAccessFile.seek(position);
+            randomAccessFile.writeLong(newestTimestamp + 1000);
+            randomAccessFile.seek(position + InputJournal.VALUE_OFFSET);
+            randomAccessFile.writeInt(written);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        reader = new InputJournalReader(file);
+        try {
+            assertEquals(capacity - 1, reader.getRecordCount());
+            assertEquals(written - capacity + 1, reader.getOverwrittenRecordCount());
+            for (int i = written - capacity + 1; i < written; i++) {
+                assertTrue(reader.next());
+                assertEquals(i, reader.getPOVHatAngle());
+            }
+            assertFalse(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters() throws IOException, InterruptedException {
+        final int threadCount = 4;
+        final int perThread = 20000;
+        File file = createJournalFile();
+        final InputJournal journal = new InputJournal(file, threadCount * perThread);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int joystick = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        journal.recordPOVHat(joystick, 0, i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount * perThread, journal.getRecordCount());
+        journal.close();
+
+        InputJournalReader reader = new InputJournalReader(file);
+        try {
+            // Each thread's records are in the order it wrote them, and the
+            // timestamps always increase across threads
+            int[] next = new int[threadCount];
+            long lastTimestamp = 0;
+            for (int i = 0; i < threadCount * perThread; i++) {
+                assertTrue(reader.next());
+                assertEquals(InputJournal.RecordType.POV_HAT, reader.getType());
+                assertEquals(next[reader.getJoystick()]++, reader.getPOVHatAngle());
+                assertTrue(reader.getTimestamp() > lastTimestamp);
+                lastTimestamp = reader.getTimestamp();
+            }
+            assertFalse(reader.next());
+            for (int t = 0; t < threadCount; t++) {
+                assertEquals(perThread, next[t]);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testNotAJournal() throws IOException {
+        File file = createJournalFile();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.write(new byte[InputJournal.HEADER_LENGTH]);
+        } finally {
+            randomAccessFile.close();
+        }
+        try {
+            new InputJournalReader(file).close();
+            fail("Read a file that is not a journal");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package littlebot.robods.journal;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import littlebot.robods.communication.DriverStationPacket;
+import littlebot.robods.communication.DriverStationPacketReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a short journal on a simulated clock, and checks that the packets
+ * are the same every time and end up with the recorded state.
+ *
+ * @author Ben Wolsieffer
+ */
+public class JournalReplayerTest {
+
+    private static final long PERIOD = 20;
+
+    /**
+     * Keeps a copy of every packet.
+     */
+    private static class RecordingSink implements JournalReplayer.PacketSink {
+        final List<byte[]> packets = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+
+        @Override
+        public void packetEncoded(long time, ByteBuffer packet) {
+            byte[] copy = new byte[packet.remaining()];
+            packet.duplicate().get(copy);
+            packets.add(copy);
+            times.add(time);
+        }
+    }
+
+    private static File recordJournal() throws IOException, InterruptedException {
+        File file = File.createTempFile("input", ".journal");
+        file.deleteOnExit();
+        InputJournal journal = new InputJournal(file, 1024);
+        journal.recordMode(DriverStationPacket.Mode.AUTONOMOUS);
+        journal.recordEnabled(true);
+        Thread.sleep(30);
+        journal.recordAxis(0, 1, 0.5f);
+        journal.recordButton(0, 2, true);
+        Thread.sleep(50);
+        journal.recordAxis(1, 0, -1);
+        journal.recordPOVHat(0, 0, 90);
+        journal.close();
+        return file;
+    }
+
+    private static RecordingSink replay(File file) throws IOException {
+        RecordingSink sink = new RecordingSink();
+        InputJournalReader reader = new InputJournalReader(file);
+        try {
+            JournalReplayer replayer = new JournalReplayer(new DriverStationPacket());
+            long packetCount = replayer.replay(reader, PERIOD, TimeUnit.MILLISECONDS, sink);
+            assertEquals(packetCount, sink.packets.size());
+            assertEquals(6, replayer.getAppliedCount());
+        } finally {
+            reader.close();
+        }
+        return sink;
+    }
+
+    @Test
+    public void testReplayIsDeterministic() throws IOException, InterruptedException {
+        File file = recordJournal();
+        RecordingSink first = replay(file);
+        RecordingSink second = replay(file);
+
+        assertEquals(first.packets.size(), second.packets.size());
+        for (int i = 0; i < first.packets.size(); i++) {
+            assertEquals("Time of packet " + i, first.times.get(i), second.times.get(i));
+            assertTrue("Packet " + i + " differs", Arrays.equals(first.packets.get(i), second.packets.get(i)));
+        }
+    }
+
+    @Test
+    public void testReplayAppliesRecords() throws IOException, InterruptedException {
+        File file = recordJournal();
+        RecordingSink sink = replay(file);
+
+        // At least 80 ms were recorded, so there are at least 5 ticks
+        assertTrue("Only " + sink.packets.size() + " packets", sink.packets.size() >= 5);
+        for (int i = 0; i < sink.times.size(); i++) {
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(PERIOD) * i, (long) sink.times.get(i));
+        }
+
+        // The first packet is at time zero, before anything was recorded, and
+        // the joysticks were only changed after 30 ms
+        DriverStationPacketReader second = new DriverStationPacketReader().wrap(ByteBuffer.wrap(sink.packets.get(1)));
+        assertEquals(DriverStationPacket.Mode.AUTONOMOUS, second.getMode());
+        assertTrue(second.isEnabled());
+        assertEquals(0, second.getJoystickCount());
+
+        byte[] lastPacket = sink.packets.get(sink.packets.size() - 1);
+        DriverStationPacketReader last = new DriverStationPacketReader().wrap(ByteBuffer.wrap(lastPacket));
+        assertEquals(sink.packets.size() - 2, last.getIndex() - second.getIndex());
+        assertEquals(2, last.getJoystickCount());
+        int joystick0 = last.findJoystick(0);
+        assertEquals(DriverStationPacket.Joystick.quantizeAxis(0.5f), last.getAxis(joystick0, 1));
+        assertTrue(last.isButtonPressed(joystick0, 2));
+        assertEquals(90, last.getPOVHat(joystick0, 0));
+        int joystick1 = last.findJoystick(1);
+        assertEquals(DriverStationPacket.Joystick.quantizeAxis(-1), last.getAxis(joystick1, 0));
+    }
+}